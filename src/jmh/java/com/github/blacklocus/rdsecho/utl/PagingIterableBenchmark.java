@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Iterates {@link #pages} pages of 100 elements, each page taking {@link #latencyMillis} to fetch and each element
+ * {@link #workTokens} of work to consume, so that how much prefetching overlaps the two shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PagingIterableBenchmark {
+
+    static final Iterable<Integer> PAGE = ContiguousSet.create(Range.closedOpen(0, 100), DiscreteDomain.integers());
+
+    @Param({"10", "500"})
+    int pages;
+
+    @Param({"0", "1"})
+    long latencyMillis;
+
+    @Param({"0", "1", "4"})
+    int prefetch;
+
+    @Param({"1000"})
+    long workTokens;
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        final long latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        PagingIterable<Integer> iterable = new PagingIterable<Integer>(new Supplier<Iterable<Integer>>() {
+
+            int fetched = 0;
+
+            @Override
+            public Iterable<Integer> get() {
+                if (fetched++ == pages) {
+                    return null;
+                }
+                if (latencyNanos > 0) {
+                    LockSupport.parkNanos(latencyNanos);
+                }
+                return PAGE;
+            }
+        }, prefetch);
+
+        for (Integer element : iterable) {
+            Blackhole.consumeCPU(workTokens);
+            blackhole.consume(element);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.EchoConst;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of instances and snapshots as Echo does it on every run, against an account holding {@link #size}
+ * instances, one in a hundred of them managed by Echo, and {@link #size} snapshots of the source instance. Every call
+ * to RDS takes {@link #latencyMillis}, so that the cost of the number of calls made shows, e.g.
+ * {@code ./gradlew jmh -PjmhArgs='RdsFindBenchmark -p latencyMillis=20 -p tagDiscovery=LIST'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RdsFindBenchmark {
+
+    static final String REGION = "us-east-1";
+    static final String ACCOUNT_NUMBER = "123456789012";
+    static final String SOURCE = "production";
+    static final String MANAGED = String.format(EchoConst.TAG_ECHO_MANAGED_FMT, "development");
+
+    @Param({"1000", "10000", "50000"})
+    int size;
+
+    @Param({"0"})
+    long latencyMillis;
+
+    @Param({"AUTO"})
+    RdsFind.TagDiscovery tagDiscovery;
+
+    @Param({"0", "2"})
+    int prefetchPages;
+
+    @Param({"8"})
+    int tagConcurrency;
+
+    RdsFind rdsFind;
+    List<DBInstance> described;
+
+    @Setup
+    public void setUp() {
+        long start = new DateTime(2015, 1, 1, 0, 0).getMillis();
+        List<DBInstance> instances = Lists.newArrayListWithCapacity(size);
+        List<DBSnapshot> snapshots = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            String dbInstanceIdentifier = "instance-" + i;
+            DBInstance instance = new DBInstance()
+                    .withDBInstanceIdentifier(dbInstanceIdentifier)
+                    .withDBInstanceArn(RdsFind.instanceArn(REGION, ACCOUNT_NUMBER, dbInstanceIdentifier))
+                    .withDBInstanceStatus("available")
+                    .withTagList(new Tag().withKey("team").withValue("team-" + i % 7));
+            // A few are still being created, and have no create time yet.
+            if (i % 50 != 49) {
+                instance.withInstanceCreateTime(new Date(start + TimeUnit.HOURS.toMillis(i)));
+            }
+            if (i % 100 == 0) {
+                instance.withTagList(new Tag().withKey(MANAGED).withValue("true"));
+            }
+            instances.add(instance);
+
+            DBSnapshot snapshot = new DBSnapshot()
+                    .withDBInstanceIdentifier(SOURCE)
+                    .withDBSnapshotIdentifier("rds:" + SOURCE + "-" + i)
+                    .withSnapshotType("automated")
+                    .withStatus("available");
+            if (i % 50 != 49) {
+                snapshot.withSnapshotCreateTime(new Date(start + TimeUnit.HOURS.toMillis(size - i)));
+            }
+            snapshots.add(snapshot);
+        }
+
+        rdsFind = new RdsFind(new StandInRds(instances, snapshots, latencyMillis), tagDiscovery, tagConcurrency,
+                prefetchPages);
+        described = Lists.newArrayList(rdsFind.instances(Predicates.<DBInstance>alwaysTrue()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        rdsFind.close();
+    }
+
+    @Benchmark
+    public int describeEveryInstance() {
+        return Iterables.size(rdsFind.instances(Predicates.<DBInstance>alwaysTrue()));
+    }
+
+    @Benchmark
+    public List<DBInstance> findEchoInstances() {
+        return Lists.newArrayList(rdsFind.instances(rdsFind.instanceHasTag(REGION, ACCOUNT_NUMBER, MANAGED, "true")));
+    }
+
+    @Benchmark
+    public List<List<Tag>> readTagsConcurrently() {
+        return rdsFind.instanceTags(REGION, ACCOUNT_NUMBER, described);
+    }
+
+    @Benchmark
+    public Optional<DBInstance> newestInstance() {
+        return RdsFind.newestInstance(described);
+    }
+
+    @Benchmark
+    public List<DBInstance> validInstances() {
+        return RdsFind.validInstances(described);
+    }
+
+    @Benchmark
+    public Optional<DBSnapshot> newestSnapshot() {
+        return RdsFind.newestSnapshot(rdsFind.snapshots(SOURCE, Predicates.<DBSnapshot>alwaysTrue()));
+    }
+}
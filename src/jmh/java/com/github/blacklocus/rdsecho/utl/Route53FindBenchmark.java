@@ -0,0 +1,96 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing record sets of a hosted zone holding {@link #size} of them, each call taking {@link #latencyMillis}: the
+ * whole zone, and just the CNAME promote reads, which should cost the same whatever the size of the zone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Route53FindBenchmark {
+
+    static final String ZONE_ID = "/hostedzone/Z1";
+    static final String CNAME = "dev.domain.com.";
+
+    @Param({"1000", "10000", "50000"})
+    int size;
+
+    @Param({"0"})
+    long latencyMillis;
+
+    @Param({"0", "2"})
+    int prefetchPages;
+
+    Route53Find route53Find;
+
+    @Setup
+    public void setUp() {
+        List<ResourceRecordSet> recordSets = Lists.newArrayListWithCapacity(size + 1);
+        for (int i = 0; i < size; i++) {
+            recordSets.add(new ResourceRecordSet("host-" + i + ".domain.com.", RRType.A)
+                    .withTTL(300L)
+                    .withResourceRecords(new ResourceRecord("10.0." + i / 256 % 256 + "." + i % 256)));
+        }
+        recordSets.add(new ResourceRecordSet(CNAME, RRType.CNAME)
+                .withTTL(300L)
+                .withResourceRecords(new ResourceRecord("development.abcdefghijkl.us-east-1.rds.amazonaws.com")));
+
+        route53Find = new Route53Find(new StandInRoute53(recordSets, latencyMillis), prefetchPages);
+    }
+
+    @Benchmark
+    public int listZone() {
+        return Iterables.size(route53Find.resourceRecordSets(ZONE_ID));
+    }
+
+    @Benchmark
+    public List<ResourceRecordSet> listCname() {
+        return Lists.newArrayList(route53Find.resourceRecordSets(ZONE_ID, CNAME, RRType.CNAME));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AbstractAmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsResult;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimaps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Read-only RDS held in memory for benchmarks. Pages describe results as RDS does, so that the number of calls made
+ * matches what a real account of that size would cost, and pauses for a fixed latency on every call to stand in for
+ * the round trip. Nothing changes once built, so calls need no locking and may overlap just as they would against AWS.
+ * <p>
+ * Not the test fixtures' {@code SimulatedRds}, which takes its latency on a virtual clock, at no cost in wall time,
+ * serializes every call on one lock and walks all of its instances for each page, so that a benchmark against it would
+ * time the simulation rather than discovery.
+ */
+class StandInRds extends AbstractAmazonRDS {
+
+    /**
+     * Records returned per describe call, the RDS default for MaxRecords
+     */
+    static final int PAGE_SIZE = 100;
+
+    final List<DBInstance> instances;
+    final Map<String, List<Tag>> tagsByArn;
+    final ImmutableListMultimap<String, DBSnapshot> snapshotsByInstance;
+    final long latencyNanos;
+
+    /**
+     * @param instances     carrying their tags, which are also returned by ListTagsForResource
+     * @param latencyMillis how long each call takes
+     */
+    StandInRds(List<DBInstance> instances, List<DBSnapshot> snapshots, long latencyMillis) {
+        this.instances = ImmutableList.copyOf(instances);
+        ImmutableMap.Builder<String, List<Tag>> tagsByArn = ImmutableMap.builder();
+        for (DBInstance instance : instances) {
+            tagsByArn.put(instance.getDBInstanceArn(), ImmutableList.copyOf(instance.getTagList()));
+        }
+        this.tagsByArn = tagsByArn.build();
+        this.snapshotsByInstance = Multimaps.index(snapshots, new Function<DBSnapshot, String>() {
+            @Override
+            public String apply(DBSnapshot snapshot) {
+                return snapshot.getDBInstanceIdentifier();
+            }
+        });
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+        pause();
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(instances.size(), from + PAGE_SIZE);
+        return new DescribeDBInstancesResult()
+                .withDBInstances(instances.subList(from, to))
+                .withMarker(to < instances.size() ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public ListTagsForResourceResult listTagsForResource(ListTagsForResourceRequest request) {
+        pause();
+        List<Tag> tags = tagsByArn.get(request.getResourceName());
+        return new ListTagsForResourceResult().withTagList(tags == null ? ImmutableList.<Tag>of() : tags);
+    }
+
+    @Override
+    public DescribeDBSnapshotsResult describeDBSnapshots(DescribeDBSnapshotsRequest request) {
+        pause();
+        List<DBSnapshot> snapshots = snapshotsByInstance.get(request.getDBInstanceIdentifier());
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(snapshots.size(), from + PAGE_SIZE);
+        return new DescribeDBSnapshotsResult()
+                .withDBSnapshots(snapshots.subList(from, to))
+                .withMarker(to < snapshots.size() ? String.valueOf(to) : null);
+    }
+
+    void pause() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.AbstractAmazonRoute53;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Read-only Route53 hosted zone held in memory for benchmarks. Lists record sets in Route53's order, by name with its
+ * labels reversed and then by type, a page at a time, and pauses for a fixed latency on every call. It finds where a
+ * page starts by binary search, where {@code SimulatedRoute53} walks the zone from the top and pauses on a virtual
+ * clock, either of which would hide what listing costs Echo.
+ */
+class StandInRoute53 extends AbstractAmazonRoute53 {
+
+    /**
+     * Record sets returned per list call, the Route53 default for MaxItems
+     */
+    static final int PAGE_SIZE = 300;
+
+    final List<ResourceRecordSet> recordSets;
+    final String[] keys;
+    final long latencyNanos;
+
+    /**
+     * @param latencyMillis how long each call takes
+     */
+    StandInRoute53(List<ResourceRecordSet> recordSets, long latencyMillis) {
+        List<ResourceRecordSet> sorted = Lists.newArrayList(recordSets);
+        Collections.sort(sorted, new Comparator<ResourceRecordSet>() {
+            @Override
+            public int compare(ResourceRecordSet a, ResourceRecordSet b) {
+                return key(a.getName(), a.getType()).compareTo(key(b.getName(), b.getType()));
+            }
+        });
+        this.recordSets = sorted;
+        this.keys = new String[sorted.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(sorted.get(i).getName(), sorted.get(i).getType());
+        }
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public ListResourceRecordSetsResult listResourceRecordSets(ListResourceRecordSetsRequest request) {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        int from = 0;
+        if (request.getStartRecordName() != null) {
+            int found = Arrays.binarySearch(keys, key(request.getStartRecordName(), request.getStartRecordType()));
+            from = found >= 0 ? found : -found - 1;
+        }
+        int to = Math.min(recordSets.size(), from + PAGE_SIZE);
+        ListResourceRecordSetsResult result = new ListResourceRecordSetsResult()
+                .withResourceRecordSets(recordSets.subList(from, to))
+                .withIsTruncated(to < recordSets.size());
+        if (to < recordSets.size()) {
+            result.withNextRecordName(recordSets.get(to).getName()).withNextRecordType(recordSets.get(to).getType());
+        }
+        return result;
+    }
+
+    static String key(String name, String type) {
+        List<String> labels = Lists.newArrayList(Route53Find.normalize(name).split("\\."));
+        Collections.reverse(labels);
+        return Joiner.on('.').join(labels) + ' ' + (type == null ? "" : type);
+    }
+}
@@ -24,17 +24,17 @@
 package com.github.blacklocus.rdsecho;
 
 import com.amazonaws.services.rds.AmazonRDS;
-import com.amazonaws.services.rds.AmazonRDSClientBuilder;
-import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
-import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.TagWriter;
 import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
 
@@ -43,14 +43,31 @@ abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
     final String requisiteStage;
     final String resultantStage;
 
-    final AmazonRDS rds = AmazonRDSClientBuilder.defaultClient();
+    final EchoUtil echo;
+    final EchoCfg cfg;
+    final EchoClients clients;
+    final AmazonRDS rds;
 
-    final EchoCfg cfg = EchoCfg.getInstance();
-    final EchoUtil echo = new EchoUtil();
+    /**
+     * Tags written by {@link #traverseStage(DBInstance)} go here, to be written along with the stage advance.
+     */
+    final TagWriter tags;
 
     public AbstractEchoIntermediateStage(String requisiteStage, String resultantStage) {
+        this(requisiteStage, resultantStage, new EchoUtil());
+    }
+
+    /**
+     * @param echo whose configuration and clients this stage uses
+     */
+    public AbstractEchoIntermediateStage(String requisiteStage, String resultantStage, EchoUtil echo) {
         this.requisiteStage = requisiteStage;
         this.resultantStage = resultantStage;
+        this.echo = echo;
+        this.cfg = echo.cfg();
+        this.clients = echo.clients();
+        this.rds = clients.rds();
+        this.tags = echo.tagWriter();
     }
 
     @Override
@@ -92,19 +109,37 @@ abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
         // Looks like we found a good echo instance, but is it available to us?
 
         if (!"available".equals(instance.getDBInstanceStatus())) {
-            LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so aborting.",
-                    command, dbInstanceId, instanceStage, instance.getDBInstanceStatus());
-            return false;
+            if (!cfg.waitEnabled()) {
+                LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so aborting.",
+                        command, dbInstanceId, instanceStage, instance.getDBInstanceStatus());
+                return false;
+            }
+
+            int timeoutMinutes = cfg.waitTimeoutMinutes(command);
+            LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}). " +
+                            "Waiting up to {} minutes for it.",
+                    command, dbInstanceId, instanceStage, instance.getDBInstanceStatus(), timeoutMinutes);
+            Optional<DBInstance> availableOpt;
+            RunReport.Span span = echo.span(RunReport.WAIT, dbInstanceId);
+            try {
+                availableOpt = echo.waiter().awaitAvailable(dbInstanceId, TimeUnit.MINUTES.toMillis(timeoutMinutes));
+            } finally {
+                span.end();
+            }
+            if (!availableOpt.isPresent()) {
+                LOG.info("[{}] Instance {} did not become available so aborting.", command, dbInstanceId);
+                return false;
+            }
+            instance = availableOpt.get();
         }
 
         // Do the part special to traversing this stage
 
         if (traverseStage(instance)) {
 
-            // Advance. This replaces, same-named tags.
-            rds.addTagsToResource(new AddTagsToResourceRequest()
-                    .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), instance.getDBInstanceIdentifier()))
-                    .withTags(new Tag().withKey(tagEchoStage).withValue(resultantStage)));
+            // Advance. This replaces, same-named tags. Goes out in one call with any other tags for this instance.
+            tags.add(instance.getDBInstanceIdentifier(), new Tag().withKey(tagEchoStage).withValue(resultantStage));
+            echo.timed(RunReport.TAG_WRITE, instance.getDBInstanceIdentifier(), tags::flush);
 
             return true;
 
@@ -23,10 +23,18 @@
  */
 package com.github.blacklocus.rdsecho;
 
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.MetricsExporter;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -35,10 +43,13 @@ import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_COPY;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_DAEMON;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_MODIFY;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_NEW;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_PROMOTE;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_REBOOT;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_WARM;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_RETIRE;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_FORGOTTEN;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_MODIFIED;
@@ -46,6 +57,7 @@ import static com.github.blacklocus.rdsecho.EchoConst.STAGE_NEW;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_PROMOTED;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_REBOOTED;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_RETIRED;
+import static com.github.blacklocus.rdsecho.EchoConst.STAGE_WARMED;
 
 public class Echo {
 
@@ -61,51 +73,134 @@ public class Echo {
                             "present in the current directory, OPTS property values will be populated with the file's " +
                             "values. The stdout of this command can be piped to a file. Log messages are placed on " +
                             "stderr and so will not be included in the output."))
-            .put(COMMAND_NEW, bundle(EchoNew.class,
+            .put(COMMAND_COPY, bundle(EchoCopy.class, EchoCopy::new,
+                    "Copies the latest snapshot from the region or account set by %s and %s, where it must be " +
+                            "copied before '%s' can restore it. Run it well ahead of '%s', as a copy may take as " +
+                            "long as a restore.",
+                    EchoCfg.PROP_SNAPSHOT_SOURCE_REGION, EchoCfg.PROP_SNAPSHOT_SOURCE_ACCOUNT_NUMBER,
+                    COMMAND_NEW, COMMAND_NEW))
+            .put(COMMAND_NEW, bundle(EchoNew.class, EchoNew::new,
                     "Creates a stage '%s' instance from a snapshot. This is usually the longest operation.",
                     STAGE_NEW))
-            .put(COMMAND_MODIFY, bundle(EchoModify.class,
+            .put(COMMAND_MODIFY, bundle(EchoModify.class, EchoModify::new,
                     "Modifies a stage '%s' instance with remaining settings that could not be applied on create and advances stage to '%s'.",
                     STAGE_NEW, STAGE_MODIFIED))
-            .put(COMMAND_REBOOT, bundle(EchoReboot.class,
+            .put(COMMAND_REBOOT, bundle(EchoReboot.class, EchoReboot::new,
                     "Reboots a stage '%s' instance so that all settings may take full effect and advances stage to '%s'.",
                     STAGE_MODIFIED, STAGE_REBOOTED))
-            .put(COMMAND_PROMOTE, bundle(EchoPromote.class,
-                    "Promotes a stage '%s' instance so that it becomes the active instance behind the specified CNAME " +
-                            "and advances stage to '%s'. Any previously '%s' instances will be moved to stage '%s'.",
-                    STAGE_REBOOTED, STAGE_PROMOTED, STAGE_PROMOTED, STAGE_FORGOTTEN))
-            .put(COMMAND_RETIRE, bundle(EchoRetire.class,
-                    "Retires a stage '%s' instance (destroys it) and advances stage to '%s'.",
+            .put(COMMAND_WARM, bundle(EchoWarm.class, EchoWarm::new,
+                    "Reads through a stage '%s' instance over JDBC so that its storage is loaded before it takes " +
+                            "traffic and advances stage to '%s'. Only used when %s is set.",
+                    STAGE_REBOOTED, STAGE_WARMED, EchoCfg.PROP_JDBC_URL))
+            .put(COMMAND_PROMOTE, bundle(EchoPromote.class, EchoPromote::new,
+                    "Promotes a stage '%s' instance, or '%s' if warming, so that it becomes the active instance " +
+                            "behind the specified CNAME and advances stage to '%s'. Any previously '%s' instances " +
+                            "will be moved to stage '%s'.",
+                    STAGE_REBOOTED, STAGE_WARMED, STAGE_PROMOTED, STAGE_PROMOTED, STAGE_FORGOTTEN))
+            .put(COMMAND_RETIRE, bundle(EchoRetire.class, EchoRetire::new,
+                    "Retires every stage '%s' instance (destroys it), several at once, and advances stage to '%s'.",
                     STAGE_FORGOTTEN, STAGE_RETIRED))
+            .put(COMMAND_DAEMON, bundle(EchoDaemon.class, EchoDaemon::new,
+                    "Runs each of the above stage commands as soon as the Echo instance is ready for it, from creating " +
+                            "a '%s' instance through to retiring '%s' instances, and exits once done. Picks up any " +
+                            "refresh already under way.",
+                    STAGE_NEW, STAGE_FORGOTTEN))
             .build();
 
+    /**
+     * Stage commands given this wait for their instance to become available rather than exiting.
+     */
+    static final String OPTION_WAIT = "--wait";
+
+    /**
+     * Commands given this run for every environment listed in rdsecho.environments.
+     */
+    static final String OPTION_ALL = "--all";
+
     public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        if (arguments.remove(OPTION_WAIT)) {
+            // Same as -Drdsecho.wait=true. Configuration is read on first use, which is yet to come.
+            System.setProperty(EchoCfg.PROP_WAIT, "true");
+        }
+        boolean all = arguments.remove(OPTION_ALL);
+
+        if (arguments.size() == 0) {
             printUsage();
 
-        } else if (args.length == 1) {
-            String command = args[0];
+        } else if (arguments.size() == 1) {
+            String command = arguments.get(0);
             CommandBundle bundle = COMMANDS.get(command);
 
             if (bundle == null) {
                 LOG.error("Unrecognized command '{}'.");
                 printUsage();
 
+            } else if (bundle.commandFactory == null) {
+                if (all) {
+                    LOG.error("Command '{}' does not take {}.", command, OPTION_ALL);
+                } else {
+                    // Makes no AWS calls, and needs no configuration.
+                    bundle.commandClass.getDeclaredConstructor().newInstance().call();
+                }
+
             } else {
-                bundle.commandClass.newInstance().call();
+                // Closed once the command is done with it, releasing the threads it finds instances with.
+                try (EchoUtil echo = new EchoUtil()) {
+                    if (!all) {
+                        run(command, bundle.commandFactory.apply(echo));
+                    } else if (COMMAND_DAEMON.equals(command)) {
+                        List<String> environments = echo.cfg().environments();
+                        if (environments.isEmpty()) {
+                            LOG.error("No environments are listed in {}.", EchoCfg.PROP_ENVIRONMENTS);
+                        } else {
+                            run(command, new EchoDaemon(echo, environments));
+                        }
+                    } else {
+                        run(command, new EchoEnvironments(echo, command, bundle.commandFactory));
+                    }
+                }
             }
 
         } else {
-            LOG.error("Expected exactly one argument.");
+            LOG.error("Expected exactly one command.");
             printUsage();
         }
     }
 
+    /**
+     * Runs the command with the AWS calls it makes counted under its name, and writes those counts out as configured
+     * once it is done, and every so often meanwhile if it is the daemon. Then sums up where the time went, and writes
+     * the run's report if so configured.
+     */
+    static Boolean run(String command, Callable<Boolean> call) throws Exception {
+        EchoCfg cfg = EchoCfg.getInstance();
+        EchoClients clients = EchoClients.getInstance();
+        MetricsExporter exporter = new MetricsExporter(clients.metrics(), cfg.metricsPrometheusFile(),
+                cfg.metricsJsonFile());
+        if (COMMAND_DAEMON.equals(command)) {
+            exporter.every(cfg.metricsIntervalSeconds());
+        }
+        Boolean result = null;
+        try {
+            result = ApiMetrics.inStage(command, call);
+            return result;
+        } finally {
+            exporter.close();
+            RunReport report = clients.report();
+            LOG.info("[{}] Critical path: {}", command, report.summary());
+            Optional<File> reportDirOpt = cfg.reportDir();
+            if (reportDirOpt.isPresent()) {
+                LOG.info("[{}] Wrote run report {}", command, report.write(reportDirOpt.get(), command, result));
+            }
+        }
+    }
+
     static void printUsage() {
         StringWriter s = new StringWriter();
         PrintWriter p = new PrintWriter(s)
                 .format("usage:%n")
-                .format("$ rds-echo <command>%n")
+                .format("$ rds-echo <command> [%s] [%s]%n", OPTION_WAIT, OPTION_ALL)
                 .format("%n")
                 .format("RDS Echo may be configured by rdsecho.properties in the current working directory, %n")
                 .format("or exporting a fully-populated RDS_ECHO_OPTS environment variable.%n")
@@ -115,6 +210,9 @@ public class Echo {
                 .format("many of the parameters. This can then be converted to OPTS if desired through the%n")
                 .format("sample-opts command.%n")
                 .format("%n")
+                .format("With %s, a command whose instance is not yet available waits for it rather than exiting.%n", OPTION_WAIT)
+                .format("With %s, a command runs for every environment listed in %s.%n", OPTION_ALL, EchoCfg.PROP_ENVIRONMENTS)
+                .format("%n")
                 .format("Valid commands correspond to Echo stages:%n")
                 .format("%n");
 
@@ -158,15 +256,27 @@ public class Echo {
     }
 
     static CommandBundle bundle(Class<? extends Callable<Boolean>> commandClass, String descriptionFormat, Object... formatArgs) {
-        return new CommandBundle(commandClass, String.format(descriptionFormat, formatArgs));
+        return new CommandBundle(commandClass, null, String.format(descriptionFormat, formatArgs));
+    }
+
+    static CommandBundle bundle(Class<? extends Callable<Boolean>> commandClass,
+                                Function<EchoUtil, ? extends Callable<Boolean>> commandFactory,
+                                String descriptionFormat, Object... formatArgs) {
+        return new CommandBundle(commandClass, commandFactory, String.format(descriptionFormat, formatArgs));
     }
 
     static class CommandBundle {
         final Class<? extends Callable<Boolean>> commandClass;
+        /**
+         * Builds the command on the given EchoUtil, which may be one environment's, or null if it makes no AWS calls
+         */
+        final Function<EchoUtil, ? extends Callable<Boolean>> commandFactory;
         final String description;
 
-        CommandBundle(Class<? extends Callable<Boolean>> commandClass, String description) {
+        CommandBundle(Class<? extends Callable<Boolean>> commandClass,
+                      Function<EchoUtil, ? extends Callable<Boolean>> commandFactory, String description) {
             this.commandClass = commandClass;
+            this.commandFactory = commandFactory;
             this.description = description;
         }
     }
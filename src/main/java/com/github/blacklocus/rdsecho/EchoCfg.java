@@ -23,10 +23,13 @@
  */
 package com.github.blacklocus.rdsecho;
 
+import com.github.blacklocus.rdsecho.utl.RdsFind;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
+import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.CompositeConfiguration;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.configuration.SystemConfiguration;
@@ -34,8 +37,13 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 public class EchoCfg {
 
@@ -43,6 +51,12 @@ public class EchoCfg {
 
     public static final String PREFIX = "rdsecho.";
 
+    // Environments are optional. Each is configured by rdsecho.env.<environment>.* properties which override their
+    // rdsecho.* counterparts.
+    public static final String PROP_ENVIRONMENTS = PREFIX + "environments";
+    public static final String PROP_ENVIRONMENTS_CONCURRENCY = PREFIX + "environments.concurrency";
+    public static final String ENVIRONMENT_PREFIX_FMT = PREFIX + "env.%s";
+
     // Required, must be defined
     public static final String PROP_INTERACTIVE = PREFIX + "interactive";
     public static final String PROP_NAME = PREFIX + "name";
@@ -50,6 +64,15 @@ public class EchoCfg {
     public static final String PROP_ACCOUNT_NUMBER = PREFIX + "accountNumber";
     public static final String PROP_SNAPSHOT_DB_INSTANCE_IDENTIFIER = PREFIX + "snapshot.dbInstanceIdentifier";
 
+    // Snapshot selection parameters are optional
+    public static final String PROP_SNAPSHOT_TYPE = PREFIX + "snapshot.type";
+    public static final String PROP_SNAPSHOT_SKIP_RESTORED = PREFIX + "snapshot.skipRestored";
+    public static final String PROP_SNAPSHOT_SOURCE_REGION = PREFIX + "snapshot.sourceRegion";
+    public static final String PROP_SNAPSHOT_SOURCE_ACCOUNT_NUMBER = PREFIX + "snapshot.sourceAccountNumber";
+
+    // Copy parameters are optional
+    public static final String PROP_COPY_KMS_KEY_ID = PREFIX + "copy.kmsKeyId";
+
     // All new instance parameters are required
     public static final String PROP_NEW_ENGINE = PREFIX + "new.engine";
     public static final String PROP_NEW_LICENSE_MODEL = PREFIX + "new.licenseModel";
@@ -64,6 +87,7 @@ public class EchoCfg {
     public static final String PROP_NEW_VPC_SECURITY_GROUP_IDS = PREFIX + "new.vpcSecurityGroupIds";
     public static final String PROP_NEW_DB_SUBNET_GROUP_NAME = PREFIX + "new.dbSubnetGroupName";
     public static final String PROP_NEW_MINIMUM_AGE_HOURS = PREFIX + "new.minimumAgeHours";
+    public static final String PROP_NEW_FAST_PATH = PREFIX + "new.fastPath";
 
     // Modify parameters are mostly optional
     public static final String PROP_MOD_DB_PARAMETER_GROUP_NAME = PREFIX + "mod.dbParameterGroupName";
@@ -78,9 +102,80 @@ public class EchoCfg {
     public static final String PROP_PROMOTE_TTL = PREFIX + "promote.ttl";
     public static final String PROP_PROMOTE_TAGS = PREFIX + "promote.tags";
 
+    // Weighted promote parameters are optional
+    public static final String PROP_PROMOTE_MODE = PREFIX + "promote.mode";
+    public static final String PROP_PROMOTE_WEIGHTS = PREFIX + "promote.weights";
+    public static final String PROP_PROMOTE_WEIGHT_WINDOW_MINUTES = PREFIX + "promote.weightWindowMinutes";
+
+    // JDBC parameters are optional. Warming and the promote gate connect to instances with them.
+    public static final String PROP_JDBC_URL = PREFIX + "jdbc.url";
+    public static final String PROP_JDBC_USER = PREFIX + "jdbc.user";
+    public static final String PROP_JDBC_PASSWORD = PREFIX + "jdbc.password";
+    public static final String PROP_JDBC_DRIVER_JAR = PREFIX + "jdbc.driverJar";
+
+    // Promote gate parameters are optional. Promotion is only gated if given probe statements.
+    public static final String PROP_PROMOTE_GATE_QUERIES_FILE = PREFIX + "promote.gate.queriesFile";
+    public static final String PROP_PROMOTE_GATE_ITERATIONS = PREFIX + "promote.gate.iterations";
+    public static final String PROP_PROMOTE_GATE_CONCURRENCY = PREFIX + "promote.gate.concurrency";
+    public static final String PROP_PROMOTE_GATE_MAX_SLOWER_PERCENT = PREFIX + "promote.gate.maxSlowerPercent";
+    public static final String PROP_PROMOTE_GATE_MAX_P99_MILLIS = PREFIX + "promote.gate.maxP99Millis";
+
+    // Warm parameters are optional. Instances are only warmed if given a JDBC url and something to read.
+    public static final String PROP_WARM_TABLES = PREFIX + "warm.tables";
+    public static final String PROP_WARM_QUERIES_FILE = PREFIX + "warm.queriesFile";
+    public static final String PROP_WARM_CONCURRENCY = PREFIX + "warm.concurrency";
+    public static final String PROP_WARM_FETCH_SIZE = PREFIX + "warm.fetchSize";
+    public static final String PROP_WARM_TIMEOUT_MINUTES = PREFIX + "warm.timeoutMinutes";
+
     // Retire parameters are optional and unspecified take on AWS defaults
     public static final String PROP_RETIRE_SKIP_FINAL_SNAPSHOT = PREFIX + "retire.skipFinalSnapshot";
     public static final String PROP_RETIRE_FINAL_DB_SNAPSHOT_IDENTIFIER = PREFIX + "retire.finalDbSnapshotIdentifier";
+    public static final String PROP_RETIRE_CONCURRENCY = PREFIX + "retire.concurrency";
+    public static final String PROP_RETIRE_AWAIT_DELETED = PREFIX + "retire.awaitDeleted";
+
+    // Discovery parameters are optional
+    public static final String PROP_DISCOVERY_TAGS = PREFIX + "discovery.tags";
+    public static final String PROP_DISCOVERY_TAG_CONCURRENCY = PREFIX + "discovery.tagConcurrency";
+    public static final String PROP_DISCOVERY_PREFETCH_PAGES = PREFIX + "discovery.prefetchPages";
+    public static final String PROP_DISCOVERY_NAMES = PREFIX + "discovery.names";
+    public static final String PROP_DISCOVERY_CANDIDATE_DAYS = PREFIX + "discovery.candidateDays";
+
+    // AWS client parameters are optional and unspecified take on AWS SDK defaults
+    public static final String PROP_CLIENT_MAX_CONNECTIONS = PREFIX + "client.maxConnections";
+    public static final String PROP_CLIENT_CONNECTION_TIMEOUT_MS = PREFIX + "client.connectionTimeoutMs";
+    public static final String PROP_CLIENT_SOCKET_TIMEOUT_MS = PREFIX + "client.socketTimeoutMs";
+    public static final String PROP_CLIENT_REQUEST_TIMEOUT_MS = PREFIX + "client.requestTimeoutMs";
+    public static final String PROP_CLIENT_MAX_ERROR_RETRY = PREFIX + "client.maxErrorRetry";
+
+    // Rate limit parameters are optional
+    public static final String PROP_RATE_LIMIT = PREFIX + "rateLimit";
+    public static final String PROP_RATE_LIMIT_MAX_ATTEMPTS = PREFIX + "rateLimit.maxAttempts";
+    public static final String PROP_RATE_LIMIT_SERVICE_PER_SECOND_FMT = PREFIX + "rateLimit.%s.perSecond";
+    public static final String PROP_RATE_LIMIT_OPERATION_PER_SECOND_FMT = PREFIX + "rateLimit.%s.%s.perSecond";
+
+    // Local cache parameters are optional
+    public static final String PROP_CACHE_DIR = PREFIX + "cache.dir";
+    public static final String PROP_CACHE_INSTANCES_TTL_MINUTES = PREFIX + "cache.instancesTtlMinutes";
+
+    // Metrics parameters are optional
+    public static final String PROP_METRICS_PROMETHEUS_FILE = PREFIX + "metrics.prometheusFile";
+    public static final String PROP_METRICS_JSON_FILE = PREFIX + "metrics.jsonFile";
+    public static final String PROP_METRICS_INTERVAL_SECONDS = PREFIX + "metrics.intervalSeconds";
+
+    // Run report parameters are optional
+    public static final String PROP_REPORT_DIR = PREFIX + "report.dir";
+
+    // Daemon parameters are optional
+    public static final String PROP_DAEMON_POLL_SECONDS = PREFIX + "daemon.pollSeconds";
+    public static final String PROP_DAEMON_TIMEOUT_HOURS = PREFIX + "daemon.timeoutHours";
+
+    // Wait parameters are optional
+    public static final String PROP_WAIT = PREFIX + "wait";
+    public static final String PROP_WAIT_MIN_POLL_SECONDS = PREFIX + "wait.minPollSeconds";
+    public static final String PROP_WAIT_MAX_POLL_SECONDS = PREFIX + "wait.maxPollSeconds";
+    public static final String PROP_WAIT_JITTER = PREFIX + "wait.jitter";
+    public static final String PROP_WAIT_TIMEOUT_MINUTES = PREFIX + "wait.timeoutMinutes";
+    public static final String PROP_WAIT_COMMAND_TIMEOUT_MINUTES_FMT = PREFIX + "wait.%s.timeoutMinutes";
 
     final String[] required = new String[]{
             PROP_INTERACTIVE,
@@ -108,12 +203,62 @@ public class EchoCfg {
         validate();
     }
 
+    // package scoped for testing
+    EchoCfg(Configuration configuration) {
+        this.cfg = new CompositeConfiguration();
+        this.cfg.addConfiguration(new SystemConfiguration());
+        this.cfg.addConfiguration(configuration);
+        validate();
+    }
+
+    /**
+     * @see #environment(String)
+     */
+    private EchoCfg(EchoCfg base, String environment) {
+        Configuration environmentCfg = base.cfg.subset(String.format(ENVIRONMENT_PREFIX_FMT, environment));
+        for (String shared : new String[]{PROP_REGION, PROP_ACCOUNT_NUMBER}) {
+            Preconditions.checkState(!environmentCfg.containsKey(shared.substring(PREFIX.length())),
+                    shared + " is shared by all environments and cannot be set for environment " + environment);
+        }
+
+        BaseConfiguration overrides = new BaseConfiguration();
+        overrides.setDelimiterParsingDisabled(true);
+        for (Iterator<String> keys = environmentCfg.getKeys(); keys.hasNext(); ) {
+            String key = keys.next();
+            overrides.setProperty(PREFIX + key, environmentCfg.getProperty(key));
+        }
+        overrides.setProperty(PROP_NAME, environment);
+
+        this.cfg = new CompositeConfiguration();
+        this.cfg.addConfiguration(overrides);
+        this.cfg.addConfiguration(base.cfg);
+        validate();
+    }
+
     void validate() {
         for (String prop : required) {
             Preconditions.checkState(cfg.containsKey(prop), prop + " must be defined");
         }
     }
 
+    /**
+     * @return configuration of one of the {@link #environments()}. It is named after the environment and its own
+     * rdsecho.env.&lt;environment&gt;.* properties take precedence over everything else. Region and account number
+     * are shared by all environments.
+     */
+    public EchoCfg environment(String environment) {
+        return new EchoCfg(this, environment);
+    }
+
+    public List<String> environments() {
+        String[] values = cfg.getStringArray(PROP_ENVIRONMENTS);
+        return Arrays.stream(values).filter(StringUtils::isNotEmpty).collect(Collectors.toList());
+    }
+
+    public int environmentsConcurrency() {
+        return cfg.getInt(PROP_ENVIRONMENTS_CONCURRENCY, 4);
+    }
+
     public boolean interactive() {
         return cfg.getBoolean(PROP_INTERACTIVE);
     }
@@ -134,6 +279,33 @@ public class EchoCfg {
         return cfg.getString(PROP_SNAPSHOT_DB_INSTANCE_IDENTIFIER);
     }
 
+    public Optional<String> snapshotType() {
+        return Optional.fromNullable(StringUtils.trimToNull(cfg.getString(PROP_SNAPSHOT_TYPE)));
+    }
+
+    public boolean snapshotSkipRestored() {
+        return cfg.getBoolean(PROP_SNAPSHOT_SKIP_RESTORED, false);
+    }
+
+    public String snapshotSourceRegion() {
+        return cfg.getString(PROP_SNAPSHOT_SOURCE_REGION, region());
+    }
+
+    public String snapshotSourceAccountNumber() {
+        return cfg.getString(PROP_SNAPSHOT_SOURCE_ACCOUNT_NUMBER, accountNumber());
+    }
+
+    /**
+     * @return whether snapshots are taken in another region or account, and so must be copied here to be restored
+     */
+    public boolean snapshotIsCopied() {
+        return !snapshotSourceRegion().equals(region()) || !snapshotSourceAccountNumber().equals(accountNumber());
+    }
+
+    public Optional<String> copyKmsKeyId() {
+        return Optional.fromNullable(cfg.getString(PROP_COPY_KMS_KEY_ID));
+    }
+
     public Optional<String> newEngine() {
         return Optional.fromNullable(cfg.getString(PROP_NEW_ENGINE));
     }
@@ -197,6 +369,10 @@ public class EchoCfg {
         return Optional.fromNullable(cfg.getInteger(PROP_NEW_MINIMUM_AGE_HOURS, 20));
     }
 
+    public boolean newFastPath() {
+        return cfg.getBoolean(PROP_NEW_FAST_PATH, false);
+    }
+
     public Optional<String> modDbParameterGroupName() {
         return Optional.fromNullable(cfg.getString(PROP_MOD_DB_PARAMETER_GROUP_NAME));
     }
@@ -250,6 +426,105 @@ public class EchoCfg {
         }
     }
 
+    public EchoPromote.Mode promoteMode() {
+        return EchoPromote.Mode.valueOf(cfg.getString(PROP_PROMOTE_MODE, "simple").toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return the percentages of lookups sent to the new instance on its way to taking all of them, in order. Only
+     * those between 0 and 100 are kept.
+     */
+    public List<Integer> promoteWeights() {
+        String[] values = cfg.getStringArray(PROP_PROMOTE_WEIGHTS);
+        if (values.length == 0) {
+            values = new String[]{"10", "50"};
+        }
+        return Arrays.stream(values).filter(StringUtils::isNotBlank).map(String::trim).map(Integer::valueOf)
+                .filter(weight -> weight > 0 && weight < 100).sorted().distinct().collect(Collectors.toList());
+    }
+
+    public int promoteWeightWindowMinutes() {
+        return cfg.getInt(PROP_PROMOTE_WEIGHT_WINDOW_MINUTES, 30);
+    }
+
+    /**
+     * @return the JDBC url of an instance, in which {host} and {port} stand for its endpoint
+     */
+    public Optional<String> jdbcUrl() {
+        return Optional.fromNullable(StringUtils.trimToNull(cfg.getString(PROP_JDBC_URL)));
+    }
+
+    public Optional<String> jdbcUser() {
+        return Optional.fromNullable(cfg.getString(PROP_JDBC_USER));
+    }
+
+    public Optional<String> jdbcPassword() {
+        return Optional.fromNullable(cfg.getString(PROP_JDBC_PASSWORD));
+    }
+
+    public Optional<File> jdbcDriverJar() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_JDBC_DRIVER_JAR));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    /**
+     * @return whether promotion waits on the candidate answering the probe statements about as fast as the instance it
+     * replaces
+     */
+    public boolean promoteGateEnabled() {
+        return jdbcUrl().isPresent() && promoteGateQueriesFile().isPresent();
+    }
+
+    public Optional<File> promoteGateQueriesFile() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_PROMOTE_GATE_QUERIES_FILE));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    public int promoteGateIterations() {
+        return cfg.getInt(PROP_PROMOTE_GATE_ITERATIONS, 20);
+    }
+
+    public int promoteGateConcurrency() {
+        return cfg.getInt(PROP_PROMOTE_GATE_CONCURRENCY, 4);
+    }
+
+    public int promoteGateMaxSlowerPercent() {
+        return cfg.getInt(PROP_PROMOTE_GATE_MAX_SLOWER_PERCENT, 20);
+    }
+
+    public Optional<Long> promoteGateMaxP99Millis() {
+        return Optional.fromNullable(cfg.getLong(PROP_PROMOTE_GATE_MAX_P99_MILLIS, null));
+    }
+
+    /**
+     * @return whether instances go through stage {@link EchoConst#STAGE_WARMED} on their way to being promoted
+     */
+    public boolean warmEnabled() {
+        return jdbcUrl().isPresent() && (!warmTables().isEmpty() || warmQueriesFile().isPresent());
+    }
+
+    public List<String> warmTables() {
+        String[] values = cfg.getStringArray(PROP_WARM_TABLES);
+        return Arrays.stream(values).filter(StringUtils::isNotBlank).map(String::trim).collect(Collectors.toList());
+    }
+
+    public Optional<File> warmQueriesFile() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_WARM_QUERIES_FILE));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    public int warmConcurrency() {
+        return cfg.getInt(PROP_WARM_CONCURRENCY, 4);
+    }
+
+    public int warmFetchSize() {
+        return cfg.getInt(PROP_WARM_FETCH_SIZE, 1000);
+    }
+
+    public int warmTimeoutMinutes() {
+        return cfg.getInt(PROP_WARM_TIMEOUT_MINUTES, 60);
+    }
+
     public Optional<Boolean> retireSkipFinalSnapshot() {
         return Optional.fromNullable(cfg.getBoolean(PROP_RETIRE_SKIP_FINAL_SNAPSHOT, null));
     }
@@ -258,6 +533,146 @@ public class EchoCfg {
         return Optional.fromNullable(cfg.getString(PROP_RETIRE_FINAL_DB_SNAPSHOT_IDENTIFIER));
     }
 
+    public int retireConcurrency() {
+        return cfg.getInt(PROP_RETIRE_CONCURRENCY, 4);
+    }
+
+    public boolean retireAwaitDeleted() {
+        return cfg.getBoolean(PROP_RETIRE_AWAIT_DELETED, false);
+    }
+
+    public RdsFind.TagDiscovery discoveryTags() {
+        return RdsFind.TagDiscovery.valueOf(cfg.getString(PROP_DISCOVERY_TAGS, "describe").toUpperCase(Locale.ENGLISH));
+    }
+
+    public int discoveryTagConcurrency() {
+        return cfg.getInt(PROP_DISCOVERY_TAG_CONCURRENCY, 4);
+    }
+
+    public int discoveryPrefetchPages() {
+        return cfg.getInt(PROP_DISCOVERY_PREFETCH_PAGES, 1);
+    }
+
+    public RdsFind.NameDiscovery discoveryNames() {
+        return RdsFind.NameDiscovery.valueOf(cfg.getString(PROP_DISCOVERY_NAMES, "any").toUpperCase(Locale.ENGLISH));
+    }
+
+    public int discoveryCandidateDays() {
+        return cfg.getInt(PROP_DISCOVERY_CANDIDATE_DAYS, 100);
+    }
+
+    public Optional<Integer> clientMaxConnections() {
+        return Optional.fromNullable(cfg.getInteger(PROP_CLIENT_MAX_CONNECTIONS, null));
+    }
+
+    public Optional<Integer> clientConnectionTimeoutMs() {
+        return Optional.fromNullable(cfg.getInteger(PROP_CLIENT_CONNECTION_TIMEOUT_MS, null));
+    }
+
+    public Optional<Integer> clientSocketTimeoutMs() {
+        return Optional.fromNullable(cfg.getInteger(PROP_CLIENT_SOCKET_TIMEOUT_MS, null));
+    }
+
+    public Optional<Integer> clientRequestTimeoutMs() {
+        return Optional.fromNullable(cfg.getInteger(PROP_CLIENT_REQUEST_TIMEOUT_MS, null));
+    }
+
+    public Optional<Integer> clientMaxErrorRetry() {
+        return Optional.fromNullable(cfg.getInteger(PROP_CLIENT_MAX_ERROR_RETRY, null));
+    }
+
+    public boolean rateLimitEnabled() {
+        return cfg.getBoolean(PROP_RATE_LIMIT, true);
+    }
+
+    public int rateLimitMaxAttempts() {
+        return cfg.getInt(PROP_RATE_LIMIT_MAX_ATTEMPTS, 10);
+    }
+
+    /**
+     * @return how many calls per second the given operation may make, which may be set per operation, e.g.
+     * rdsecho.rateLimit.rds.ListTagsForResource.perSecond, and otherwise is set per service, e.g.
+     * rdsecho.rateLimit.rds.perSecond
+     */
+    public double rateLimitPerSecond(String service, String operation) {
+        return cfg.getDouble(String.format(PROP_RATE_LIMIT_OPERATION_PER_SECOND_FMT, service, operation),
+                cfg.getDouble(String.format(PROP_RATE_LIMIT_SERVICE_PER_SECOND_FMT, service),
+                        "route53".equals(service) ? 5 : 20));
+    }
+
+    public File cacheDir() {
+        return new File(cfg.getString(PROP_CACHE_DIR, ".rdsecho"));
+    }
+
+    public int cacheInstancesTtlMinutes() {
+        return cfg.getInt(PROP_CACHE_INSTANCES_TTL_MINUTES, 0);
+    }
+
+    /**
+     * @return where to write counts of AWS API calls in Prometheus' text format, e.g. into node_exporter's textfile
+     * collector directory, if anywhere
+     */
+    public Optional<File> metricsPrometheusFile() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_METRICS_PROMETHEUS_FILE));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    /**
+     * @return where to write counts of AWS API calls as JSON, if anywhere
+     */
+    public Optional<File> metricsJsonFile() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_METRICS_JSON_FILE));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    /**
+     * @return how often the daemon rewrites its metrics files while it runs; other commands write them once, at exit
+     */
+    public int metricsIntervalSeconds() {
+        return cfg.getInt(PROP_METRICS_INTERVAL_SECONDS, 60);
+    }
+
+    /**
+     * @return where to write a JSON report of each run's timeline, if anywhere
+     */
+    public Optional<File> reportDir() {
+        String path = StringUtils.trimToNull(cfg.getString(PROP_REPORT_DIR));
+        return path == null ? Optional.<File>absent() : Optional.of(new File(path));
+    }
+
+    public int daemonPollSeconds() {
+        return cfg.getInt(PROP_DAEMON_POLL_SECONDS, 60);
+    }
+
+    public int daemonTimeoutHours() {
+        return cfg.getInt(PROP_DAEMON_TIMEOUT_HOURS, 48);
+    }
+
+    public boolean waitEnabled() {
+        return cfg.getBoolean(PROP_WAIT, false);
+    }
+
+    public int waitMinPollSeconds() {
+        return cfg.getInt(PROP_WAIT_MIN_POLL_SECONDS, 10);
+    }
+
+    public int waitMaxPollSeconds() {
+        return cfg.getInt(PROP_WAIT_MAX_POLL_SECONDS, 300);
+    }
+
+    public double waitJitter() {
+        return cfg.getDouble(PROP_WAIT_JITTER, 0.2);
+    }
+
+    /**
+     * @return how long the given command may wait for its instance, which may be set per command, e.g.
+     * rdsecho.wait.promote.timeoutMinutes, and otherwise is rdsecho.wait.timeoutMinutes
+     */
+    public int waitTimeoutMinutes(String command) {
+        return cfg.getInt(String.format(PROP_WAIT_COMMAND_TIMEOUT_MINUTES_FMT, command),
+                cfg.getInt(PROP_WAIT_TIMEOUT_MINUTES, 1440));
+    }
+
     public static final class Lazy {
         static final EchoCfg INSTANCE = new EchoCfg(EchoConst.CONFIGURATION_PROPERTIES);
     }
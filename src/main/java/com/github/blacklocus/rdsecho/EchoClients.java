@@ -0,0 +1,210 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.AmazonRDSClientBuilder;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.AmazonRoute53ClientBuilder;
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.github.blacklocus.rdsecho.utl.ApiRateLimiter;
+import com.github.blacklocus.rdsecho.utl.EchoClock;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * The AWS clients shared by every stage and finder in a process. Each client resolves credentials and region and keeps
+ * its own pool of HTTP connections, so they are built once and handed around rather than built by whoever needs one.
+ * Every call made through them is counted in {@link #metrics()}, and what the process spends its time on is recorded in
+ * {@link #report()}.
+ */
+public class EchoClients {
+
+    final ApiMetrics metrics = new ApiMetrics();
+    final RunReport report = new RunReport();
+
+    /**
+     * Paces every call made through these clients, if not null
+     */
+    final ApiRateLimiter limiter;
+
+    final AmazonRDS rds;
+    final AmazonRoute53 route53;
+
+    /**
+     * RDS clients of other regions, built as they are asked for
+     */
+    final Map<String, AmazonRDS> regionalRds = Maps.newHashMap();
+    final ClientConfiguration clientConfiguration;
+
+    public EchoClients(AmazonRDS rds, AmazonRoute53 route53) {
+        this(rds, route53, null, null);
+    }
+
+    /**
+     * @param limiter which paces calls to the given clients, or null not to
+     * @param region  of the given RDS client
+     */
+    public EchoClients(AmazonRDS rds, AmazonRoute53 route53, ApiRateLimiter limiter, String region) {
+        this.limiter = limiter;
+        this.rds = limited(region, metrics.instrument(rds));
+        this.route53 = limited(metrics.instrument(route53));
+        this.clientConfiguration = null;
+    }
+
+    public EchoClients(EchoCfg cfg) {
+        this.limiter = cfg.rateLimitEnabled() ?
+                new ApiRateLimiter(cfg::rateLimitPerSecond, cfg.rateLimitMaxAttempts(), EchoClock.SYSTEM) : null;
+        this.clientConfiguration = clientConfiguration(cfg);
+        this.rds = limited(cfg.region(), metrics.instrument(AmazonRDSClientBuilder.standard()
+                .withRegion(cfg.region())
+                .withClientConfiguration(clientConfiguration)
+                .build()));
+        this.regionalRds.put(cfg.region(), rds);
+        this.route53 = limited(metrics.instrument(AmazonRoute53ClientBuilder.standard()
+                .withRegion(cfg.region())
+                .withClientConfiguration(clientConfiguration)
+                .build()));
+    }
+
+    /**
+     * @return whether calls made through these clients are paced, and their throttling retried, by a rate limiter
+     */
+    public boolean rateLimited() {
+        return limiter != null;
+    }
+
+    public AmazonRDS rds() {
+        return rds;
+    }
+
+    public AmazonRoute53 route53() {
+        return route53;
+    }
+
+    public ApiMetrics metrics() {
+        return metrics;
+    }
+
+    public RunReport report() {
+        return report;
+    }
+
+    /**
+     * @return the RDS client of the given region, e.g. where snapshots to be copied are taken
+     */
+    public synchronized AmazonRDS rds(String region) {
+        AmazonRDS regional = regionalRds.get(region);
+        if (regional == null) {
+            Preconditions.checkState(clientConfiguration != null, "No RDS client for region " + region);
+            regional = limited(region, metrics.instrument(AmazonRDSClientBuilder.standard()
+                    .withRegion(region)
+                    .withClientConfiguration(clientConfiguration)
+                    .build()));
+            regionalRds.put(region, regional);
+        }
+        return regional;
+    }
+
+    /**
+     * Uses the given client for one region rather than building one.
+     */
+    synchronized EchoClients withRds(String region, AmazonRDS regional) {
+        regionalRds.put(region, limited(region, metrics.instrument(regional)));
+        return this;
+    }
+
+    /**
+     * Counted calls are paced outside of counting, so that each attempt the limiter makes is counted.
+     */
+    AmazonRDS limited(String region, AmazonRDS rds) {
+        return limiter == null ? rds : limiter.limit(region, rds, metrics);
+    }
+
+    AmazonRoute53 limited(AmazonRoute53 route53) {
+        return limiter == null ? route53 : limiter.limit(route53, metrics);
+    }
+
+    static ClientConfiguration clientConfiguration(EchoCfg cfg) {
+        ClientConfiguration clientConfiguration = new ClientConfiguration();
+
+        Optional<Integer> maxConnectionsOpt = cfg.clientMaxConnections();
+        if (maxConnectionsOpt.isPresent()) {
+            clientConfiguration.setMaxConnections(maxConnectionsOpt.get());
+        }
+        Optional<Integer> connectionTimeoutMsOpt = cfg.clientConnectionTimeoutMs();
+        if (connectionTimeoutMsOpt.isPresent()) {
+            clientConfiguration.setConnectionTimeout(connectionTimeoutMsOpt.get());
+        }
+        Optional<Integer> socketTimeoutMsOpt = cfg.clientSocketTimeoutMs();
+        if (socketTimeoutMsOpt.isPresent()) {
+            clientConfiguration.setSocketTimeout(socketTimeoutMsOpt.get());
+        }
+        Optional<Integer> requestTimeoutMsOpt = cfg.clientRequestTimeoutMs();
+        if (requestTimeoutMsOpt.isPresent()) {
+            clientConfiguration.setRequestTimeout(requestTimeoutMsOpt.get());
+        }
+        Optional<Integer> maxErrorRetryOpt = cfg.clientMaxErrorRetry();
+        if (maxErrorRetryOpt.isPresent()) {
+            clientConfiguration.setMaxErrorRetry(maxErrorRetryOpt.get());
+        }
+        // Connections are reused for the life of the process.
+        clientConfiguration.setUseTcpKeepAlive(true);
+
+        if (cfg.rateLimitEnabled()) {
+            // Throttled calls come straight back to the rate limiter, which slows down and retries them itself,
+            // rather than being retried here with a backoff which knows nothing of the other calls being made.
+            final RetryPolicy.RetryCondition sdkCondition = PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION;
+            clientConfiguration.setRetryPolicy(new RetryPolicy(new RetryPolicy.RetryCondition() {
+                @Override
+                public boolean shouldRetry(AmazonWebServiceRequest request, AmazonClientException e, int retries) {
+                    return !(e instanceof AmazonServiceException &&
+                            RetryUtils.isThrottlingException((AmazonServiceException) e)) &&
+                            sdkCondition.shouldRetry(request, e, retries);
+                }
+            }, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, true));
+        }
+
+        return clientConfiguration;
+    }
+
+    public static final class Lazy {
+        static final EchoClients INSTANCE = new EchoClients(EchoCfg.getInstance());
+    }
+
+    public static EchoClients getInstance() {
+        return Lazy.INSTANCE;
+    }
+}
@@ -40,6 +40,11 @@ public class EchoConst {
      */
     public static final String TAG_ECHO_STAGE_FMT = "rdsecho:%s:stage";
 
+    /**
+     * Tag that records which snapshot an instance was restored from.
+     */
+    public static final String TAG_ECHO_SNAPSHOT_FMT = "rdsecho:%s:snapshot";
+
     /**
      * The stage that marks an instance as having just been created by means of the RDS restore-from-snapshot API.
      * The next step is to modify it once it becomes available with the instance settings that could not be specified
@@ -59,6 +64,13 @@ public class EchoConst {
      */
     public static final String STAGE_REBOOTED = "rebooted";
 
+    /**
+     * The stage that marks an instance as having been read through so that its storage is loaded from its snapshot and
+     * the first queries against it are not slow. Instances are only warmed if warming is configured; otherwise rebooted
+     * instances are promoted directly.
+     */
+    public static final String STAGE_WARMED = "warmed";
+
     /**
      * The stage that marks an instance as having been rebooted and ready to be used with all necessary settings. The
      * instance is the target of the CNAME that all participants use to target the particular environment. For a
@@ -78,6 +90,12 @@ public class EchoConst {
      */
     public static final String STAGE_RETIRED = "retired";
 
+    /**
+     * The command to copy the latest snapshot from another region or account, so that a new instance may be created
+     * from it. Does not involve any instance or stage.
+     */
+    public static final String COMMAND_COPY = "copy";
+
     /**
      * The command to create a new instance. Sets stage as "new"
      */
@@ -94,7 +112,13 @@ public class EchoConst {
     public static final String COMMAND_REBOOT = "reboot";
 
     /**
-     * The command to promote an instance that is ready for use. Changes stage from "rebooted" to "promoted".
+     * The command to warm an instance by reading through it. Changes stage from "rebooted" to "warmed"
+     */
+    public static final String COMMAND_WARM = "warm";
+
+    /**
+     * The command to promote an instance that is ready for use. Changes stage from "rebooted", or "warmed" if warming
+     * is configured, to "promoted".
      * Changes previously promoted instance to "forgotten".
      */
     public static final String COMMAND_PROMOTE = "promote";
@@ -103,4 +127,10 @@ public class EchoConst {
      * The command to retire an instance. Changes stage from "forgotten" to "retired" and then deletes it. Goodbye forever.
      */
     public static final String COMMAND_RETIRE = "retire";
+
+    /**
+     * The command to run every other command in turn, each as soon as the instance is ready for it, until a new instance
+     * has been promoted and the instances it replaced have been retired.
+     */
+    public static final String COMMAND_DAEMON = "daemon";
 }
@@ -0,0 +1,172 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.CopyDBSnapshotRequest;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DBSnapshotAlreadyExistsException;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_COPY;
+
+/**
+ * Copies the latest snapshot of the source instance from the region or account it is taken in, see
+ * {@link EchoCfg#snapshotSourceRegion()} and {@link EchoCfg#snapshotSourceAccountNumber()}, so that
+ * {@link EchoNew} finds it here. The copy keeps the source instance identifier, so it is found like any snapshot taken
+ * here. A copy can take as long as a restore, so run this ahead of {@link EchoNew}, e.g. while the previous instance is
+ * promoted or retired. Each source snapshot is copied once however many environments restore it.
+ */
+public class EchoCopy implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoCopy.class);
+
+    /**
+     * The most characters a DB snapshot identifier may have.
+     */
+    static final int SNAPSHOT_IDENTIFIER_MAX = 255;
+
+    final EchoUtil echo;
+    final EchoCfg cfg;
+    final AmazonRDS rds;
+
+    public EchoCopy() {
+        this(new EchoUtil());
+    }
+
+    public EchoCopy(EchoUtil echo) {
+        this.echo = echo;
+        this.cfg = echo.cfg();
+        this.rds = echo.clients().rds();
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+
+        if (!cfg.snapshotIsCopied()) {
+            LOG.info("[{}] Snapshots of {} are taken in this region and account, so there is nothing to copy.",
+                    COMMAND_COPY, cfg.snapshotDbInstanceIdentifier());
+            return false;
+        }
+
+        String sourceRegion = cfg.snapshotSourceRegion();
+        String sourceAccountNumber = cfg.snapshotSourceAccountNumber();
+
+        LOG.info("[{}] Locating latest snapshot from {} in {} of account {}", COMMAND_COPY,
+                cfg.snapshotDbInstanceIdentifier(), sourceRegion, sourceAccountNumber);
+        Optional<DBSnapshot> sourceOpt = echo.sourceSnapshot();
+        if (!sourceOpt.isPresent()) {
+            LOG.info("[{}] Could not locate a suitable snapshot. Cannot continue.", COMMAND_COPY);
+            return false;
+        }
+        DBSnapshot source = sourceOpt.get();
+        LOG.info("[{}] Located snapshot {} completed on {}", COMMAND_COPY, source.getDBSnapshotIdentifier(),
+                new DateTime(source.getSnapshotCreateTime()).toDateTimeISO().toString());
+
+        String targetIdentifier = copyIdentifier(source.getDBSnapshotIdentifier());
+        Optional<DBSnapshot> existingOpt = echo.snapshot(targetIdentifier);
+        if (existingOpt.isPresent()) {
+            LOG.info("[{}] Snapshot {} has already been copied to {}, which is {}. Nothing to do.", COMMAND_COPY,
+                    source.getDBSnapshotIdentifier(), targetIdentifier, existingOpt.get().getStatus());
+            return false;
+        }
+
+        String sourceArn = source.getDBSnapshotArn() != null ? source.getDBSnapshotArn() :
+                RdsFind.snapshotArn(sourceRegion, sourceAccountNumber, source.getDBSnapshotIdentifier());
+
+        StringWriter proposed = new StringWriter();
+        PrintWriter printer = new PrintWriter(proposed);
+        printer.format("[%s] Proposed snapshot copy...%n", COMMAND_COPY);
+
+        CopyDBSnapshotRequest request = new CopyDBSnapshotRequest()
+                .withSourceDBSnapshotIdentifier(sourceArn)
+                .withTargetDBSnapshotIdentifier(targetIdentifier);
+        printer.format("  source snapshot: %s%n", sourceArn);
+        printer.format("  target snapshot: %s%n", targetIdentifier);
+
+        if (!sourceRegion.equals(cfg.region())) {
+            // Has the SDK presign the request in the source region, which encrypted snapshots require.
+            request.withSourceRegion(sourceRegion);
+        }
+
+        Optional<String> kmsKeyIdOpt = cfg.copyKmsKeyId();
+        if (kmsKeyIdOpt.isPresent()) {
+            request.withKmsKeyId(kmsKeyIdOpt.get());
+            printer.format("  kms key id     : %s%n", kmsKeyIdOpt.get());
+        }
+
+        LOG.info(proposed.toString());
+
+        if (cfg.interactive()) {
+            String format = "Proceed to copy this snapshot? Input %s to confirm.";
+            if (!EchoUtil.prompt(targetIdentifier, format, targetIdentifier)) {
+                LOG.info("User declined to proceed. Exiting.");
+                return false;
+            }
+        }
+
+        try {
+            echo.timed(RunReport.MUTATE, targetIdentifier, () -> rds.copyDBSnapshot(request));
+        } catch (DBSnapshotAlreadyExistsException e) {
+            // Another environment got there first.
+            LOG.info("[{}] Snapshot {} is already being copied. Nothing to do.", COMMAND_COPY, targetIdentifier);
+            return false;
+        }
+
+        LOG.info("[{}] Kicked off copy of snapshot {} to {}. All done here.", COMMAND_COPY,
+                source.getDBSnapshotIdentifier(), targetIdentifier);
+        return true;
+    }
+
+    /**
+     * @return the identifier given the copy of a source snapshot. Snapshot identifiers allow only letters, digits and
+     * single hyphens, whereas automated snapshots are named e.g. rds:production-2015-06-01-04-05.
+     */
+    static String copyIdentifier(String sourceIdentifier) {
+        String identifier = ("rdsecho-" + sourceIdentifier.toLowerCase(Locale.ENGLISH))
+                .replaceAll("[^a-z0-9-]", "-")
+                .replaceAll("-{2,}", "-");
+        if (identifier.length() > SNAPSHOT_IDENTIFIER_MAX) {
+            identifier = identifier.substring(0, SNAPSHOT_IDENTIFIER_MAX);
+        }
+        return identifier.replaceAll("-+$", "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoCopy(echo).call();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.github.blacklocus.rdsecho.utl.EchoClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.ThrottleAwareExecutor;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_DAEMON;
+
+/**
+ * Runs every stage from one process, firing each as soon as the latest Echo instance is available in the stage it
+ * requires, rather than leaving each to be retried by some outside scheduler. One refresh is seen through: a new
+ * instance is created (unless the newest one is still too young, see {@link EchoCfg#newMinimumAgeHours()}), modified,
+ * rebooted, warmed if {@link EchoCfg#warmEnabled()}, and promoted, and every forgotten instance is retired. A refresh
+ * that is already under way is picked up where it stands.
+ * <p>
+ * Several environments may be run together. Each round then looks at all of them from one scan of instances and
+ * advances them concurrently.
+ */
+public class EchoDaemon implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoDaemon.class);
+
+    final EchoUtil echo;
+    final EchoCfg cfg;
+    final EchoClock clock;
+    final List<String> environments;
+    /**
+     * Whether the daemon made {@link #echo} itself, and so closes it once done
+     */
+    final boolean closesEcho;
+
+    public EchoDaemon() {
+        this(new EchoUtil(), ImmutableList.<String>of(), true);
+    }
+
+    public EchoDaemon(EchoUtil echo) {
+        this(echo, ImmutableList.<String>of());
+    }
+
+    /**
+     * @param environments to run together, see {@link EchoCfg#environments()}, or none to run only the one configured
+     *                     by the given EchoUtil
+     */
+    public EchoDaemon(EchoUtil echo, List<String> environments) {
+        this(echo, environments, false);
+    }
+
+    EchoDaemon(EchoUtil echo, List<String> environments, boolean closesEcho) {
+        this.echo = echo;
+        this.cfg = echo.cfg();
+        this.clock = echo.clock();
+        this.environments = environments;
+        this.closesEcho = closesEcho;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        try {
+            return watch();
+        } finally {
+            if (closesEcho) {
+                echo.close();
+            }
+        }
+    }
+
+    Boolean watch() throws Exception {
+
+        long timeoutMillis = TimeUnit.HOURS.toMillis(cfg.daemonTimeoutHours());
+        long deadline = timeoutMillis > 0 ? clock.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+
+        final List<Progress> progresses = Lists.newArrayList();
+        if (environments.isEmpty()) {
+            progresses.add(new Progress(null));
+        } else {
+            for (String environment : environments) {
+                if (echo.environment(environment).cfg().interactive()) {
+                    LOG.error("[{}] Environment {} is interactive, but prompts from several environments at once " +
+                            "could not be told apart. Set {}=false. Exiting.", COMMAND_DAEMON, environment,
+                            EchoCfg.PROP_INTERACTIVE);
+                    return false;
+                }
+                progresses.add(new Progress(environment));
+            }
+        }
+        LOG.info("[{}] Watching Echo instances", COMMAND_DAEMON);
+
+        try (ThrottleAwareExecutor executor = new ThrottleAwareExecutor("daemon", cfg.environmentsConcurrency())) {
+
+            while (true) {
+
+                // Each round scans instances and their tags once, and the commands run in the round share that scan.
+                final EchoUtil round = echo.rescan();
+
+                List<Callable<Void>> steps = Lists.newArrayList();
+                for (final Progress progress : progresses) {
+                    if (progress.result == null) {
+                        steps.add(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                step(progress.environment == null ? round : round.environment(progress.environment),
+                                        progress);
+                                return null;
+                            }
+                        });
+                    }
+                }
+                executor.invokeAll(steps);
+
+                boolean finished = true;
+                boolean succeeded = true;
+                boolean acted = false;
+                List<String> awaiting = Lists.newArrayList();
+                for (Progress progress : progresses) {
+                    if (progress.result == null) {
+                        finished = false;
+                        acted |= progress.acted;
+                        awaiting.addAll(progress.awaiting);
+                    } else {
+                        succeeded &= progress.result;
+                    }
+                }
+
+                if (finished) {
+                    if (!environments.isEmpty()) {
+                        for (Progress progress : progresses) {
+                            LOG.info("[{}] {}: {}", COMMAND_DAEMON, progress.environment,
+                                    progress.result ? "done" : "failed");
+                        }
+                    }
+                    return succeeded;
+                }
+
+                if (clock.currentTimeMillis() >= deadline) {
+                    LOG.error("[{}] Gave up after {} hours. Exiting.", COMMAND_DAEMON, cfg.daemonTimeoutHours());
+                    return false;
+                }
+
+                if (acted || awaiting.isEmpty()) {
+                    pause(deadline);
+                } else {
+                    LOG.info("[{}] Waiting for {} to become available", COMMAND_DAEMON, awaiting);
+                    RunReport.Span span = round.span(RunReport.WAIT, null);
+                    boolean noneAvailable;
+                    try {
+                        noneAvailable = round.waiter().awaitAnyAvailable(awaiting,
+                                deadline - clock.currentTimeMillis()).isEmpty();
+                    } finally {
+                        span.end();
+                    }
+                    if (noneAvailable) {
+                        // Nothing came of it, so don't turn straight around and ask again.
+                        pause(deadline);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs whatever command one environment is ready for, and notes what it is waiting on otherwise.
+     */
+    void step(EchoUtil echo, Progress progress) {
+        progress.acted = false;
+        progress.awaiting.clear();
+        try {
+            progress.result = advance(echo, progress);
+        } catch (Exception e) {
+            LOG.error("[{}] Failed to advance {}", COMMAND_DAEMON, echo.cfg().name(), e);
+            progress.result = false;
+        }
+    }
+
+    /**
+     * @return true or false once the environment is finished, successfully or not, else null
+     */
+    Boolean advance(EchoUtil echo, Progress progress) throws Exception {
+        String name = echo.cfg().name();
+
+        // Start copying the next snapshot straight away, so the copy runs while the previous refresh finishes.
+        if (echo.cfg().snapshotIsCopied() && !progress.triedCopy) {
+            progress.triedCopy = true;
+            progress.acted |= ApiMetrics.inStage(EchoConst.COMMAND_COPY, new EchoCopy(echo));
+        }
+
+        List<DBInstance> forgotten = forgottenInstances(echo);
+        for (DBInstance instance : forgotten) {
+            if (!"available".equals(instance.getDBInstanceStatus())) {
+                progress.awaiting.add(instance.getDBInstanceIdentifier());
+            }
+        }
+        if (progress.awaiting.size() < forgotten.size()) {
+            ApiMetrics.inStage(EchoConst.COMMAND_RETIRE, new EchoRetire(echo));
+            progress.acted = true;
+        }
+
+        Optional<DBInstance> instanceOpt = echo.lastEchoInstance();
+        Optional<Tag> stageOpt = instanceOpt.isPresent() ?
+                echo.instanceStage(instanceOpt.get().getDBInstanceIdentifier()) : Optional.<Tag>absent();
+
+        if (!instanceOpt.isPresent() || isStage(stageOpt, EchoConst.STAGE_PROMOTED)) {
+            // RDS gives an instance no create time until it is created, so one being restored is not yet the newest.
+            List<String> creating = creatingInstances(echo);
+            if (!creating.isEmpty()) {
+                LOG.info("[{}] Waiting for {} to be created", COMMAND_DAEMON, creating);
+                progress.triedNew = true;
+                progress.awaiting.addAll(creating);
+                return null;
+            }
+        }
+
+        if (!instanceOpt.isPresent() && progress.triedNew) {
+
+            // Just created; may take a moment to be listed.
+            LOG.info("[{}] Waiting for the new {} instance to be listed", COMMAND_DAEMON, name);
+            return null;
+
+        } else if (!instanceOpt.isPresent() || isStage(stageOpt, EchoConst.STAGE_PROMOTED)) {
+
+            if (!progress.triedNew) {
+                if (echo.cfg().snapshotIsCopied()) {
+                    Optional<DBSnapshot> copyOpt = echo.copyInProgress();
+                    if (copyOpt.isPresent()) {
+                        LOG.info("[{}] Waiting for snapshot copy {} to finish", COMMAND_DAEMON,
+                                copyOpt.get().getDBSnapshotIdentifier());
+                        return null;
+                    }
+                }
+                progress.triedNew = true;
+                if (ApiMetrics.inStage(EchoConst.COMMAND_NEW, new EchoNew(echo))) {
+                    progress.acted = true;
+                    return null;
+
+                } else if (!instanceOpt.isPresent()) {
+                    LOG.error("[{}] No {} instance exists and none could be created.", COMMAND_DAEMON, name);
+                    return false;
+                }
+            }
+
+            if (forgotten.isEmpty()) {
+                LOG.info("[{}] Instance {} is promoted and nothing is left to retire. All done.",
+                        COMMAND_DAEMON, instanceOpt.get().getDBInstanceIdentifier());
+                return true;
+            }
+            return null;
+
+        } else {
+
+            // A refresh is already under way. See it through rather than starting another.
+            progress.triedNew = true;
+
+            DBInstance instance = instanceOpt.get();
+            String dbInstanceId = instance.getDBInstanceIdentifier();
+            if (!stageOpt.isPresent()) {
+                LOG.error("[{}] Unable to read Echo stage tag on instance {}.", COMMAND_DAEMON, dbInstanceId);
+                return false;
+            }
+            String stage = stageOpt.get().getValue();
+
+            AbstractEchoIntermediateStage command = advancing(stage, echo);
+            if (command == null) {
+                LOG.error("[{}] Latest instance {} has stage {} which no command advances.",
+                        COMMAND_DAEMON, dbInstanceId, stage);
+                return false;
+            }
+
+            if ("available".equals(instance.getDBInstanceStatus())) {
+                if (!ApiMetrics.inStage(command.getCommand(), command)) {
+                    LOG.error("[{}] Could not advance instance {} from stage {}.", COMMAND_DAEMON, dbInstanceId, stage);
+                    return false;
+                }
+                progress.acted = true;
+            } else {
+                progress.awaiting.add(dbInstanceId);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the command which advances an instance from the given stage, or null if none does
+     */
+    static AbstractEchoIntermediateStage advancing(String stage, EchoUtil echo) {
+        switch (stage) {
+            case EchoConst.STAGE_NEW:
+                return new EchoModify(echo);
+            case EchoConst.STAGE_MODIFIED:
+                return new EchoReboot(echo);
+            case EchoConst.STAGE_REBOOTED:
+                return echo.cfg().warmEnabled() ? new EchoWarm(echo) : new EchoPromote(echo);
+            case EchoConst.STAGE_WARMED:
+                return new EchoPromote(echo);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return forgotten instances, less any already being deleted
+     */
+    static List<DBInstance> forgottenInstances(EchoUtil echo) {
+        List<DBInstance> forgotten = Lists.newArrayList();
+        for (DBInstance instance : echo.echoInstances()) {
+            if (isStage(echo.instanceStage(instance.getDBInstanceIdentifier()), EchoConst.STAGE_FORGOTTEN) &&
+                    !"deleting".equals(instance.getDBInstanceStatus())) {
+                forgotten.add(instance);
+            }
+        }
+        return forgotten;
+    }
+
+    /**
+     * @return identifiers of Echo instances still being created, which have no create time yet
+     */
+    static List<String> creatingInstances(EchoUtil echo) {
+        List<String> creating = Lists.newArrayList();
+        for (DBInstance instance : echo.inventory().instancesTagged(echo.getTagEchoManaged(), "true")) {
+            if (instance.getInstanceCreateTime() == null) {
+                creating.add(instance.getDBInstanceIdentifier());
+            }
+        }
+        return creating;
+    }
+
+    static boolean isStage(Optional<Tag> stageOpt, String stage) {
+        return stageOpt.isPresent() && stage.equals(stageOpt.get().getValue());
+    }
+
+    /**
+     * Gives AWS a moment after a command before looking again, as an instance may not leave 'available' the instant
+     * a change is requested of it.
+     */
+    void pause(long deadline) throws InterruptedException {
+        RunReport.Span span = echo.span(RunReport.WAIT, null);
+        try {
+            clock.sleep(Math.max(0, Math.min(TimeUnit.SECONDS.toMillis(cfg.daemonPollSeconds()),
+                    deadline - clock.currentTimeMillis())));
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * How one environment is coming along.
+     */
+    static class Progress {
+
+        /**
+         * null for the daemon's own configuration
+         */
+        final String environment;
+
+        boolean triedCopy = false;
+        boolean triedNew = false;
+        boolean acted = false;
+        final List<String> awaiting = Lists.newArrayList();
+
+        /**
+         * Set once the environment is finished
+         */
+        Boolean result = null;
+
+        Progress(String environment) {
+            this.environment = environment;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoDaemon().call();
+    }
+}
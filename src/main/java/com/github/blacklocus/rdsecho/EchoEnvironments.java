@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.ThrottleAwareExecutor;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs one command for every environment listed in {@link EchoCfg#PROP_ENVIRONMENTS}, several at once. The
+ * environments share one scan of the region's instances, so discovery is paid for once rather than once per
+ * environment.
+ */
+public class EchoEnvironments implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoEnvironments.class);
+
+    final EchoUtil echo;
+    final String command;
+    final Function<EchoUtil, ? extends Callable<Boolean>> commandFactory;
+
+    /**
+     * @param commandFactory builds the command for one environment
+     */
+    public EchoEnvironments(EchoUtil echo, String command, Function<EchoUtil, ? extends Callable<Boolean>> commandFactory) {
+        this.echo = echo;
+        this.command = command;
+        this.commandFactory = commandFactory;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        EchoCfg cfg = echo.cfg();
+        final List<String> environments = cfg.environments();
+        if (environments.isEmpty()) {
+            LOG.error("[{}] No environments are listed in {}. Exiting.", command, EchoCfg.PROP_ENVIRONMENTS);
+            return false;
+        }
+
+        List<Callable<Boolean>> calls = Lists.newArrayList();
+        for (final String environment : environments) {
+            final EchoUtil environmentEcho = echo.environment(environment);
+            if (environmentEcho.cfg().interactive()) {
+                LOG.error("[{}] Environment {} is interactive, but prompts from several environments at once could " +
+                        "not be told apart. Set {}=false. Exiting.", command, environment, EchoCfg.PROP_INTERACTIVE);
+                return false;
+            }
+            calls.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        return commandFactory.apply(environmentEcho).call();
+                    } catch (Exception e) {
+                        LOG.error("[{}] Failed on environment {}", command, environment, e);
+                        return false;
+                    }
+                }
+            });
+        }
+
+        LOG.info("[{}] Running for environments {}", command, environments);
+        List<Boolean> results;
+        try (ThrottleAwareExecutor executor = new ThrottleAwareExecutor("environments", cfg.environmentsConcurrency())) {
+            results = executor.invokeAll(calls);
+        }
+
+        boolean succeeded = true;
+        for (int i = 0; i < environments.size(); i++) {
+            LOG.info("[{}] {}: {}", command, environments.get(i), results.get(i) ? "done" : "nothing done");
+            succeeded &= results.get(i);
+        }
+        return succeeded;
+    }
+}
@@ -26,6 +26,7 @@ package com.github.blacklocus.rdsecho;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
 import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +40,11 @@ public class EchoModify extends AbstractEchoIntermediateStage {
     private static final Logger LOG = LoggerFactory.getLogger(EchoModify.class);
 
     public EchoModify() {
-        super(EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED);
+        this(new EchoUtil());
+    }
+
+    public EchoModify(EchoUtil echo) {
+        super(EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED, echo);
     }
 
     @Override
@@ -100,7 +105,7 @@ public class EchoModify extends AbstractEchoIntermediateStage {
         // Do the deed
 
         LOG.info("[{}] Modifying existing DB instance {}", getCommand(), dbInstanceId);
-        rds.modifyDBInstance(request);
+        echo.timed(RunReport.MUTATE, dbInstanceId, () -> rds.modifyDBInstance(request));
         LOG.info("[{}] Submitted modify request on instance {}. Finished.", getCommand(), dbInstanceId);
 
         return true;
@@ -112,6 +117,8 @@ public class EchoModify extends AbstractEchoIntermediateStage {
     }
 
     public static void main(String[] args) throws Exception {
-        new EchoModify().call();
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoModify(echo).call();
+        }
     }
 }
@@ -25,36 +25,46 @@ package com.github.blacklocus.rdsecho;
 
 
 import com.amazonaws.services.rds.AmazonRDS;
-import com.amazonaws.services.rds.AmazonRDSClient;
-import com.amazonaws.services.rds.AmazonRDSClientBuilder;
-import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.DBSnapshot;
 import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
 import com.github.blacklocus.rdsecho.utl.RdsFind;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_MODIFY;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_NEW;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_REBOOT;
 
 public class EchoNew implements Callable<Boolean> {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoNew.class);
 
-    final AmazonRDS rds = AmazonRDSClientBuilder.defaultClient();
+    final EchoUtil echo;
+    final EchoCfg cfg;
+    final AmazonRDS rds;
 
-    final EchoCfg cfg = EchoCfg.getInstance();
-    final EchoUtil echo = new EchoUtil();
+    public EchoNew() {
+        this(new EchoUtil());
+    }
+
+    public EchoNew(EchoUtil echo) {
+        this.echo = echo;
+        this.cfg = echo.cfg();
+        this.rds = echo.clients().rds();
+    }
 
     @Override
     public Boolean call() throws Exception {
@@ -71,7 +81,7 @@ public class EchoNew implements Callable<Boolean> {
         Optional<DBInstance> newestInstanceOpt = echo.lastEchoInstance();
         if (newestInstanceOpt.isPresent()) {
 
-            if (new DateTime(newestInstanceOpt.get().getInstanceCreateTime()).plusHours(minimumAgeHours).isAfter(DateTime.now())) {
+            if (new DateTime(newestInstanceOpt.get().getInstanceCreateTime()).plusHours(minimumAgeHours).isAfter(echo.clock().currentTimeMillis())) {
                 LOG.info("[{}] Last echo-created RDS instance {} was created less than {} hours ago. Aborting.",
                         COMMAND_NEW, tagEchoManaged, minimumAgeHours);
                 return false;
@@ -102,10 +112,25 @@ public class EchoNew implements Callable<Boolean> {
         // Info summary
 
         String dbSnapshotIdentifier = dbSnapshotOpt.get().getDBSnapshotIdentifier();
-        String newDbInstanceIdentifier = cfg.name() + '-' + DateTime.now(DateTimeZone.UTC).toString("yyyy-MM-dd");
+        String newDbInstanceIdentifier = EchoUtil.instanceIdentifier(cfg.name(), new DateTime(echo.clock().currentTimeMillis()));
 
         // Prepare request and build up informational message with conditional parts.
 
+        // On the fast path, the settings modify would apply go into the restore request instead. The instance then
+        // skips modify and reboot, but only if every one of those settings can be given on restore.
+
+        boolean fastPath = false;
+        if (cfg.newFastPath()) {
+            List<String> notRestorable = notRestorableSettings(cfg);
+            if (notRestorable.isEmpty()) {
+                fastPath = true;
+            } else {
+                LOG.info("[{}] Not taking the fast path, since {} cannot be set on restore. The instance will need to " +
+                        "be modified and rebooted.", COMMAND_NEW, notRestorable);
+            }
+        }
+        String stage = fastPath ? EchoConst.STAGE_REBOOTED : EchoConst.STAGE_NEW;
+
         StringWriter proposed = new StringWriter();
         PrintWriter printer = new PrintWriter(proposed);
         printer.format("[%s] Proposed new db instance...%n", COMMAND_NEW);
@@ -117,11 +142,25 @@ public class EchoNew implements Callable<Boolean> {
         request.withDBSnapshotIdentifier(dbSnapshotIdentifier);
         request.withTags(
                 new Tag().withKey(echo.getTagEchoManaged()).withValue("true"),
-                new Tag().withKey(echo.getTagEchoStage()).withValue(EchoConst.STAGE_NEW)
+                new Tag().withKey(echo.getTagEchoStage()).withValue(stage),
+                new Tag().withKey(echo.getTagEchoSnapshot()).withValue(dbSnapshotIdentifier)
         );
 
+        // Tags from the configuration go on with the restore, rather than in a call of their own afterwards. The Echo
+        // tags above must not be overridden.
+
+        Optional<String[]> newTags = cfg.newTags();
+        if (newTags.isPresent()) {
+            for (Tag tag : EchoUtil.parseTags(newTags.get())) {
+                if (!Iterables.any(request.getTags(), RdsFind.tagName(tag.getKey()))) {
+                    request.withTags(tag);
+                }
+            }
+        }
+
         printer.format("  db snapshot id   : %s%n", dbSnapshotIdentifier);
         printer.format("  db instance id   : %s%n", newDbInstanceIdentifier);
+        printer.format("  tags             : %s%n", request.getTags());
 
         // Not required; these will default to snapshot settings
 
@@ -191,6 +230,30 @@ public class EchoNew implements Callable<Boolean> {
             printer.format("  db subnet group name: %s%n", dbSubnetGroupNameOpt.get());
         }
 
+        // Modify settings, on the fast path. These take precedence over their counterparts above.
+
+        if (fastPath) {
+            Optional<String> modDbParameterGroupNameOpt = cfg.modDbParameterGroupName();
+            if (modDbParameterGroupNameOpt.isPresent()) {
+                request.withDBParameterGroupName(modDbParameterGroupNameOpt.get());
+                printer.format("  db param group name: %s%n", modDbParameterGroupNameOpt.get());
+            }
+
+            Optional<String[]> modVpcSecurityGroupIdsOpt = cfg.modVpcSecurityGroupIds();
+            if (modVpcSecurityGroupIdsOpt.isPresent()) {
+                request.withVpcSecurityGroupIds(modVpcSecurityGroupIdsOpt.get());
+                printer.format("  vpc security group ids: %s%n", Arrays.asList(modVpcSecurityGroupIdsOpt.get()));
+            }
+
+            Optional<String> modDbSubnetGroupNameOpt = cfg.modDbSubnetGroupName();
+            if (modDbSubnetGroupNameOpt.isPresent()) {
+                request.withDBSubnetGroupName(modDbSubnetGroupNameOpt.get());
+                printer.format("  db subnet group name: %s%n", modDbSubnetGroupNameOpt.get());
+            }
+
+            printer.format("  stage            : %s, skipping %s and %s%n", stage, COMMAND_MODIFY, COMMAND_REBOOT);
+        }
+
         LOG.info(proposed.toString());
 
         // Interactive user confirmation
@@ -206,20 +269,9 @@ public class EchoNew implements Callable<Boolean> {
         // Create the new database
 
         LOG.info("[{}] Creating new DB instance. Hold on to your butts.", COMMAND_NEW);
-        DBInstance restoredInstance = rds.restoreDBInstanceFromDBSnapshot(request);
-
-        Optional<String[]> newTags = cfg.newTags();
-        if (newTags.isPresent()) {
-            List<Tag> tags = EchoUtil.parseTags(newTags.get());
-            if (tags.size() > 0) {
-                LOG.info("[{}] Applying tags on create new: {}", COMMAND_NEW, Arrays.asList(tags));
-                AddTagsToResourceRequest tagsRequest = new AddTagsToResourceRequest()
-                        .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(),
-                                restoredInstance.getDBInstanceIdentifier()));
-                tagsRequest.setTags(tags);
-                rds.addTagsToResource(tagsRequest);
-            }
-        }
+        DBInstance restoredInstance = echo.timed(RunReport.MUTATE, newDbInstanceIdentifier,
+                () -> rds.restoreDBInstanceFromDBSnapshot(request));
+        echo.remember(restoredInstance.getDBInstanceIdentifier());
 
         LOG.info("[{}] Kicked off new DB instance creation. All done here. Check on your instance progress at\n" +
                         "  https://console.aws.amazon.com/rds/home?region={}#dbinstance:id={}",
@@ -228,7 +280,24 @@ public class EchoNew implements Callable<Boolean> {
         return true;
     }
 
+    /**
+     * @return the modify settings which RestoreDBInstanceFromDBSnapshot does not take, and so keep an instance from
+     * taking the fast path
+     */
+    static List<String> notRestorableSettings(EchoCfg cfg) {
+        List<String> notRestorable = Lists.newArrayList();
+        if (cfg.modDbSecurityGroups().isPresent()) {
+            notRestorable.add(EchoCfg.PROP_MOD_DB_SECURITY_GROUPS);
+        }
+        if (cfg.modBackupRetentionPeriod().isPresent()) {
+            notRestorable.add(EchoCfg.PROP_MOD_BACKUP_RETENTION_PERIOD);
+        }
+        return notRestorable;
+    }
+
     public static void main(String[] args) throws Exception {
-        new EchoNew().call();
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoNew(echo).call();
+        }
     }
 }
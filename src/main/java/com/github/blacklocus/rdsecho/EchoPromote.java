@@ -25,8 +25,6 @@ package com.github.blacklocus.rdsecho;
 
 import com.amazonaws.services.rds.model.*;
 import com.amazonaws.services.route53.AmazonRoute53;
-import com.amazonaws.services.route53.AmazonRoute53Client;
-import com.amazonaws.services.route53.AmazonRoute53ClientBuilder;
 import com.amazonaws.services.route53.model.Change;
 import com.amazonaws.services.route53.model.ChangeAction;
 import com.amazonaws.services.route53.model.ChangeBatch;
@@ -36,43 +34,75 @@ import com.amazonaws.services.route53.model.RRType;
 import com.amazonaws.services.route53.model.ResourceRecord;
 import com.amazonaws.services.route53.model.ResourceRecordSet;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
-import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.HostedZoneCache;
+import com.github.blacklocus.rdsecho.utl.LatencyProbe;
 import com.github.blacklocus.rdsecho.utl.Route53Find;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.Warmer;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.github.blacklocus.rdsecho.utl.Route53Find.cnameEquals;
-import static com.github.blacklocus.rdsecho.utl.Route53Find.nameEquals;
 import static com.google.common.collect.Iterables.getOnlyElement;
 
 public class EchoPromote extends AbstractEchoIntermediateStage {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoPromote.class);
 
-    final AmazonRoute53 route53 = AmazonRoute53ClientBuilder.defaultClient();
-    final Route53Find route53Find = new Route53Find(route53);
+    /**
+     * How promote points the CNAME at the new instance, see {@link EchoCfg#PROP_PROMOTE_MODE}
+     */
+    public enum Mode {
+        /**
+         * All at once, with one change of a simple record
+         */
+        SIMPLE,
+        /**
+         * Gradually, through weighted record sets which send a growing share of lookups to the new instance
+         */
+        WEIGHTED
+    }
+
+    /**
+     * Weights of the two weighted record sets add up to this, so each is a percentage.
+     */
+    static final long WEIGHT_TOTAL = 100;
+
+    final AmazonRoute53 route53 = clients.route53();
+    final Route53Find route53Find = new Route53Find(route53, cfg.discoveryPrefetchPages());
+    final HostedZoneCache hostedZoneCache = new HostedZoneCache(new File(cfg.cacheDir(), "zones.properties"));
 
     public EchoPromote() {
-        super(EchoConst.STAGE_REBOOTED, EchoConst.STAGE_PROMOTED);
+        this(new EchoUtil());
+    }
+
+    public EchoPromote(EchoUtil echo) {
+        super(echo.cfg().warmEnabled() ? EchoConst.STAGE_WARMED : EchoConst.STAGE_REBOOTED, EchoConst.STAGE_PROMOTED,
+                echo);
     }
 
     @Override
     boolean traverseStage(DBInstance instance) {
 
         LOG.info("[{}] Reading current DNS records", getCommand());
-        String tld = EchoUtil.getTLD(cfg.promoteCname()) + '.';
-        HostedZone hostedZone = route53Find.hostedZone(nameEquals(tld)).get();
+        Optional<HostedZone> hostedZoneOpt = route53Find.hostedZoneFor(cfg.promoteCname(), hostedZoneCache);
+        if (!hostedZoneOpt.isPresent()) {
+            LOG.error("[{}] Unable to locate a HostedZone that could hold {}. Aborting.", getCommand(), cfg.promoteCname());
+            return false;
+        }
+        HostedZone hostedZone = hostedZoneOpt.get();
         LOG.info("[{}] Found corresponding HostedZone. name: {} id: {}", getCommand(), hostedZone.getName(), hostedZone.getId());
 
-        Optional<ResourceRecordSet> resourceRecordSetOpt = route53Find.resourceRecordSet(
-                hostedZone.getId(), cnameEquals(cfg.promoteCname()));
-
         Endpoint endpoint = instance.getEndpoint();
         String tagEchoManaged = echo.getTagEchoManaged();
         String dbInstanceId = instance.getDBInstanceIdentifier();
@@ -83,34 +113,12 @@ public class EchoPromote extends AbstractEchoIntermediateStage {
         }
         String instanceAddr = endpoint.getAddress();
 
-        if( !resourceRecordSetOpt.isPresent() ) {
-            ResourceRecordSet recordSet = new ResourceRecordSet(cfg.promoteCname(), "CNAME");
+        List<ResourceRecordSet> resourceRecordSets = Lists.newArrayList(route53Find.resourceRecordSets(
+                hostedZone.getId(), cfg.promoteCname(), RRType.CNAME));
 
-            ResourceRecord record = new ResourceRecord(instanceAddr + ".notexist");
-            recordSet.setResourceRecords(Lists.newArrayList(record));
-
-            resourceRecordSetOpt = Optional.of(recordSet);
-        }
-
-        ResourceRecordSet resourceRecordSet = resourceRecordSetOpt.get();
-        ResourceRecord resourceRecord = getOnlyElement(resourceRecordSet.getResourceRecords());
-        LOG.info("[{}] Found CNAME {} with current value {}", getCommand(), resourceRecordSet.getName(), resourceRecord.getValue());
-
-        if (resourceRecord.getValue().equals(instanceAddr)) {
-            LOG.info("[{}] Echo DB instance {} ({}) lines up with CNAME {}. Nothing to do.",
-                    getCommand(), tagEchoManaged, instanceAddr, resourceRecordSet.getName());
-        } else {
-            LOG.info("[{}] Echo DB instance {} ({}) differs from CNAME {}.",
-                    getCommand(), tagEchoManaged, instanceAddr, resourceRecordSet.getName());
-
-            LOG.info("[{}] Updating CNAME {} from {} to {}", getCommand(), cfg.name(), resourceRecord.getValue(), instanceAddr);
-            ChangeResourceRecordSetsRequest request = new ChangeResourceRecordSetsRequest()
-                    .withHostedZoneId(hostedZone.getId())
-                    .withChangeBatch(new ChangeBatch()
-                            .withChanges(new Change(ChangeAction.UPSERT, new ResourceRecordSet(cfg.promoteCname(), RRType.CNAME)
-                                    .withResourceRecords(new ResourceRecord(instanceAddr))
-                                    .withTTL(cfg.promoteTtl()))));
-            route53.changeResourceRecordSets(request);
+        Optional<ResourceRecordSet> previousOpt = previousTarget(resourceRecordSets, instanceAddr);
+        if (cfg.promoteGateEnabled() && !echo.timed(RunReport.JDBC, dbInstanceId, () -> gate(instance, previousOpt))) {
+            return false;
         }
 
         if (cfg.interactive()) {
@@ -121,22 +129,42 @@ public class EchoPromote extends AbstractEchoIntermediateStage {
             }
         }
 
+        if (resourceRecordSets.isEmpty()) {
+            LOG.info("[{}] Found no CNAME {}. Creating it with value {}", getCommand(), cfg.promoteCname(), instanceAddr);
+            pointAt(hostedZone.getId(), resourceRecordSets, instanceAddr);
+
+        } else if (resourceRecordSets.size() == 1 && resourceRecordSets.get(0).getSetIdentifier() == null &&
+                value(resourceRecordSets.get(0)).equals(instanceAddr)) {
+            LOG.info("[{}] Echo DB instance {} ({}) lines up with CNAME {}. Nothing to do.",
+                    getCommand(), tagEchoManaged, instanceAddr, cfg.promoteCname());
+
+        } else {
+            LOG.info("[{}] Echo DB instance {} ({}) differs from CNAME {}.",
+                    getCommand(), tagEchoManaged, instanceAddr, cfg.promoteCname());
+            if (cfg.promoteMode() == Mode.WEIGHTED) {
+                try {
+                    resourceRecordSets = shift(hostedZone.getId(), resourceRecordSets, instanceAddr);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("[{}] Interrupted while shifting {} to {}. Run this again to pick up where it left off.",
+                            getCommand(), cfg.promoteCname(), instanceAddr);
+                    return false;
+                }
+            }
+            LOG.info("[{}] Updating CNAME {} to {}", getCommand(), cfg.promoteCname(), instanceAddr);
+            pointAt(hostedZone.getId(), resourceRecordSets, instanceAddr);
+        }
+
         Optional<String[]> promoteTags = cfg.promoteTags();
         if (promoteTags.isPresent()) {
             List<Tag> tags = EchoUtil.parseTags(promoteTags.get());
             if (tags.size() > 0) {
                 LOG.info("[{}] Applying tags on promote: {}", getCommand(), Arrays.asList(tags));
-                AddTagsToResourceRequest tagsRequest = new AddTagsToResourceRequest()
-                        .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(),
-                                instance.getDBInstanceIdentifier()));
-                tagsRequest.setTags(tags);
-                rds.addTagsToResource(tagsRequest);
+                this.tags.add(dbInstanceId, tags);
             }
         }
 
-        LOG.info("[{}] Searching for any existing promoted instance to demote.", getCommand()); // TODO no it doesn't
-
-        EchoUtil echo = new EchoUtil();
+        LOG.info("[{}] Demoting any other Echo instances.", getCommand());
 
         Iterable<DBInstance> validInstances = echo.echoInstances();
         String tagEchoStage = echo.getTagEchoStage();
@@ -146,20 +174,208 @@ public class EchoPromote extends AbstractEchoIntermediateStage {
                 continue;
             }
 
-            rds.addTagsToResource(new AddTagsToResourceRequest()
-                    .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), validInstance.getDBInstanceIdentifier()))
-                    .withTags(new Tag().withKey(tagEchoStage).withValue(EchoConst.STAGE_FORGOTTEN)));
+            // Written concurrently with the promoted instance's tags, once this stage advances
+            tags.add(validInstance.getDBInstanceIdentifier(),
+                    new Tag().withKey(tagEchoStage).withValue(EchoConst.STAGE_FORGOTTEN));
+        }
+
+        return true;
+    }
+
+    /**
+     * Shifts lookups of the CNAME from whatever it points at to the new address in the steps given by
+     * {@link EchoCfg#promoteWeights()}, spread over {@link EchoCfg#promoteWeightWindowMinutes()}, so that the new
+     * instance warms its caches under part of the load before it takes all of it. Steps already taken by an earlier,
+     * interrupted, run are skipped.
+     *
+     * @return the record sets of the CNAME as they now stand
+     */
+    List<ResourceRecordSet> shift(String hostedZoneId, List<ResourceRecordSet> resourceRecordSets, String instanceAddr)
+            throws InterruptedException {
+
+        Optional<ResourceRecordSet> previousOpt = previousTarget(resourceRecordSets, instanceAddr);
+        if (!previousOpt.isPresent()) {
+            return resourceRecordSets;
+        }
+        String previousAddr = value(previousOpt.get());
+        long currentWeight = 0;
+        for (ResourceRecordSet resourceRecordSet : resourceRecordSets) {
+            if (value(resourceRecordSet).equals(instanceAddr) && resourceRecordSet.getWeight() != null) {
+                currentWeight = resourceRecordSet.getWeight();
+            }
+        }
+
+        List<Integer> weights = cfg.promoteWeights();
+        long pauseMillis = weights.isEmpty() ? 0 :
+                TimeUnit.MINUTES.toMillis(cfg.promoteWeightWindowMinutes()) / weights.size();
+
+        List<ResourceRecordSet> current = resourceRecordSets;
+        for (int weight : weights) {
+            if (weight <= currentWeight) {
+                continue;
+            }
+            List<ResourceRecordSet> next = Arrays.asList(
+                    weighted(previousAddr, WEIGHT_TOTAL - weight),
+                    weighted(instanceAddr, weight));
+
+            // Anything but the two sets upserted, e.g. the simple record, is deleted in the same change.
+            List<Change> changes = Lists.newArrayList();
+            for (ResourceRecordSet resourceRecordSet : current) {
+                if (resourceRecordSet.getSetIdentifier() == null || !(value(resourceRecordSet).equals(previousAddr) ||
+                        value(resourceRecordSet).equals(instanceAddr))) {
+                    changes.add(new Change(ChangeAction.DELETE, resourceRecordSet));
+                }
+            }
+            for (ResourceRecordSet resourceRecordSet : next) {
+                changes.add(new Change(ChangeAction.UPSERT, resourceRecordSet));
+            }
+
+            LOG.info("[{}] Sending {}% of lookups of {} to {}, the rest to {}", getCommand(), weight,
+                    cfg.promoteCname(), instanceAddr, previousAddr);
+            echo.timed(RunReport.MUTATE, cfg.promoteCname(), () -> route53.changeResourceRecordSets(
+                    new ChangeResourceRecordSetsRequest()
+                            .withHostedZoneId(hostedZoneId)
+                            .withChangeBatch(new ChangeBatch().withChanges(changes))));
+            current = next;
+
+            LOG.info("[{}] Waiting {} seconds before the next step", getCommand(), pauseMillis / 1000);
+            RunReport.Span span = echo.span(RunReport.WAIT, cfg.promoteCname());
+            try {
+                echo.clock().sleep(pauseMillis);
+            } finally {
+                span.end();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the record set of the CNAME for what it points at other than the new address: the simple record, else the
+     * weighted set taking the most lookups
+     */
+    static Optional<ResourceRecordSet> previousTarget(List<ResourceRecordSet> resourceRecordSets, String instanceAddr) {
+        ResourceRecordSet previous = null;
+        for (ResourceRecordSet resourceRecordSet : resourceRecordSets) {
+            if (value(resourceRecordSet).equals(instanceAddr)) {
+                continue;
+            }
+            if (previous == null || resourceRecordSet.getWeight() == null ||
+                    (previous.getWeight() != null && resourceRecordSet.getWeight() > previous.getWeight())) {
+                previous = resourceRecordSet;
+            }
+        }
+        return Optional.fromNullable(previous);
+    }
+
+    /**
+     * Probes the candidate and whatever the CNAME currently points at with the statements in
+     * {@link EchoCfg#promoteGateQueriesFile()}, and refuses the candidate if it is more than
+     * {@link EchoCfg#promoteGateMaxSlowerPercent()} slower, or slower at p99 than
+     * {@link EchoCfg#promoteGateMaxP99Millis()}.
+     *
+     * @return whether promotion may go ahead
+     */
+    boolean gate(DBInstance instance, Optional<ResourceRecordSet> previousOpt) {
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        Endpoint endpoint = instance.getEndpoint();
+
+        File queriesFile = cfg.promoteGateQueriesFile().get();
+        List<String> statements;
+        try {
+            statements = Warmer.statements(new String(Files.readAllBytes(queriesFile.toPath()),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.error("[{}] Unable to read {}. Exiting.", getCommand(), queriesFile, e);
+            return false;
+        }
+        if (statements.isEmpty()) {
+            LOG.error("[{}] {} holds no probe statements. Exiting.", getCommand(), queriesFile);
+            return false;
+        }
+
+        LatencyProbe probe = new LatencyProbe(cfg.promoteGateIterations(), cfg.promoteGateConcurrency());
+        LatencyProbe.Result candidate;
+        Optional<LatencyProbe.Result> baseline = Optional.absent();
+        try {
+            candidate = probe.probe(echo.jdbcTarget(endpoint.getAddress(), endpoint.getPort()), statements);
+            LOG.info("[{}] Probed candidate {}: {}", getCommand(), dbInstanceId, candidate);
+
+            if (previousOpt.isPresent()) {
+                String previousAddr = value(previousOpt.get());
+                // The instance currently promoted is usually an earlier Echo instance, whose port is known.
+                int previousPort = endpoint.getPort();
+                for (DBInstance echoInstance : echo.echoInstances()) {
+                    Endpoint echoEndpoint = echoInstance.getEndpoint();
+                    if (echoEndpoint != null && previousAddr.equals(echoEndpoint.getAddress())) {
+                        previousPort = echoEndpoint.getPort();
+                    }
+                }
+                baseline = Optional.of(probe.probe(echo.jdbcTarget(previousAddr, previousPort), statements));
+                LOG.info("[{}] Probed current target of {} ({}): {}", getCommand(), cfg.promoteCname(), previousAddr,
+                        baseline.get());
+                if (baseline.get().count() == 0) {
+                    LOG.warn("[{}] Could not probe {}, so {} is only held to the absolute limit.", getCommand(),
+                            previousAddr, dbInstanceId);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("[{}] No JDBC driver found for {}. Set {} to the driver's jar. Exiting.", getCommand(),
+                    cfg.jdbcUrl().get(), EchoCfg.PROP_JDBC_DRIVER_JAR, e);
+            return false;
         }
 
+        Optional<String> refusal = LatencyProbe.verdict(candidate, baseline, cfg.promoteGateMaxSlowerPercent(),
+                cfg.promoteGateMaxP99Millis());
+        if (refusal.isPresent()) {
+            LOG.error("[{}] Refusing to promote {}: {}. It stays in stage {}.", getCommand(), dbInstanceId,
+                    refusal.get(), requisiteStage);
+            return false;
+        }
+        LOG.info("[{}] Candidate {} passed the promote gate.", getCommand(), dbInstanceId);
         return true;
     }
 
+    /**
+     * Points the CNAME wholly at the address with a simple record, deleting any weighted record sets in the same
+     * change.
+     */
+    void pointAt(String hostedZoneId, List<ResourceRecordSet> resourceRecordSets, String instanceAddr) {
+        List<Change> changes = Lists.newArrayList();
+        for (ResourceRecordSet resourceRecordSet : resourceRecordSets) {
+            if (resourceRecordSet.getSetIdentifier() != null) {
+                changes.add(new Change(ChangeAction.DELETE, resourceRecordSet));
+            }
+        }
+        changes.add(new Change(ChangeAction.UPSERT, new ResourceRecordSet(cfg.promoteCname(), RRType.CNAME)
+                .withResourceRecords(new ResourceRecord(instanceAddr))
+                .withTTL(cfg.promoteTtl())));
+        echo.timed(RunReport.MUTATE, cfg.promoteCname(), () -> route53.changeResourceRecordSets(
+                new ChangeResourceRecordSetsRequest()
+                        .withHostedZoneId(hostedZoneId)
+                        .withChangeBatch(new ChangeBatch().withChanges(changes))));
+    }
+
+    ResourceRecordSet weighted(String addr, long weight) {
+        // RDS endpoints start with the instance identifier, which tells the sets apart.
+        return new ResourceRecordSet(cfg.promoteCname(), RRType.CNAME)
+                .withSetIdentifier(addr.split("\\.", 2)[0])
+                .withWeight(weight)
+                .withResourceRecords(new ResourceRecord(addr))
+                .withTTL(cfg.promoteTtl());
+    }
+
+    static String value(ResourceRecordSet resourceRecordSet) {
+        return getOnlyElement(resourceRecordSet.getResourceRecords()).getValue();
+    }
+
     @Override
     String getCommand() {
         return EchoConst.COMMAND_PROMOTE;
     }
 
     public static void main(String[] args) throws Exception {
-        new EchoPromote().call();
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoPromote(echo).call();
+        }
     }
 }
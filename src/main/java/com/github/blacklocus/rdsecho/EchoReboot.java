@@ -26,6 +26,7 @@ package com.github.blacklocus.rdsecho;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +35,11 @@ public class EchoReboot extends AbstractEchoIntermediateStage {
     private static final Logger LOG = LoggerFactory.getLogger(EchoReboot.class);
 
     public EchoReboot() {
-        super(EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED);
+        this(new EchoUtil());
+    }
+
+    public EchoReboot(EchoUtil echo) {
+        super(EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED, echo);
     }
 
     @Override
@@ -50,8 +55,8 @@ public class EchoReboot extends AbstractEchoIntermediateStage {
         }
 
         LOG.info("[{}] Rebooting instance {}", getCommand(), dbInstanceId);
-        rds.rebootDBInstance(new RebootDBInstanceRequest()
-                .withDBInstanceIdentifier(dbInstanceId));
+        echo.timed(RunReport.MUTATE, dbInstanceId, () -> rds.rebootDBInstance(new RebootDBInstanceRequest()
+                .withDBInstanceIdentifier(dbInstanceId)));
 
         return true;
     }
@@ -62,6 +67,8 @@ public class EchoReboot extends AbstractEchoIntermediateStage {
     }
 
     public static void main(String[] args) throws Exception {
-        new EchoReboot().call();
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoReboot(echo).call();
+        }
     }
 }
@@ -23,22 +23,51 @@
  */
 package com.github.blacklocus.rdsecho;
 
-import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.DeleteDBInstanceRequest;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
 import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.ThrottleAwareExecutor;
 import com.google.common.base.Optional;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retires every forgotten instance, several at once, and reports which were retired, skipped or failed.
+ */
 public class EchoRetire extends AbstractEchoIntermediateStage {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoRetire.class);
 
+    enum Outcome {
+        RETIRED,
+        SKIPPED,
+        FAILED,
+        /**
+         * Retired and then seen to be gone, see {@link EchoCfg#retireAwaitDeleted()}
+         */
+        DELETED
+    }
+
     public EchoRetire() {
-        super(EchoConst.STAGE_FORGOTTEN, EchoConst.STAGE_RETIRED);
+        this(new EchoUtil());
+    }
+
+    public EchoRetire(EchoUtil echo) {
+        super(EchoConst.STAGE_FORGOTTEN, EchoConst.STAGE_RETIRED, echo);
     }
 
     @Override
@@ -52,47 +81,160 @@ public class EchoRetire extends AbstractEchoIntermediateStage {
 
         LOG.info("[{}] Locating Echo managed instances (tagged with {}=true)", command, tagEchoManaged);
 
+        // Stage tags were read along with the instances, so sorting them out makes no further calls.
+
         Iterable<DBInstance> instances = echo.echoInstances();
+        List<DBInstance> available = Lists.newArrayList();
+        List<DBInstance> unavailable = Lists.newArrayList();
+        ListMultimap<Outcome, String> outcomes = Multimaps.synchronizedListMultimap(
+                MultimapBuilder.enumKeys(Outcome.class).arrayListValues().<Outcome, String>build());
         for (DBInstance instance : instances) {
             String dbInstanceId = instance.getDBInstanceIdentifier();
             LOG.info("[{}] Located echo-managed instance with identifier {}", command, dbInstanceId);
 
             Optional<Tag> stageOpt = echo.instanceStage(instance.getDBInstanceIdentifier());
             if (!stageOpt.isPresent()) {
-                LOG.error("[{}] Unable to read Echo stage tag on instance {}. Exiting.\n" +
+                LOG.error("[{}] Unable to read Echo stage tag on instance {}. Skipping it.\n" +
                                 "(If the instance is supposed to be in stage {} but isn't, edit " +
                                 "the instance's tags to add {}={} and run this operation again.)",
                         command, dbInstanceId, requisiteStage, tagEchoStage, requisiteStage);
+                outcomes.put(Outcome.SKIPPED, dbInstanceId);
                 continue;
             }
             String instanceStage = stageOpt.get().getValue();
             if (!requisiteStage.equals(instanceStage)) {
-                LOG.info("[{}] Instance {} has stage {} but this operation is looking for {}={}. Exiting.\n",
+                LOG.info("[{}] Instance {} has stage {} but this operation is looking for {}={}. Skipping it.",
                         command, dbInstanceId, instanceStage, tagEchoStage, requisiteStage);
                 continue;
             }
 
             // Looks like we found a good echo instance, but is it available to us?
 
-            if (!"available".equals(instance.getDBInstanceStatus())) {
-                LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so aborting.",
+            if ("available".equals(instance.getDBInstanceStatus())) {
+                available.add(instance);
+            } else if (cfg.waitEnabled()) {
+                unavailable.add(instance);
+            } else {
+                LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so skipping it.",
                         command, dbInstanceId, instanceStage, instance.getDBInstanceStatus());
-                continue;
+                outcomes.put(Outcome.SKIPPED, dbInstanceId);
             }
+        }
+
+        // Prompts from several instances at once could not be told apart, so interactive runs retire one at a time.
+
+        boolean tagged = false;
+        try {
+            try (ThrottleAwareExecutor executor = new ThrottleAwareExecutor("retire",
+                    cfg.interactive() ? 1 : cfg.retireConcurrency())) {
+                retire(executor, available, outcomes);
+
+                // Wait on the rest together
 
-            // Do the part special to traversing this stage
+                if (!unavailable.isEmpty()) {
+                    List<String> dbInstanceIds = RdsFind.instanceIdentifiers(unavailable);
+                    int timeoutMinutes = cfg.waitTimeoutMinutes(command);
+                    LOG.info("[{}] Instances {} are in correct stage of {} but do not have status 'available'. " +
+                                    "Waiting up to {} minutes for them.", command, dbInstanceIds, requisiteStage,
+                            timeoutMinutes);
+                    Map<String, DBInstance> becameAvailable;
+                    RunReport.Span span = echo.span(RunReport.WAIT, null);
+                    try {
+                        becameAvailable = echo.waiter().awaitAvailable(dbInstanceIds,
+                                TimeUnit.MINUTES.toMillis(timeoutMinutes));
+                    } finally {
+                        span.end();
+                    }
+                    for (String dbInstanceId : dbInstanceIds) {
+                        if (!becameAvailable.containsKey(dbInstanceId)) {
+                            outcomes.put(Outcome.SKIPPED, dbInstanceId);
+                        }
+                    }
+                    retire(executor, Lists.newArrayList(becameAvailable.values()), outcomes);
+                }
+            } finally {
+                // Whatever was retired before anything went wrong is still tagged as such.
+                tagged = flush(command, outcomes);
+            }
 
-            if (traverseStage(instance)) {
-                // Advance. This replaces, same-named tags.
-                rds.addTagsToResource(new AddTagsToResourceRequest()
-                        .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), instance.getDBInstanceIdentifier()))
-                        .withTags(new Tag().withKey(tagEchoStage).withValue(resultantStage)));
+            List<String> retired = outcomes.get(Outcome.RETIRED);
+            if (cfg.retireAwaitDeleted() && !retired.isEmpty()) {
+                int timeoutMinutes = cfg.waitTimeoutMinutes(command);
+                LOG.info("[{}] Waiting up to {} minutes for {} to be deleted.", command, timeoutMinutes, retired);
+                Set<String> remaining;
+                RunReport.Span span = echo.span(RunReport.WAIT, null);
+                try {
+                    remaining = echo.waiter().awaitDeleted(retired, TimeUnit.MINUTES.toMillis(timeoutMinutes));
+                } finally {
+                    span.end();
+                }
+                for (String dbInstanceId : retired) {
+                    if (!remaining.contains(dbInstanceId)) {
+                        outcomes.put(Outcome.DELETED, dbInstanceId);
+                    }
+                }
             }
+        } finally {
+            LOG.info("[{}] Summary: retired {}, skipped {}, failed {}{}", command,
+                    outcomes.get(Outcome.RETIRED), outcomes.get(Outcome.SKIPPED), outcomes.get(Outcome.FAILED),
+                    cfg.retireAwaitDeleted() ? ", deleted " + outcomes.get(Outcome.DELETED) : "");
         }
 
-        return true;
+        return outcomes.get(Outcome.FAILED).isEmpty() && tagged;
     }
 
+    /**
+     * Writes the stage tags of every instance retired so far.
+     *
+     * @return whether they were written. If not, the instances are being deleted all the same, but are left in the
+     * stage they were in.
+     */
+    boolean flush(String command, ListMultimap<Outcome, String> outcomes) {
+        try {
+            echo.timed(RunReport.TAG_WRITE, null, tags::flush);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("[{}] Failed to tag retired instances {} with stage {}", command,
+                    outcomes.get(Outcome.RETIRED), resultantStage, e);
+            return false;
+        }
+    }
+
+    /**
+     * Retires the instances, several at once, recording how each went. One failing does not stop the others.
+     */
+    void retire(ThrottleAwareExecutor executor, List<DBInstance> instances, final ListMultimap<Outcome, String> outcomes) {
+        List<Callable<Outcome>> calls = Lists.newArrayList();
+        for (final DBInstance instance : instances) {
+            calls.add(new Callable<Outcome>() {
+                @Override
+                public Outcome call() {
+                    Outcome outcome;
+                    try {
+                        outcome = retire(instance) ? Outcome.RETIRED : Outcome.SKIPPED;
+                    } catch (AmazonClientException e) {
+                        LOG.error("[{}] Failed to retire instance {}", getCommand(), instance.getDBInstanceIdentifier(), e);
+                        outcome = Outcome.FAILED;
+                    }
+                    outcomes.put(outcome, instance.getDBInstanceIdentifier());
+                    return outcome;
+                }
+            });
+        }
+        executor.invokeAll(calls);
+    }
+
+    boolean retire(DBInstance instance) {
+
+        // Do the part special to traversing this stage
+
+        if (traverseStage(instance)) {
+            // Advance. This replaces, same-named tags. Written with the other retired instances' at the end.
+            tags.add(instance.getDBInstanceIdentifier(), new Tag().withKey(echo.getTagEchoStage()).withValue(resultantStage));
+            return true;
+        }
+        return false;
+    }
 
     @Override
     boolean traverseStage(DBInstance instance) {
@@ -113,7 +255,7 @@ public class EchoRetire extends AbstractEchoIntermediateStage {
                 .withDBInstanceIdentifier(dbInstanceId)
                 .withSkipFinalSnapshot(cfg.retireSkipFinalSnapshot().orNull())
                 .withFinalDBSnapshotIdentifier(cfg.retireFinalDbSnapshotIdentifier().orNull());
-        rds.deleteDBInstance(request);
+        echo.timed(RunReport.MUTATE, dbInstanceId, () -> rds.deleteDBInstance(request));
         LOG.info("[{}] So long {}", getCommand(), dbInstanceId);
 
         return true;
@@ -125,6 +267,8 @@ public class EchoRetire extends AbstractEchoIntermediateStage {
     }
 
     public static void main(String[] args) throws Exception {
-        new EchoRetire().call();
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoRetire(echo).call();
+        }
     }
 }
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.JdbcTarget;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.Warmer;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads through a rebooted instance before it is promoted. An instance restored from a snapshot loads its storage from
+ * S3 as it is first read, so without this the first clients of a newly promoted instance would pay for it. Reads the
+ * tables in {@link EchoCfg#warmTables()} and runs the statements in {@link EchoCfg#warmQueriesFile()}, several at once,
+ * and only advances the instance once every one of them has finished within {@link EchoCfg#warmTimeoutMinutes()}.
+ */
+public class EchoWarm extends AbstractEchoIntermediateStage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoWarm.class);
+
+    public EchoWarm() {
+        this(new EchoUtil());
+    }
+
+    public EchoWarm(EchoUtil echo) {
+        super(EchoConst.STAGE_REBOOTED, EchoConst.STAGE_WARMED, echo);
+    }
+
+    @Override
+    boolean traverseStage(DBInstance instance) {
+
+        if (!cfg.jdbcUrl().isPresent()) {
+            LOG.error("[{}] Set {} to warm instances. Exiting.", getCommand(), EchoCfg.PROP_JDBC_URL);
+            return false;
+        }
+
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        Endpoint endpoint = instance.getEndpoint();
+        if (null == endpoint) {
+            LOG.info("[{}] Instance {} has no address. Is it still initializing?", getCommand(), dbInstanceId);
+            return false;
+        }
+
+        List<String> statements = Lists.newArrayList(Warmer.tableScans(cfg.warmTables()));
+        Optional<File> queriesFileOpt = cfg.warmQueriesFile();
+        if (queriesFileOpt.isPresent()) {
+            try {
+                statements.addAll(Warmer.statements(new String(Files.readAllBytes(queriesFileOpt.get().toPath()),
+                        StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                LOG.error("[{}] Unable to read {}. Exiting.", getCommand(), queriesFileOpt.get(), e);
+                return false;
+            }
+        }
+        if (statements.isEmpty()) {
+            LOG.error("[{}] Nothing to warm {} with. Set {} or {}. Exiting.", getCommand(), dbInstanceId,
+                    EchoCfg.PROP_WARM_TABLES, EchoCfg.PROP_WARM_QUERIES_FILE);
+            return false;
+        }
+
+        JdbcTarget target;
+        try {
+            target = echo.jdbcTarget(endpoint.getAddress(), endpoint.getPort());
+        } catch (SQLException e) {
+            LOG.error("[{}] No JDBC driver found for {}. Set {} to the driver's jar. Exiting.", getCommand(),
+                    cfg.jdbcUrl().get(), EchoCfg.PROP_JDBC_DRIVER_JAR, e);
+            return false;
+        }
+
+        StringWriter proposed = new StringWriter();
+        PrintWriter printer = new PrintWriter(proposed);
+        printer.format("[%s] Proposed warm-up of %s...%n", getCommand(), dbInstanceId);
+        printer.format("  jdbc url         : %s%n", target.url());
+        printer.format("  concurrency      : %s%n", cfg.warmConcurrency());
+        printer.format("  timeout minutes  : %s%n", cfg.warmTimeoutMinutes());
+        for (String statement : statements) {
+            printer.format("  statement        : %s%n", statement);
+        }
+        LOG.info(proposed.toString());
+
+        Warmer warmer = new Warmer(target, cfg.warmFetchSize(), cfg.warmConcurrency(), echo.clock());
+        Warmer.Result result = echo.timed(RunReport.JDBC, dbInstanceId,
+                () -> warmer.warm(statements, TimeUnit.MINUTES.toMillis(cfg.warmTimeoutMinutes())));
+
+        LOG.info("[{}] Warmed {} of {} statements on {}, reading {} rows in {} seconds", getCommand(),
+                result.completed, result.statements, dbInstanceId, result.rows, result.millis / 1000);
+        if (!result.isComplete()) {
+            LOG.error("[{}] Instance {} is not fully warmed, so it stays in stage {}. Unfinished: {}", getCommand(),
+                    dbInstanceId, requisiteStage, result.unfinished);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    String getCommand() {
+        return EchoConst.COMMAND_WARM;
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (EchoUtil echo = new EchoUtil()) {
+            new EchoWarm(echo).call();
+        }
+    }
+}
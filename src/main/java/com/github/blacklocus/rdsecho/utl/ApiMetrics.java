@@ -0,0 +1,363 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.util.json.Jackson;
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryListener;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts every AWS API call made through a client {@link #instrument(AmazonRDS) instrumented} by this registry: how
+ * many, how long they took as a histogram, how many failed or were throttled, and how many were retries. Each count is
+ * kept per service, operation (the API name, e.g. DescribeDBInstances) and stage, which is the Echo command on whose
+ * behalf the call was made, e.g. "promote". The stage follows the thread that set it with
+ * {@link #inStage(String, Callable)}, and work handed to other threads carries it along with
+ * {@link #carryStage(Callable)}. Calls made outside of any stage are counted under {@value #NO_STAGE}.
+ */
+public class ApiMetrics {
+
+    static final String NO_STAGE = "none";
+
+    /**
+     * Upper bounds of the latency histogram's buckets, in seconds. The last bucket, +Inf, is implied.
+     */
+    static final double[] BUCKETS = {0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    static final ThreadLocal<String> STAGE = new ThreadLocal<String>();
+
+    /**
+     * By service, operation and stage
+     */
+    final ConcurrentMap<List<String>, Series> series = Maps.newConcurrentMap();
+
+    public AmazonRDS instrument(AmazonRDS rds) {
+        return instrument("rds", AmazonRDS.class, rds);
+    }
+
+    public AmazonRoute53 instrument(AmazonRoute53 route53) {
+        return instrument("route53", AmazonRoute53.class, route53);
+    }
+
+    /**
+     * @return a client which counts every call taking a request, e.g. describeDBInstances, and passes every other
+     * method, e.g. shutdown, straight through
+     */
+    <T> T instrument(final String service, Class<T> type, final T client) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (args == null || args.length != 1 || !(args[0] instanceof AmazonWebServiceRequest)) {
+                    return invokeOn(client, method, args);
+                }
+                Series counts = series(service, operation(method.getName()));
+                long start = System.nanoTime();
+                try {
+                    Object result = invokeOn(client, method, args);
+                    counts.record(System.nanoTime() - start);
+                    return result;
+                } catch (Throwable t) {
+                    counts.record(System.nanoTime() - start);
+                    counts.errors.increment();
+                    if (t instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) t)) {
+                        counts.throttles.increment();
+                    }
+                    throw t;
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return a listener for a retryer of calls to the given operation, which counts every attempt after the first
+     */
+    public RetryListener retryListener(final String service, final String operation) {
+        return new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                if (attempt.getAttemptNumber() > 1) {
+                    retried(service, operation);
+                }
+            }
+        };
+    }
+
+    /**
+     * Counts a call made again after it failed.
+     */
+    public void retried(String service, String operation) {
+        series(service, operation).retries.increment();
+    }
+
+    /**
+     * @return every series counted so far, ordered by service, operation and stage
+     */
+    public List<Series> series() {
+        List<List<String>> keys = Lists.newArrayList(series.keySet());
+        List<Series> sorted = Lists.newArrayListWithCapacity(keys.size());
+        for (List<String> key : Ordering.<String>natural().lexicographical().sortedCopy(keys)) {
+            sorted.add(series.get(key));
+        }
+        return sorted;
+    }
+
+    /**
+     * @return everything counted so far in Prometheus' text exposition format, e.g. for node_exporter's textfile
+     * collector
+     */
+    public String toPrometheus() {
+        List<Series> all = series();
+        StringBuilder s = new StringBuilder();
+        counter(s, all, "rdsecho_api_calls_total", "AWS API calls made.", Counter.CALLS);
+        counter(s, all, "rdsecho_api_errors_total", "AWS API calls which failed, throttled or not.", Counter.ERRORS);
+        counter(s, all, "rdsecho_api_throttles_total", "AWS API calls refused as throttled.", Counter.THROTTLES);
+        counter(s, all, "rdsecho_api_retries_total", "AWS API calls which were retries of a failed call.",
+                Counter.RETRIES);
+
+        String name = "rdsecho_api_call_duration_seconds";
+        s.append("# HELP ").append(name).append(" How long AWS API calls took.\n");
+        s.append("# TYPE ").append(name).append(" histogram\n");
+        for (Series one : all) {
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                cumulative += one.buckets.get(i);
+                String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+                s.append(name).append("_bucket").append(one.labels(",le=\"" + le + "\"")).append(' ')
+                        .append(cumulative).append('\n');
+            }
+            s.append(name).append("_sum").append(one.labels("")).append(' ')
+                    .append(one.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            s.append(name).append("_count").append(one.labels("")).append(' ')
+                    .append(one.calls.sum()).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * @return everything counted so far as a JSON array with one object per series
+     */
+    public String toJson() {
+        List<Map<String, Object>> json = Lists.newArrayList();
+        for (Series one : series()) {
+            Map<String, Object> object = Maps.newLinkedHashMap();
+            object.put("service", one.service);
+            object.put("operation", one.operation);
+            object.put("stage", one.stage);
+            object.put("calls", one.calls.sum());
+            object.put("errors", one.errors.sum());
+            object.put("throttles", one.throttles.sum());
+            object.put("retries", one.retries.sum());
+            object.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(one.sumNanos.sum()));
+            Map<String, Long> buckets = Maps.newLinkedHashMap();
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                buckets.put(i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf", one.buckets.get(i));
+            }
+            object.put("secondsBuckets", buckets);
+            json.add(object);
+        }
+        return Jackson.toJsonPrettyString(json);
+    }
+
+    Series series(String service, String operation) {
+        String stage = stage();
+        List<String> key = ImmutableList.of(service, operation, stage);
+        Series one = series.get(key);
+        if (one == null) {
+            series.putIfAbsent(key, new Series(service, operation, stage));
+            one = series.get(key);
+        }
+        return one;
+    }
+
+    /**
+     * @return the stage of the current thread
+     */
+    public static String stage() {
+        String stage = STAGE.get();
+        return stage == null ? NO_STAGE : stage;
+    }
+
+    /**
+     * Makes the call with calls to AWS counted under the given stage, then restores whatever stage was set before.
+     */
+    public static <T> T inStage(String stage, Callable<T> call) throws Exception {
+        String previous = STAGE.get();
+        STAGE.set(stage);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                STAGE.remove();
+            } else {
+                STAGE.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return the call, made in the stage of the current thread whichever thread ends up making it
+     */
+    public static <T> Callable<T> carryStage(final Callable<T> call) {
+        final String stage = STAGE.get();
+        if (stage == null) {
+            return call;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return inStage(stage, call);
+            }
+        };
+    }
+
+    static Object invokeOn(Object client, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the API name of a client method, e.g. DescribeDBInstances for describeDBInstances
+     */
+    static String operation(String methodName) {
+        return methodName.substring(0, 1).toUpperCase(Locale.ENGLISH) + methodName.substring(1);
+    }
+
+    static void counter(StringBuilder s, List<Series> all, String name, String help, Counter counter) {
+        s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        s.append("# TYPE ").append(name).append(" counter\n");
+        for (Series one : all) {
+            s.append(name).append(one.labels("")).append(' ').append(counter.of(one)).append('\n');
+        }
+    }
+
+    enum Counter {
+        CALLS, ERRORS, THROTTLES, RETRIES;
+
+        long of(Series series) {
+            switch (this) {
+                case CALLS:
+                    return series.calls.sum();
+                case ERRORS:
+                    return series.errors.sum();
+                case THROTTLES:
+                    return series.throttles.sum();
+                default:
+                    return series.retries.sum();
+            }
+        }
+    }
+
+    /**
+     * The counts of one operation in one stage.
+     */
+    public static class Series {
+
+        final String service;
+        final String operation;
+        final String stage;
+
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder throttles = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+        /**
+         * Calls by the bucket of {@link #BUCKETS} their latency falls in, not cumulative
+         */
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+
+        Series(String service, String operation, String stage) {
+            this.service = service;
+            this.operation = operation;
+            this.stage = stage;
+        }
+
+        void record(long nanos) {
+            calls.increment();
+            sumNanos.add(nanos);
+            double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+
+        public String service() {
+            return service;
+        }
+
+        public String operation() {
+            return operation;
+        }
+
+        public String stage() {
+            return stage;
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long throttles() {
+            return throttles.sum();
+        }
+
+        public long retries() {
+            return retries.sum();
+        }
+
+        String labels(String more) {
+            return "{service=\"" + service + "\",operation=\"" + operation + "\",stage=\"" + stage + "\"" + more + "}";
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces every call made through the clients it {@link #limit(String, AmazonRDS, ApiMetrics) limits} so that, together,
+ * they stay just under the account's API rate limits rather than running into them and backing off. AWS meters each
+ * API in each region with its own token bucket, so each operation (e.g. ListTagsForResource) in each region gets a
+ * bucket here too, with a {@link Budgets budget} of calls per second, shared by every thread and every environment of
+ * the process.
+ * <p>
+ * The rate of each bucket adapts to what AWS allows (additive increase, multiplicative decrease): a throttled call
+ * halves the operation's rate and a successful one grows it back towards the budget by about
+ * {@value #ADDITIVE_INCREASE} calls per second every second. A throttled call is retried once the bucket lets it, up to
+ * a number of attempts, so no call waits longer than the rate calls for.
+ */
+public class ApiRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApiRateLimiter.class);
+
+    /**
+     * Calls per second an operation's rate grows by per second without being throttled
+     */
+    static final double ADDITIVE_INCREASE = 1;
+
+    /**
+     * What an operation's rate is multiplied by when a call is throttled
+     */
+    static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+    /**
+     * The slowest any operation is slowed to, in calls per second
+     */
+    static final double MIN_PER_SECOND = 0.1;
+
+    /**
+     * Throttles within this long of a decrease were caused by calls already in flight, and do not decrease it again.
+     */
+    static final long DECREASE_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * How many calls per second each operation may make at most.
+     */
+    public interface Budgets {
+
+        /**
+         * @param service   e.g. rds or route53
+         * @param operation the API name, e.g. DescribeDBInstances
+         */
+        double perSecond(String service, String operation);
+    }
+
+    final Budgets budgets;
+    final int maxAttempts;
+    final EchoClock clock;
+
+    /**
+     * By service, region and operation
+     */
+    final ConcurrentMap<List<String>, Bucket> buckets = Maps.newConcurrentMap();
+
+    /**
+     * @param maxAttempts how many times a call is made before its throttling is given up to the caller
+     */
+    public ApiRateLimiter(Budgets budgets, int maxAttempts, EchoClock clock) {
+        this.budgets = budgets;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.clock = clock;
+    }
+
+    /**
+     * @param metrics where retries of throttled calls are counted
+     */
+    public AmazonRDS limit(String region, AmazonRDS rds, ApiMetrics metrics) {
+        return limit("rds", region, AmazonRDS.class, rds, metrics);
+    }
+
+    /**
+     * @param metrics where retries of throttled calls are counted
+     */
+    public AmazonRoute53 limit(AmazonRoute53 route53, ApiMetrics metrics) {
+        // Route53 is global, and so are its limits.
+        return limit("route53", "global", AmazonRoute53.class, route53, metrics);
+    }
+
+    <T> T limit(final String service, final String region, Class<T> type, final T client, final ApiMetrics metrics) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (args == null || args.length != 1 || !(args[0] instanceof AmazonWebServiceRequest)) {
+                    return ApiMetrics.invokeOn(client, method, args);
+                }
+                String operation = ApiMetrics.operation(method.getName());
+                Bucket bucket = bucket(service, region, operation);
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        clock.sleep(bucket.reserve(clock.currentTimeMillis()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new AbortedException(e);
+                    }
+                    try {
+                        Object result = ApiMetrics.invokeOn(client, method, args);
+                        bucket.onSuccess();
+                        return result;
+                    } catch (AmazonServiceException e) {
+                        if (!isThrottling(e)) {
+                            throw e;
+                        }
+                        bucket.onThrottle(clock.currentTimeMillis());
+                        if (attempt >= maxAttempts) {
+                            throw e;
+                        }
+                        metrics.retried(service, operation);
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return whether the given failure is AWS throttling a call, which a limiter retries itself
+     */
+    public static boolean isThrottling(Throwable t) {
+        return t instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) t);
+    }
+
+    Bucket bucket(String service, String region, String operation) {
+        List<String> key = ImmutableList.of(service, region, operation);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            buckets.putIfAbsent(key, new Bucket(key.toString(), budgets.perSecond(service, operation),
+                    clock.currentTimeMillis()));
+            bucket = buckets.get(key);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the current rate of an operation in calls per second, which is its budget until it is throttled
+     */
+    public double perSecond(String service, String region, String operation) {
+        return bucket(service, region, operation).perSecond();
+    }
+
+    /**
+     * A token bucket holding up to a second's worth of calls at the budgeted rate, refilled at the current rate.
+     * Tokens may be taken ahead of being refilled, which reserves the caller a turn in the future.
+     */
+    static class Bucket {
+
+        final String name;
+        final double budget;
+        final double capacity;
+
+        double rate;
+        double tokens;
+        long refilledAt;
+        long decreasedAt;
+
+        Bucket(String name, double budget, long now) {
+            this.name = name;
+            this.budget = Math.max(MIN_PER_SECOND, budget);
+            this.capacity = Math.max(1, this.budget);
+            this.rate = this.budget;
+            this.tokens = capacity;
+            this.refilledAt = now;
+            this.decreasedAt = now - DECREASE_COOLDOWN_MILLIS;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return how long to wait before making the call it allows
+         */
+        synchronized long reserve(long now) {
+            refill(now);
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate * 1000);
+        }
+
+        synchronized void onSuccess() {
+            rate = Math.min(budget, rate + ADDITIVE_INCREASE / rate);
+        }
+
+        synchronized void onThrottle(long now) {
+            // Whatever is left was handed out too fast.
+            refill(now);
+            tokens = Math.min(tokens, 0);
+            if (now - decreasedAt < DECREASE_COOLDOWN_MILLIS) {
+                return;
+            }
+            decreasedAt = now;
+            double reduced = Math.max(MIN_PER_SECOND, rate * MULTIPLICATIVE_DECREASE);
+            if (reduced < rate) {
+                LOG.info("Throttled by AWS. Slowing {} from {} to {} calls per second", name,
+                        String.format("%.1f", rate), String.format("%.1f", reduced));
+                rate = reduced;
+            }
+        }
+
+        synchronized double perSecond() {
+            return rate;
+        }
+
+        void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * rate / 1000);
+                refilledAt = now;
+            }
+        }
+    }
+}
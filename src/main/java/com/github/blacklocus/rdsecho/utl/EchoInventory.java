@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the DB instances in a region along with their tags. It is gathered in a single pass so that
+ * one Echo operation never has to scan the account more than once, and is indexed by instance identifier and by tag.
+ * Anything changed in RDS after the scan is not reflected here.
+ */
+public class EchoInventory {
+
+    final ImmutableMap<String, DBInstance> instances;
+    final ImmutableListMultimap<String, Tag> tagsByInstance;
+    final ImmutableListMultimap<Tag, DBInstance> instancesByTag;
+
+    EchoInventory(Iterable<DBInstance> instances, Function<DBInstance, List<Tag>> tagReader) {
+        ImmutableMap.Builder<String, DBInstance> instancesBuilder = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<String, Tag> tagsByInstanceBuilder = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<Tag, DBInstance> instancesByTagBuilder = ImmutableListMultimap.builder();
+
+        for (DBInstance instance : instances) {
+            String dbInstanceId = instance.getDBInstanceIdentifier();
+            instancesBuilder.put(dbInstanceId, instance);
+            for (Tag tag : tagReader.apply(instance)) {
+                tagsByInstanceBuilder.put(dbInstanceId, tag);
+                instancesByTagBuilder.put(tag, instance);
+            }
+        }
+
+        this.instances = instancesBuilder.build();
+        this.tagsByInstance = tagsByInstanceBuilder.build();
+        this.instancesByTag = instancesByTagBuilder.build();
+    }
+
+    /**
+     * Lists every instance in the region and reads each one's tags according to the finder's tag discovery mode. Tags
+     * are read a page of instances at a time so that any ListTagsForResource calls for a page run concurrently.
+     */
+    public static EchoInventory scan(RdsFind rdsFind, String region, String accountNumber) {
+        return scan(rdsFind, region, accountNumber, Predicates.<DBInstance>alwaysTrue());
+    }
+
+    /**
+     * Like {@link #scan(RdsFind, String, String)} but passes over instances not satisfying the candidate predicate
+     * before reading any tags.
+     */
+    public static EchoInventory scan(RdsFind rdsFind, String region, String accountNumber,
+                                     Predicate<DBInstance> candidate) {
+        return of(rdsFind, region, accountNumber, rdsFind.instances(candidate));
+    }
+
+    /**
+     * Like {@link #scan(RdsFind, String, String)} but describes only the given instances rather than every instance in
+     * the region.
+     */
+    public static EchoInventory describe(RdsFind rdsFind, String region, String accountNumber,
+                                         Collection<String> dbInstanceIdentifiers) {
+        return of(rdsFind, region, accountNumber, rdsFind.instances(dbInstanceIdentifiers));
+    }
+
+    static EchoInventory of(RdsFind rdsFind, String region, String accountNumber, Iterable<DBInstance> described) {
+        List<DBInstance> instances = Lists.newArrayList();
+        final Map<String, List<Tag>> tags = Maps.newHashMap();
+
+        for (List<DBInstance> page : Iterables.partition(described, RdsFind.INSTANCE_PAGE_SIZE)) {
+            List<List<Tag>> pageTags = rdsFind.instanceTags(region, accountNumber, page);
+            for (int i = 0; i < page.size(); i++) {
+                tags.put(page.get(i).getDBInstanceIdentifier(), pageTags.get(i));
+            }
+            instances.addAll(page);
+        }
+
+        return new EchoInventory(instances, new Function<DBInstance, List<Tag>>() {
+            @Override
+            public List<Tag> apply(DBInstance instance) {
+                return tags.get(instance.getDBInstanceIdentifier());
+            }
+        });
+    }
+
+    public Iterable<DBInstance> instances() {
+        return instances.values();
+    }
+
+    public Optional<DBInstance> instance(String dbInstanceIdentifier) {
+        return Optional.fromNullable(instances.get(dbInstanceIdentifier));
+    }
+
+    public List<Tag> tags(String dbInstanceIdentifier) {
+        return tagsByInstance.get(dbInstanceIdentifier);
+    }
+
+    public Optional<Tag> tag(String dbInstanceIdentifier, String tagKey) {
+        return Optional.fromNullable(Iterables.getFirst(
+                Iterables.filter(tags(dbInstanceIdentifier), RdsFind.tagName(tagKey)), null));
+    }
+
+    public ImmutableList<DBInstance> instancesTagged(String tagKey, String tagValue) {
+        return instancesByTag.get(new Tag().withKey(tagKey).withValue(tagValue));
+    }
+}
@@ -27,24 +27,199 @@ import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.DBSnapshot;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.EchoCfg;
+import com.github.blacklocus.rdsecho.EchoClients;
 import com.github.blacklocus.rdsecho.EchoConst;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-public class EchoUtil {
+public class EchoUtil implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoUtil.class);
 
-    final RdsFind rdsFind = new RdsFind();
+    /**
+     * Statuses of a snapshot copy that has yet to finish
+     */
+    static final Set<String> COPY_IN_PROGRESS_STATUSES = ImmutableSet.of("pending", "creating", "copying");
 
-    final EchoCfg cfg = EchoCfg.getInstance();
+    static final String SNAPSHOT_TYPE_MANUAL = "manual";
+
+    final EchoCfg cfg;
+    final EchoClients clients;
+    final EchoClock clock;
+
+    final RdsFind rdsFind;
+    /**
+     * By region, for regions snapshots are copied from. Shared, like {@link #rdsFind}, by every EchoUtil made from
+     * this one, so that their threads are made once.
+     */
+    final ConcurrentMap<String, RdsFind> sourceFinds;
+    final InstanceWaiter waiter;
+    final InstanceCache instanceCache;
+    final Supplier<EchoInventory> inventory;
+    /**
+     * Every Echo instance, however old, which {@link #inventory} need not hold, see {@link #completeOnce}
+     */
+    final Supplier<EchoInventory> completeInventory;
+    /**
+     * Whether this made {@link #rdsFind} and {@link #sourceFinds}, and so closes them
+     */
+    final boolean ownsFinds;
+
+    public EchoUtil() {
+        this(EchoCfg.getInstance(), EchoClients.getInstance());
+    }
+
+    public EchoUtil(EchoCfg cfg, EchoClients clients) {
+        this(cfg, clients, EchoClock.SYSTEM);
+    }
+
+    public EchoUtil(EchoCfg cfg, EchoClients clients, EchoClock clock) {
+        this.cfg = cfg;
+        this.clients = clients;
+        this.clock = clock;
+        this.rdsFind = new RdsFind(clients.rds(), cfg.discoveryTags(), cfg.discoveryTagConcurrency(),
+                cfg.discoveryPrefetchPages(), clients.metrics(), !clients.rateLimited());
+        this.sourceFinds = Maps.newConcurrentMap();
+        this.waiter = new InstanceWaiter(clients.rds(), clock, TimeUnit.SECONDS.toMillis(cfg.waitMinPollSeconds()),
+                TimeUnit.SECONDS.toMillis(cfg.waitMaxPollSeconds()), cfg.waitJitter());
+        this.instanceCache = new InstanceCache(new File(cfg.cacheDir(), "instances.properties"), cacheScope(cfg),
+                clock, TimeUnit.MINUTES.toMillis(cfg.cacheInstancesTtlMinutes()));
+        this.inventory = scanOnce(rdsFind, instanceCache, cfg, clock, clients.report());
+        this.completeInventory = completeOnce(inventory, rdsFind, cfg, clock, clients.report());
+        this.ownsFinds = true;
+    }
+
+    EchoUtil(EchoUtil echo, EchoCfg cfg, Supplier<EchoInventory> inventory,
+             Supplier<EchoInventory> completeInventory) {
+        this.cfg = cfg;
+        this.clients = echo.clients;
+        this.clock = echo.clock;
+        this.rdsFind = echo.rdsFind;
+        this.sourceFinds = echo.sourceFinds;
+        this.waiter = echo.waiter;
+        this.instanceCache = echo.instanceCache;
+        this.inventory = inventory;
+        this.completeInventory = completeInventory;
+        this.ownsFinds = false;
+    }
+
+    /**
+     * @return an EchoUtil like this one which will scan instances afresh on first use
+     */
+    public EchoUtil rescan() {
+        Supplier<EchoInventory> inventory = scanOnce(rdsFind, instanceCache, cfg, clock, clients.report());
+        return new EchoUtil(this, cfg, inventory, completeOnce(inventory, rdsFind, cfg, clock, clients.report()));
+    }
+
+    /**
+     * @return an EchoUtil for one of the configured environments which shares this one's scan of instances
+     * @see EchoCfg#environment(String)
+     */
+    public EchoUtil environment(String environment) {
+        return new EchoUtil(this, cfg.environment(environment), inventory, completeInventory);
+    }
+
+    /**
+     * Releases the threads instances are found and tagged with. Every EchoUtil made from this one by
+     * {@link #rescan()} or {@link #environment(String)} shares them, so closing one of those does nothing; close this
+     * one once they are all done.
+     */
+    @Override
+    public void close() {
+        if (ownsFinds) {
+            rdsFind.close();
+            for (RdsFind sourceFind : sourceFinds.values()) {
+                sourceFind.close();
+            }
+        }
+    }
+
+    public EchoCfg cfg() {
+        return cfg;
+    }
+
+    public EchoClients clients() {
+        return clients;
+    }
+
+    public EchoClock clock() {
+        return clock;
+    }
+
+    /**
+     * @return a span of this environment's run report, on this clock
+     * @see EchoClients#report()
+     */
+    public RunReport.Span span(String phase, String subject) {
+        return clients.report().start(clock, cfg.name(), phase, subject);
+    }
+
+    /**
+     * @return what the call returns, having recorded how long it took as a span of this environment's run report
+     */
+    public <T> T timed(String phase, String subject, Supplier<T> call) {
+        RunReport.Span span = span(phase, subject);
+        try {
+            return call.get();
+        } finally {
+            span.end();
+        }
+    }
+
+    public InstanceWaiter waiter() {
+        return waiter;
+    }
+
+    /**
+     * @return a fresh buffer for the tags a command writes, to be written together with {@link TagWriter#flush()}.
+     * Writes share the concurrency and throttling of tag discovery.
+     */
+    public TagWriter tagWriter() {
+        return new TagWriter(clients.rds(), cfg.region(), cfg.accountNumber(), rdsFind.tagExecutor,
+                clients.metrics(), !clients.rateLimited());
+    }
+
+    /**
+     * @return how to connect over JDBC to the instance at this endpoint, given {@link EchoCfg#jdbcUrl()}
+     * @throws SQLException if no driver is found for the url
+     */
+    public JdbcTarget jdbcTarget(String host, int port) throws SQLException {
+        String url = JdbcTarget.url(cfg.jdbcUrl().get(), host, port);
+        Properties info = new Properties();
+        if (cfg.jdbcUser().isPresent()) {
+            info.setProperty("user", cfg.jdbcUser().get());
+        }
+        if (cfg.jdbcPassword().isPresent()) {
+            info.setProperty("password", cfg.jdbcPassword().get());
+        }
+        return new JdbcTarget(JdbcTarget.driver(url, cfg.jdbcDriverJar()), url, info);
+    }
 
     public String getTagEchoManaged() {
         return String.format(EchoConst.TAG_ECHO_MANAGED_FMT, cfg.name());
@@ -54,24 +229,309 @@ public class EchoUtil {
         return String.format(EchoConst.TAG_ECHO_STAGE_FMT, cfg.name());
     }
 
+    /**
+     * @return the Echo instances and tags of the region, discovered once on first use and shared by every query of
+     * this EchoUtil thereafter. Instances remembered by the {@link InstanceCache} are described directly, along with
+     * those Echo would have named on any day since they were scanned for; the region is only scanned when there are
+     * none or the cache has expired.
+     */
+    public EchoInventory inventory() {
+        return inventory.get();
+    }
+
+    /**
+     * Remembers a newly created Echo instance so that later runs find it without scanning the region.
+     */
+    public void remember(String dbInstanceIdentifier) {
+        instanceCache.remember(dbInstanceIdentifier);
+    }
+
     public Optional<DBInstance> lastEchoInstance() {
-        return RdsFind.newestInstance(rdsFind.instances(rdsFind.instanceHasTag(
-                cfg.region(), cfg.accountNumber(), getTagEchoManaged(), "true")));
+        return RdsFind.newestInstance(inventory().instancesTagged(getTagEchoManaged(), "true"));
     }
 
+    /**
+     * @return every Echo instance of this environment, however old, as demoting and retiring them needs
+     */
     public Iterable<DBInstance> echoInstances() {
-        return RdsFind.validInstances(rdsFind.instances(rdsFind.instanceHasTag(
-                cfg.region(), cfg.accountNumber(), getTagEchoManaged(), "true")));
+        return RdsFind.validInstances(completeInventory.get().instancesTagged(getTagEchoManaged(), "true"));
     }
 
     public Optional<Tag> instanceStage(String dbInstanceIdentifier) {
-        return rdsFind.instanceTag(
-                RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), dbInstanceIdentifier),
-                RdsFind.tagName(getTagEchoStage()));
+        EchoInventory inventory = inventory();
+        if (!inventory.instance(dbInstanceIdentifier).isPresent()) {
+            inventory = completeInventory.get();
+        }
+        RunReport.Span span = span(RunReport.TAG_READ, dbInstanceIdentifier);
+        try {
+            return inventory.tag(dbInstanceIdentifier, getTagEchoStage());
+        } finally {
+            span.end();
+        }
+    }
+
+    public String getTagEchoSnapshot() {
+        return String.format(EchoConst.TAG_ECHO_SNAPSHOT_FMT, cfg.name());
     }
 
+    /**
+     * @return the newest available snapshot of the source instance, of the configured type if any, or if snapshots are
+     * copied here, the newest copy. If so configured, only snapshots newer than the one the newest Echo instance was
+     * restored from are considered.
+     */
     public Optional<DBSnapshot> latestSnapshot() {
-        return RdsFind.newestSnapshot(rdsFind.snapshots(cfg.snapshotDbInstanceIdentifier(), RdsFind.snapshotIsAvailable()));
+        // Discovery, if still to come, is a span of its own.
+        inventory();
+        RunReport.Span span = span(RunReport.SNAPSHOT, cfg.snapshotDbInstanceIdentifier());
+        try {
+            Predicate<DBSnapshot> predicate = RdsFind.snapshotIsAvailable();
+            if (cfg.snapshotSkipRestored()) {
+                Optional<DBSnapshot> restoredOpt = restoredSnapshot();
+                if (restoredOpt.isPresent() && restoredOpt.get().getSnapshotCreateTime() != null) {
+                    DBSnapshot restored = restoredOpt.get();
+                    LOG.info("Only considering snapshots newer than {}, from which the newest Echo instance was restored",
+                            restored.getDBSnapshotIdentifier());
+                    predicate = Predicates.and(predicate, RdsFind.snapshotCreatedAfter(restored.getSnapshotCreateTime()));
+                }
+            }
+            // Copies are manual snapshots whatever the type of the source snapshot they were copied from.
+            Optional<String> type = cfg.snapshotIsCopied() ? Optional.of(SNAPSHOT_TYPE_MANUAL) : cfg.snapshotType();
+            return RdsFind.newestSnapshot(rdsFind.snapshots(cfg.snapshotDbInstanceIdentifier(), type, predicate));
+        } finally {
+            span.end();
+        }
+    }
+
+    public Optional<DBSnapshot> snapshot(String dbSnapshotIdentifier) {
+        return rdsFind.snapshot(dbSnapshotIdentifier);
+    }
+
+    /**
+     * @return the newest available snapshot of the source instance in the region and account it is taken in, which is
+     * then copied here
+     * @see EchoCfg#snapshotIsCopied()
+     */
+    public Optional<DBSnapshot> sourceSnapshot() {
+        String sourceRegion = cfg.snapshotSourceRegion();
+        String sourceAccountNumber = cfg.snapshotSourceAccountNumber();
+        RdsFind sourceFind = sourceRegion.equals(cfg.region()) ? rdsFind : sourceFinds.get(sourceRegion);
+        if (sourceFind == null) {
+            sourceFinds.putIfAbsent(sourceRegion, new RdsFind(clients.rds(sourceRegion), RdsFind.TagDiscovery.DESCRIBE,
+                    1, cfg.discoveryPrefetchPages(), clients.metrics(), !clients.rateLimited()));
+            sourceFind = sourceFinds.get(sourceRegion);
+        }
+
+        RunReport.Span span = span(RunReport.SNAPSHOT, cfg.snapshotDbInstanceIdentifier());
+        try {
+            if (sourceAccountNumber.equals(cfg.accountNumber())) {
+                return RdsFind.newestSnapshot(sourceFind.snapshots(cfg.snapshotDbInstanceIdentifier(),
+                        cfg.snapshotType(), RdsFind.snapshotIsAvailable()));
+            } else {
+                return RdsFind.newestSnapshot(sourceFind.sharedSnapshots(Predicates.and(RdsFind.snapshotIsAvailable(),
+                        RdsFind.snapshotOf(sourceAccountNumber, cfg.snapshotDbInstanceIdentifier()))));
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * @return a copy of a source snapshot which is still being made here, if any
+     */
+    public Optional<DBSnapshot> copyInProgress() {
+        return Optional.fromNullable(Iterables.getFirst(rdsFind.snapshots(cfg.snapshotDbInstanceIdentifier(),
+                new Predicate<DBSnapshot>() {
+                    @Override
+                    public boolean apply(DBSnapshot snapshot) {
+                        return COPY_IN_PROGRESS_STATUSES.contains(snapshot.getStatus());
+                    }
+                }), null));
+    }
+
+    /**
+     * @return the snapshot the newest Echo instance was restored from, if that was recorded and the snapshot still
+     * exists
+     */
+    public Optional<DBSnapshot> restoredSnapshot() {
+        Optional<DBInstance> instanceOpt = lastEchoInstance();
+        if (!instanceOpt.isPresent()) {
+            return Optional.absent();
+        }
+        Optional<Tag> snapshotTagOpt = inventory().tag(instanceOpt.get().getDBInstanceIdentifier(), getTagEchoSnapshot());
+        if (!snapshotTagOpt.isPresent()) {
+            return Optional.absent();
+        }
+        return rdsFind.snapshot(snapshotTagOpt.get().getValue());
+    }
+
+    static Supplier<EchoInventory> scanOnce(final RdsFind rdsFind, final InstanceCache instanceCache,
+                                            final EchoCfg cfg, final EchoClock clock, final RunReport report) {
+        return Suppliers.memoize(new Supplier<EchoInventory>() {
+            @Override
+            public EchoInventory get() {
+                RunReport.Span span = report.start(clock, cfg.name(), RunReport.DISCOVERY, cfg.region());
+                try {
+                    return scan();
+                } finally {
+                    span.end();
+                }
+            }
+
+            EchoInventory scan() {
+                Optional<Set<String>> remembered = instanceCache.get();
+                if (remembered.isPresent() && !remembered.get().isEmpty()) {
+                    // Instances created since the scan, e.g. from another host, are named after a day since then.
+                    Set<String> identifiers = Sets.newLinkedHashSet(remembered.get());
+                    identifiers.addAll(candidateIdentifiers(names(cfg), clock.currentTimeMillis(),
+                            (int) TimeUnit.MINUTES.toDays(cfg.cacheInstancesTtlMinutes()) + 2));
+                    LOG.info("Describing {} remembered Echo instances in {}, and any created since",
+                            remembered.get().size(), cfg.region());
+                    EchoInventory inventory = EchoInventory.describe(rdsFind, cfg.region(), cfg.accountNumber(),
+                            identifiers);
+                    if (foundAll(inventory, names(cfg))) {
+                        List<String> found = echoInstanceIdentifiers(inventory);
+                        instanceCache.retain(found);
+                        for (String dbInstanceIdentifier : found) {
+                            instanceCache.remember(dbInstanceIdentifier);
+                        }
+                        return inventory;
+                    }
+                    LOG.info("Not every environment has a remembered Echo instance which still exists");
+                }
+
+                EchoInventory inventory = discover(rdsFind, cfg, clock);
+                instanceCache.scanned(echoInstanceIdentifiers(inventory));
+                return inventory;
+            }
+        });
+    }
+
+    /**
+     * With {@link RdsFind.NameDiscovery#DATES}, the inventory only holds instances created in the last
+     * {@link EchoCfg#discoveryCandidateDays()} days once every environment has one among them. Older instances, e.g.
+     * one left promoted or forgotten, are then found by scanning instances named after an environment, but only once
+     * they are asked for. Otherwise the inventory already holds every Echo instance.
+     */
+    static Supplier<EchoInventory> completeOnce(final Supplier<EchoInventory> inventory, final RdsFind rdsFind,
+                                                final EchoCfg cfg, final EchoClock clock, final RunReport report) {
+        if (cfg.discoveryNames() != RdsFind.NameDiscovery.DATES) {
+            return inventory;
+        }
+        return Suppliers.memoize(new Supplier<EchoInventory>() {
+            @Override
+            public EchoInventory get() {
+                RunReport.Span span = report.start(clock, cfg.name(), RunReport.DISCOVERY, cfg.region());
+                try {
+                    return scanNamedAfter(rdsFind, cfg.region(), cfg.accountNumber(), names(cfg));
+                } finally {
+                    span.end();
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the Echo instances of this and every listed environment according to {@link EchoCfg#discoveryNames()}.
+     */
+    static EchoInventory discover(RdsFind rdsFind, EchoCfg cfg, EchoClock clock) {
+        String region = cfg.region();
+        String accountNumber = cfg.accountNumber();
+        Set<String> names = names(cfg);
+
+        switch (cfg.discoveryNames()) {
+            case DATES:
+                List<String> candidates = candidateIdentifiers(names, clock.currentTimeMillis(),
+                        cfg.discoveryCandidateDays());
+                LOG.info("Looking up {} candidate Echo instances in {}", candidates.size(), region);
+                EchoInventory inventory = EchoInventory.describe(rdsFind, region, accountNumber, candidates);
+                if (foundAll(inventory, names)) {
+                    return inventory;
+                }
+                LOG.info("Not every environment had a candidate Echo instance");
+                // Fall back to looking through instances named after an environment.
+                return scanNamedAfter(rdsFind, region, accountNumber, names);
+            case PREFIX:
+                return scanNamedAfter(rdsFind, region, accountNumber, names);
+            default:
+                LOG.info("Scanning DB instances in {}", region);
+                return EchoInventory.scan(rdsFind, region, accountNumber);
+        }
+    }
+
+    static EchoInventory scanNamedAfter(RdsFind rdsFind, String region, String accountNumber, Set<String> names) {
+        LOG.info("Scanning DB instances in {} named after {}", region, names);
+        return EchoInventory.scan(rdsFind, region, accountNumber, RdsFind.instanceNamedAfter(names));
+    }
+
+    /**
+     * @return this environment and every listed one
+     */
+    static Set<String> names(EchoCfg cfg) {
+        Set<String> names = Sets.newLinkedHashSet();
+        names.add(cfg.name());
+        names.addAll(cfg.environments());
+        return names;
+    }
+
+    /**
+     * @return the region, account and environments a scan for the given configuration looks through, e.g.
+     * us-east-1/123456789012/development,staging
+     */
+    static String cacheScope(EchoCfg cfg) {
+        return cfg.region() + '/' + cfg.accountNumber() + '/' + Joiner.on(',').join(Sets.newTreeSet(names(cfg)));
+    }
+
+    /**
+     * @return whether every one of the given environments has an Echo instance among those found
+     */
+    static boolean foundAll(EchoInventory inventory, Collection<String> names) {
+        for (String name : names) {
+            String tagEchoManaged = String.format(EchoConst.TAG_ECHO_MANAGED_FMT, name);
+            if (inventory.instancesTagged(tagEchoManaged, "true").isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return identifiers Echo would have given instances created for these environments on each of the given number
+     * of days up to and including the day of the given time, newest first
+     */
+    static List<String> candidateIdentifiers(Collection<String> names, long millis, int days) {
+        List<String> identifiers = Lists.newArrayList();
+        DateTime day = new DateTime(millis, DateTimeZone.UTC);
+        for (int i = 0; i < days; i++) {
+            for (String name : names) {
+                identifiers.add(instanceIdentifier(name, day.minusDays(i)).toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return identifiers;
+    }
+
+    /**
+     * @return the identifier of the instance Echo creates on the given day
+     */
+    public static String instanceIdentifier(String name, DateTime day) {
+        return name + '-' + day.withZone(DateTimeZone.UTC).toString("yyyy-MM-dd");
+    }
+
+    /**
+     * @return identifiers of instances managed by any Echo environment
+     */
+    static List<String> echoInstanceIdentifiers(EchoInventory inventory) {
+        String[] managedTag = EchoConst.TAG_ECHO_MANAGED_FMT.split("%s");
+        List<String> identifiers = Lists.newArrayList();
+        for (DBInstance instance : inventory.instances()) {
+            for (Tag tag : inventory.tags(instance.getDBInstanceIdentifier())) {
+                if (tag.getKey().startsWith(managedTag[0]) && tag.getKey().endsWith(managedTag[1])
+                        && "true".equals(tag.getValue())) {
+                    identifiers.add(instance.getDBInstanceIdentifier());
+                    break;
+                }
+            }
+        }
+        return identifiers;
     }
 
     public static String getTLD(String domain) {
@@ -0,0 +1,87 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Remembers, across runs, which Route53 hosted zone holds a record name. Backed by a small properties file. Failing to
+ * read or write the file only costs a fresh lookup, so such failures are logged and otherwise ignored.
+ */
+public class HostedZoneCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HostedZoneCache.class);
+
+    final File file;
+    final Properties zoneIds = new Properties();
+
+    public HostedZoneCache(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                zoneIds.load(in);
+            } catch (IOException e) {
+                LOG.warn("Unable to read hosted zone cache {}. Ignoring it.", file, e);
+            }
+        }
+    }
+
+    public synchronized Optional<String> get(String recordName) {
+        return Optional.fromNullable(zoneIds.getProperty(Route53Find.normalize(recordName)));
+    }
+
+    public synchronized void put(String recordName, String hostedZoneId) {
+        zoneIds.setProperty(Route53Find.normalize(recordName), hostedZoneId);
+        save();
+    }
+
+    public synchronized void remove(String recordName) {
+        if (zoneIds.remove(Route53Find.normalize(recordName)) != null) {
+            save();
+        }
+    }
+
+    void save() {
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory " + dir);
+            }
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                zoneIds.store(out, "RDS Echo hosted zone cache: record name = hosted zone id");
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write hosted zone cache {}.", file, e);
+        }
+    }
+}
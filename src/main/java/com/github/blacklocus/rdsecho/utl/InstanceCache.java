@@ -0,0 +1,171 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Remembers, across runs, which DB instances a full scan of the region found to be Echo-managed, so that later runs
+ * may describe just those instances rather than scan the region again. Only identifiers are remembered; status and
+ * tags are always read fresh. What a scan found is trusted for a limited time, after which the region must be scanned
+ * again to notice Echo instances created elsewhere. What was found is only trusted by runs looking in the same place
+ * for the same environments, as named by the cache's scope; a scan of any other scope replaces it. Backed by a small
+ * properties file. Failing to read or write the file only costs a full scan, so such failures are logged and
+ * otherwise ignored.
+ */
+public class InstanceCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstanceCache.class);
+
+    static final String SCOPE = "scope";
+    static final String SCANNED_AT = "scannedAt";
+    static final String INSTANCES = "instances";
+
+    final File file;
+    final String scope;
+    final EchoClock clock;
+    final long ttlMillis;
+    final Properties properties = new Properties();
+
+    /**
+     * @param scope     what is scanned, e.g. the region, account and environments, which a cached scan must match
+     * @param ttlMillis how long what a scan found may be trusted. 0 disables the cache.
+     */
+    public InstanceCache(File file, String scope, EchoClock clock, long ttlMillis) {
+        this.file = file;
+        this.scope = scope;
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+        if (ttlMillis > 0 && file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            } catch (IOException e) {
+                LOG.warn("Unable to read instance cache {}. Ignoring it.", file, e);
+            }
+        }
+    }
+
+    /**
+     * @return identifiers of the Echo instances found by the last scan, along with any remembered since, or absent if
+     * there has been no scan within the time to live
+     */
+    public synchronized Optional<Set<String>> get() {
+        if (!inScope()) {
+            return Optional.absent();
+        }
+        long scannedAt;
+        try {
+            scannedAt = Long.parseLong(properties.getProperty(SCANNED_AT));
+        } catch (NumberFormatException e) {
+            LOG.warn("Instance cache {} has an unreadable {}. Ignoring it.", file, SCANNED_AT);
+            return Optional.absent();
+        }
+        long age = clock.currentTimeMillis() - scannedAt;
+        if (age < 0 || age >= ttlMillis) {
+            return Optional.absent();
+        }
+        return Optional.of(identifiers());
+    }
+
+    /**
+     * Records the Echo instances a full scan found, starting the time to live afresh.
+     */
+    public synchronized void scanned(Collection<String> dbInstanceIdentifiers) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        properties.setProperty(SCOPE, scope);
+        properties.setProperty(SCANNED_AT, Long.toString(clock.currentTimeMillis()));
+        properties.setProperty(INSTANCES, Joiner.on(',').join(dbInstanceIdentifiers));
+        save();
+    }
+
+    /**
+     * Adds an Echo instance created since the last scan, without extending the time to live.
+     */
+    public synchronized void remember(String dbInstanceIdentifier) {
+        if (!inScope()) {
+            return;
+        }
+        Set<String> identifiers = identifiers();
+        if (identifiers.add(dbInstanceIdentifier)) {
+            properties.setProperty(INSTANCES, Joiner.on(',').join(identifiers));
+            save();
+        }
+    }
+
+    /**
+     * Forgets every remembered instance but these, e.g. once the others are found to be gone.
+     */
+    public synchronized void retain(Collection<String> dbInstanceIdentifiers) {
+        if (!inScope()) {
+            return;
+        }
+        Set<String> identifiers = identifiers();
+        if (identifiers.retainAll(dbInstanceIdentifiers)) {
+            properties.setProperty(INSTANCES, Joiner.on(',').join(identifiers));
+            save();
+        }
+    }
+
+    /**
+     * @return whether there is a scan of this cache's scope to go by
+     */
+    boolean inScope() {
+        return ttlMillis > 0 && properties.containsKey(SCANNED_AT) && scope.equals(properties.getProperty(SCOPE));
+    }
+
+    Set<String> identifiers() {
+        return Sets.newLinkedHashSet(Splitter.on(',').omitEmptyStrings().trimResults()
+                .split(properties.getProperty(INSTANCES, "")));
+    }
+
+    void save() {
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory " + dir);
+            }
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                properties.store(out, "RDS Echo instance cache: Echo instances found by the last scan of the region");
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write instance cache {}.", file, e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits for DB instances to become available by polling their status, several instances to a DescribeDBInstances
+ * call. Polls come quickly after an instance changes status, e.g. creating to modifying, since another change often
+ * follows soon after, and then back off while nothing changes.
+ */
+public class InstanceWaiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstanceWaiter.class);
+
+    /**
+     * Statuses from which an instance does not become available without someone stepping in.
+     */
+    static final Set<String> STUCK_STATUSES = ImmutableSet.of(
+            "deleting",
+            "failed",
+            "inaccessible-encryption-credentials",
+            "incompatible-network",
+            "incompatible-option-group",
+            "incompatible-parameters",
+            "incompatible-restore",
+            "stopped",
+            "storage-full"
+    );
+
+    final AmazonRDS rds;
+    final EchoClock clock;
+    final long minPollMillis;
+    final long maxPollMillis;
+    final double jitter;
+
+    /**
+     * @param jitter fraction by which each pause is randomly lengthened or shortened, so that several waiters started
+     *               together do not all poll at once
+     */
+    public InstanceWaiter(AmazonRDS rds, EchoClock clock, long minPollMillis, long maxPollMillis, double jitter) {
+        this.rds = rds;
+        this.clock = clock;
+        this.minPollMillis = minPollMillis;
+        this.maxPollMillis = Math.max(minPollMillis, maxPollMillis);
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return the instance once it is available, or absent if it got stuck, went away, or time ran out first
+     */
+    public Optional<DBInstance> awaitAvailable(String dbInstanceIdentifier, long timeoutMillis) throws InterruptedException {
+        return Optional.fromNullable(awaitAvailable(ImmutableList.of(dbInstanceIdentifier), timeoutMillis)
+                .get(dbInstanceIdentifier));
+    }
+
+    /**
+     * Waits until each instance is available, is stuck in some status it will not leave by itself, is gone, or time
+     * runs out.
+     *
+     * @return those instances which became available, by identifier
+     */
+    public Map<String, DBInstance> awaitAvailable(Collection<String> dbInstanceIdentifiers, long timeoutMillis)
+            throws InterruptedException {
+        return await(dbInstanceIdentifiers, timeoutMillis, false);
+    }
+
+    /**
+     * Like {@link #awaitAvailable(Collection, long)} but returns as soon as any one instance is available.
+     */
+    public Map<String, DBInstance> awaitAnyAvailable(Collection<String> dbInstanceIdentifiers, long timeoutMillis)
+            throws InterruptedException {
+        return await(dbInstanceIdentifiers, timeoutMillis, true);
+    }
+
+    Map<String, DBInstance> await(Collection<String> dbInstanceIdentifiers, long timeoutMillis, boolean any)
+            throws InterruptedException {
+
+        long start = clock.currentTimeMillis();
+        long deadline = start + timeoutMillis < start ? Long.MAX_VALUE : start + timeoutMillis;
+
+        Set<String> pending = Sets.newLinkedHashSet(dbInstanceIdentifiers);
+        Map<String, String> statuses = Maps.newHashMap();
+        Map<String, DBInstance> available = Maps.newLinkedHashMap();
+        long pollMillis = minPollMillis;
+
+        while (true) {
+            Map<String, DBInstance> described = describe(pending);
+            boolean changed = false;
+
+            for (String id : Lists.newArrayList(pending)) {
+                DBInstance instance = described.get(id);
+                String status = instance == null ? null : instance.getDBInstanceStatus();
+                boolean seen = statuses.containsKey(id);
+                String previous = statuses.put(id, status);
+                if (!seen || !Objects.equal(previous, status)) {
+                    changed = true;
+                    if (seen) {
+                        LOG.info("Instance {} went from {} to {}", id, previous, status);
+                    } else {
+                        LOG.info("Instance {} is {}", id, status);
+                    }
+                }
+
+                if (instance == null) {
+                    LOG.warn("Instance {} does not exist. No longer waiting on it.", id);
+                    pending.remove(id);
+                } else if ("available".equals(status)) {
+                    available.put(id, instance);
+                    pending.remove(id);
+                } else if (STUCK_STATUSES.contains(status)) {
+                    LOG.error("Instance {} is {} and will not become available by itself. No longer waiting on it.",
+                            id, status);
+                    pending.remove(id);
+                }
+            }
+
+            if (pending.isEmpty() || (any && !available.isEmpty())) {
+                return available;
+            }
+
+            long now = clock.currentTimeMillis();
+            if (now >= deadline) {
+                LOG.warn("Gave up waiting on {} after {} seconds", pending, (now - start) / 1000);
+                return available;
+            }
+
+            pollMillis = changed ? minPollMillis : Math.min(maxPollMillis, pollMillis * 3 / 2);
+            clock.sleep(Math.min(jittered(pollMillis), deadline - now));
+        }
+    }
+
+    /**
+     * Waits until each instance is gone, e.g. once it has been deleted, or time runs out.
+     *
+     * @return those instances which are still there
+     */
+    public Set<String> awaitDeleted(Collection<String> dbInstanceIdentifiers, long timeoutMillis)
+            throws InterruptedException {
+
+        long start = clock.currentTimeMillis();
+        long deadline = start + timeoutMillis < start ? Long.MAX_VALUE : start + timeoutMillis;
+
+        Set<String> remaining = Sets.newLinkedHashSet(dbInstanceIdentifiers);
+        long pollMillis = minPollMillis;
+
+        while (true) {
+            Set<String> described = describe(remaining).keySet();
+            boolean changed = false;
+            for (String id : Lists.newArrayList(remaining)) {
+                if (!described.contains(id)) {
+                    LOG.info("Instance {} is gone", id);
+                    remaining.remove(id);
+                    changed = true;
+                }
+            }
+
+            if (remaining.isEmpty()) {
+                return remaining;
+            }
+
+            long now = clock.currentTimeMillis();
+            if (now >= deadline) {
+                LOG.warn("Gave up waiting on {} to be deleted after {} seconds", remaining, (now - start) / 1000);
+                return remaining;
+            }
+
+            pollMillis = changed ? minPollMillis : Math.min(maxPollMillis, pollMillis * 3 / 2);
+            clock.sleep(Math.min(jittered(pollMillis), deadline - now));
+        }
+    }
+
+    /**
+     * @return the instances which exist among those asked for, by identifier
+     */
+    public Map<String, DBInstance> describe(Collection<String> dbInstanceIdentifiers) {
+        Map<String, DBInstance> described = Maps.newHashMap();
+        for (DBInstance instance : RdsFind.instances(rds, dbInstanceIdentifiers)) {
+            described.put(instance.getDBInstanceIdentifier(), instance);
+        }
+        return described;
+    }
+
+    long jittered(long millis) {
+        if (jitter <= 0) {
+            return millis;
+        }
+        return (long) (millis * (1 - jitter + 2 * jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * Where and how to connect to one instance over JDBC.
+ */
+public class JdbcTarget {
+
+    final Driver driver;
+    final String url;
+    final Properties info;
+
+    /**
+     * @param info connection properties, e.g. user and password
+     */
+    public JdbcTarget(Driver driver, String url, Properties info) {
+        this.driver = driver;
+        this.url = url;
+        this.info = info;
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public Connection connect() throws SQLException {
+        Connection connection = driver.connect(url, info);
+        if (connection == null) {
+            throw new SQLException("JDBC driver " + driver.getClass().getName() + " does not accept " + url);
+        }
+        return connection;
+    }
+
+    /**
+     * @param urlTemplate JDBC url in which {host} and {port} stand for the instance's endpoint
+     */
+    public static String url(String urlTemplate, String host, int port) {
+        return urlTemplate
+                .replace("{host}", host)
+                .replace("{port}", String.valueOf(port));
+    }
+
+    /**
+     * @return the driver for the url, loaded from the given jar if there is one, else from the classpath
+     */
+    public static Driver driver(String url, Optional<File> driverJar) throws SQLException {
+        if (!driverJar.isPresent()) {
+            return DriverManager.getDriver(url);
+        }
+        URL jarUrl;
+        try {
+            jarUrl = driverJar.get().toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new SQLException("Unable to read JDBC driver from " + driverJar.get(), e);
+        }
+        ClassLoader loader = new URLClassLoader(new URL[]{jarUrl}, JdbcTarget.class.getClassLoader());
+        for (Driver driver : ServiceLoader.load(Driver.class, loader)) {
+            if (driver.acceptsURL(url)) {
+                return driver;
+            }
+        }
+        throw new SQLException("No JDBC driver in " + driverJar.get() + " accepts " + url);
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how fast an instance answers a set of probe statements over JDBC. Several workers, each on its own
+ * connection, run every statement the given number of times and read their results through. Opening connections is not
+ * counted. Used to compare a candidate instance with the one it would replace before sending it any traffic.
+ */
+public class LatencyProbe {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyProbe.class);
+
+    final int iterations;
+    final int concurrency;
+
+    /**
+     * @param iterations  how many times each worker runs the statements
+     * @param concurrency how many workers probe at once
+     */
+    public LatencyProbe(int iterations, int concurrency) {
+        this.iterations = iterations;
+        this.concurrency = concurrency;
+    }
+
+    public Result probe(final JdbcTarget target, final List<String> statements) {
+        final List<Long> nanos = Collections.synchronizedList(Lists.<Long>newArrayList());
+        final AtomicInteger errors = new AtomicInteger();
+
+        List<Callable<Void>> calls = Lists.newArrayList();
+        for (int i = 0; i < concurrency; i++) {
+            calls.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try (Connection connection = target.connect()) {
+                        connection.setReadOnly(true);
+                        for (int iteration = 0; iteration < iterations; iteration++) {
+                            for (String sql : statements) {
+                                try {
+                                    nanos.add(time(connection, sql));
+                                } catch (SQLException e) {
+                                    LOG.warn("Failed probing {}: {}", target.url(), sql, e);
+                                    errors.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (SQLException e) {
+                        LOG.warn("Unable to connect to {}", target.url(), e);
+                        errors.addAndGet(iterations * statements.size());
+                    }
+                    return null;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        try (ThrottleAwareExecutor executor = new ThrottleAwareExecutor("probe", concurrency)) {
+            executor.invokeAll(calls);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(Longs.toArray(nanos), errors.get(), elapsed);
+    }
+
+    static long time(Connection connection, String sql) throws SQLException {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            if (statement.execute(sql)) {
+                try (ResultSet results = statement.getResultSet()) {
+                    while (results.next()) {
+                        // Read through, as a client would.
+                    }
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Judges whether a candidate is fit to replace the baseline, the instance currently promoted.
+     *
+     * @param baseline         absent if there is nothing to compare with, so that only the absolute limit applies
+     * @param maxSlowerPercent how much slower at p50 or p99, or how much less throughput, the candidate may have
+     * @param maxP99Millis     the slowest p99 the candidate may have whatever the baseline
+     * @return why the candidate is refused, or absent if it is fit
+     */
+    public static Optional<String> verdict(Result candidate, Optional<Result> baseline, int maxSlowerPercent,
+                                           Optional<Long> maxP99Millis) {
+        if (candidate.errors > 0) {
+            return Optional.of(String.format("candidate failed %d of %d probe statements", candidate.errors,
+                    candidate.errors + candidate.count()));
+        }
+        if (candidate.count() == 0) {
+            return Optional.of("candidate ran no probe statements");
+        }
+        if (maxP99Millis.isPresent() && candidate.p99Millis() > maxP99Millis.get()) {
+            return Optional.of(String.format("candidate p99 of %.1f ms exceeds %d ms", candidate.p99Millis(),
+                    maxP99Millis.get()));
+        }
+        if (!baseline.isPresent() || baseline.get().count() == 0) {
+            return Optional.absent();
+        }
+        double allowance = 1 + maxSlowerPercent / 100.0;
+        if (candidate.p50Millis() > baseline.get().p50Millis() * allowance) {
+            return Optional.of(String.format("candidate p50 of %.1f ms is more than %d%% slower than %.1f ms",
+                    candidate.p50Millis(), maxSlowerPercent, baseline.get().p50Millis()));
+        }
+        if (candidate.p99Millis() > baseline.get().p99Millis() * allowance) {
+            return Optional.of(String.format("candidate p99 of %.1f ms is more than %d%% slower than %.1f ms",
+                    candidate.p99Millis(), maxSlowerPercent, baseline.get().p99Millis()));
+        }
+        if (candidate.throughput() < baseline.get().throughput() * (1 - maxSlowerPercent / 100.0)) {
+            return Optional.of(String.format("candidate throughput of %.1f/s is more than %d%% below %.1f/s",
+                    candidate.throughput(), maxSlowerPercent, baseline.get().throughput()));
+        }
+        return Optional.absent();
+    }
+
+    public static class Result {
+
+        /**
+         * Latency of each statement run without error, in ascending order
+         */
+        final long[] nanos;
+        public final int errors;
+        final long elapsedNanos;
+
+        Result(long[] nanos, int errors, long elapsedNanos) {
+            this.nanos = nanos.clone();
+            Arrays.sort(this.nanos);
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int count() {
+            return nanos.length;
+        }
+
+        public double p50Millis() {
+            return percentileMillis(50);
+        }
+
+        public double p99Millis() {
+            return percentileMillis(99);
+        }
+
+        /**
+         * @return nearest-rank percentile, or 0 if nothing was measured
+         */
+        double percentileMillis(int percentile) {
+            if (nanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * nanos.length);
+            return nanos[Math.max(0, rank - 1)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return statements answered per second, by all workers together
+         */
+        public double throughput() {
+            return elapsedNanos <= 0 ? 0 : nanos.length * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d statements, %d errors, p50 %.1f ms, p99 %.1f ms, %.1f/s", count(), errors,
+                    p50Millis(), p99Millis(), throughput());
+        }
+    }
+}
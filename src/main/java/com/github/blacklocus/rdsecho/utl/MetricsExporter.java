@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes what an {@link ApiMetrics} has counted to files: in Prometheus' text format, for node_exporter's textfile
+ * collector, and as JSON. Either file may be left out. Each file is written whole beside its destination and then
+ * moved over it, so a collector never reads a file half written. Written once when closed, and also every so often if
+ * {@link #every(long) scheduled}, for long runs like the daemon's. Failing to write only costs the metrics, so such
+ * failures are logged and otherwise ignored.
+ */
+public class MetricsExporter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsExporter.class);
+
+    final ApiMetrics metrics;
+    final Optional<File> prometheusFile;
+    final Optional<File> jsonFile;
+
+    ScheduledExecutorService scheduler;
+
+    public MetricsExporter(ApiMetrics metrics, Optional<File> prometheusFile, Optional<File> jsonFile) {
+        this.metrics = metrics;
+        this.prometheusFile = prometheusFile;
+        this.jsonFile = jsonFile;
+    }
+
+    /**
+     * Also writes the files every so often until closed.
+     */
+    public synchronized MetricsExporter every(long seconds) {
+        if (seconds > 0 && scheduler == null && (prometheusFile.isPresent() || jsonFile.isPresent())) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rdsecho-metrics-%d").build());
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    export();
+                }
+            }, seconds, seconds, TimeUnit.SECONDS);
+        }
+        return this;
+    }
+
+    public synchronized void export() {
+        if (prometheusFile.isPresent()) {
+            write(prometheusFile.get(), metrics.toPrometheus());
+        }
+        if (jsonFile.isPresent()) {
+            write(jsonFile.get(), metrics.toJson());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        export();
+    }
+
+    static void write(File file, String content) {
+        File partial = new File(file.getPath() + ".partial");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            Files.write(partial.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to write metrics to {}.", file, e);
+        }
+    }
+}
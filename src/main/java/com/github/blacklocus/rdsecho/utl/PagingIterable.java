@@ -25,18 +25,54 @@ package com.github.blacklocus.rdsecho.utl;
 
 import com.google.common.base.Supplier;
 import com.amazonaws.annotation.NotThreadSafe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Flattens the pages handed out by a supplier into one iteration. The supplier returns {@code null} once there are no
+ * more pages; an empty page (e.g. one whose every element was filtered out) does not end iteration. Nothing is fetched
+ * until iteration begins.
+ * <p>
+ * With a prefetch depth above zero, up to that many pages are fetched in the background ahead of the page currently
+ * being consumed, so that waiting on the network overlaps with whatever the consumer does with each element. Reading
+ * ahead only starts once the consumer moves past the first page, so that lookups which stop at a match on the first
+ * page fetch nothing more. The supplier is still only ever called by one thread at a time and in order. Any failure
+ * fetching a page is rethrown to the consumer when it reaches that page.
+ */
 @NotThreadSafe
 class PagingIterable<T> implements Iterable<T>, Iterator<T> {
 
+    static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rdsecho-prefetch-%d").build());
+
     final Supplier<Iterable<T>> supplier;
+    final int prefetch;
+
+    final Deque<CompletableFuture<Iterable<T>>> ahead = new ArrayDeque<CompletableFuture<Iterable<T>>>();
+    CompletableFuture<Iterable<T>> lastRequested;
+
     Iterator<T> currentPage;
+    boolean exhausted = false;
 
     public PagingIterable(Supplier<Iterable<T>> supplier) {
+        this(supplier, 0);
+    }
+
+    /**
+     * @param prefetch how many pages to fetch ahead of the one being consumed; 0 fetches each page only when needed
+     */
+    public PagingIterable(Supplier<Iterable<T>> supplier, int prefetch) {
         this.supplier = supplier;
-        this.currentPage = supplier.get().iterator();
+        this.prefetch = prefetch;
     }
 
     @Override
@@ -46,21 +82,71 @@ class PagingIterable<T> implements Iterable<T>, Iterator<T> {
 
     @Override
     public boolean hasNext() {
-        boolean x = currentPage.hasNext();
-        return x;
+        while (currentPage == null || !currentPage.hasNext()) {
+            if (exhausted) {
+                return false;
+            }
+            Iterable<T> page = nextPage();
+            if (page == null) {
+                exhausted = true;
+                return false;
+            }
+            currentPage = page.iterator();
+        }
+        return true;
     }
 
     @Override
     public T next() {
-        T next = currentPage.next();
-        if (!currentPage.hasNext()) {
-            currentPage = supplier.get().iterator();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
-        return next;
+        return currentPage.next();
     }
 
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
     }
+
+    Iterable<T> nextPage() {
+        if (prefetch <= 0) {
+            return supplier.get();
+        }
+
+        boolean pastFirst = lastRequested != null;
+        readAhead(1);
+        CompletableFuture<Iterable<T>> page = ahead.poll();
+        if (pastFirst) {
+            // Keep the next pages coming while this one is consumed.
+            readAhead(prefetch);
+        }
+
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            exhausted = true;
+            throw ThrottleAwareExecutor.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Requests pages until the given number are on their way.
+     */
+    void readAhead(int pages) {
+        // Pages fetched ahead are counted in the stage of whoever is reading.
+        Callable<Iterable<T>> fetch = ApiMetrics.carryStage(supplier::get);
+        while (ahead.size() < pages) {
+            if (lastRequested == null) {
+                lastRequested = CompletableFuture.supplyAsync(
+                        () -> ThrottleAwareExecutor.callUnchecked(fetch), PREFETCH_EXECUTOR);
+            } else {
+                // Chained so that each fetch sees the state (e.g. marker) left by the previous one.
+                lastRequested = lastRequested.thenApplyAsync(
+                        previous -> previous == null ? null : ThrottleAwareExecutor.callUnchecked(fetch),
+                        PREFETCH_EXECUTOR);
+            }
+            ahead.add(lastRequested);
+        }
+    }
 }
@@ -23,10 +23,9 @@
  */
 package com.github.blacklocus.rdsecho.utl;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.rds.AmazonRDS;
-import com.amazonaws.services.rds.AmazonRDSClientBuilder;
 import com.amazonaws.services.rds.model.*;
+import com.github.blacklocus.rdsecho.EchoClients;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
@@ -38,24 +37,124 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
-public class RdsFind {
+public class RdsFind implements AutoCloseable {
 
-    final AmazonRDS rds = AmazonRDSClientBuilder.defaultClient();
+    /**
+     * Where instance tags are read from while discovering instances.
+     */
+    public enum TagDiscovery {
+        /**
+         * Read the TagList carried on each DescribeDBInstances result. Only instances that came back without any tags
+         * cost a ListTagsForResource call.
+         */
+        AUTO,
+        /**
+         * Only read the TagList carried on each DescribeDBInstances result. Never calls ListTagsForResource, so
+         * discovery costs one call per page of instances.
+         */
+        DESCRIBE,
+        /**
+         * Call ListTagsForResource for every instance.
+         */
+        LIST
+    }
+
+    /**
+     * Which instances are considered while discovering Echo instances. Echo names each instance it creates after its
+     * environment and creation date, e.g. development-2015-06-01, which narrows the search before any tags are read.
+     * Tags still decide which instances Echo manages.
+     */
+    public enum NameDiscovery {
+        /**
+         * Consider every instance in the region, whatever it is named.
+         */
+        ANY,
+        /**
+         * Consider only instances named after an Echo environment. Others are passed over without reading their tags.
+         */
+        PREFIX,
+        /**
+         * Look up the instances Echo would have created on each recent day directly by identifier, falling back to
+         * {@link #PREFIX} when that does not find an instance for every environment. Demoting and retiring need every
+         * Echo instance, however old, so they still scan as {@link #PREFIX} does.
+         */
+        DATES
+    }
+
+    /**
+     * DescribeDBInstances returns up to this many instances per call by default.
+     */
+    static final int INSTANCE_PAGE_SIZE = 100;
+
+    /**
+     * The most values DescribeDBInstances accepts in one filter.
+     */
+    static final int INSTANCE_FILTER_VALUES_MAX = 100;
+
+    final AmazonRDS rds;
+
+    final TagDiscovery tagDiscovery;
+    final ThrottleAwareExecutor tagExecutor;
+    final int prefetchPages;
+
+    final Retryer<ListTagsForResourceResult> tagRetryer;
+
+    public RdsFind() {
+        this(EchoClients.getInstance().rds(), TagDiscovery.DESCRIBE, 1, 0, EchoClients.getInstance().metrics());
+    }
+
+    public RdsFind(AmazonRDS rds, TagDiscovery tagDiscovery, int tagConcurrency, int prefetchPages) {
+        this(rds, tagDiscovery, tagConcurrency, prefetchPages, new ApiMetrics());
+    }
 
-    // Retry 10 times with exponential backoff, starting with 1 second bounded to 60 seconds
-    final Retryer<ListTagsForResourceResult> tagRetryer = RetryerBuilder.<ListTagsForResourceResult>newBuilder()
-            .retryIfExceptionOfType(AmazonServiceException.class)
-            .retryIfRuntimeException()
-            .withStopStrategy(StopStrategies.stopAfterAttempt(10))
-            .withWaitStrategy(WaitStrategies.exponentialWait(1, 60, TimeUnit.SECONDS))
-            .build();
+    public RdsFind(AmazonRDS rds, TagDiscovery tagDiscovery, int tagConcurrency, int prefetchPages,
+                   ApiMetrics metrics) {
+        this(rds, tagDiscovery, tagConcurrency, prefetchPages, metrics, true);
+    }
+
+    /**
+     * @param tagConcurrency the most ListTagsForResource calls to have in flight at once
+     * @param prefetchPages  how many pages of describe results to fetch ahead of the one being consumed
+     * @param metrics        where retries of ListTagsForResource are counted
+     * @param retryThrottles whether to retry throttled ListTagsForResource calls, which an {@link ApiRateLimiter}
+     *                       pacing the client already does
+     */
+    public RdsFind(AmazonRDS rds, TagDiscovery tagDiscovery, int tagConcurrency, int prefetchPages,
+                   ApiMetrics metrics, final boolean retryThrottles) {
+        this.rds = rds;
+        this.tagDiscovery = tagDiscovery;
+        this.tagExecutor = new ThrottleAwareExecutor("tags", tagConcurrency);
+        this.prefetchPages = prefetchPages;
+        // Retry 10 times with exponential backoff, starting with 1 second bounded to 60 seconds
+        this.tagRetryer = RetryerBuilder.<ListTagsForResourceResult>newBuilder()
+                .retryIfException(new Predicate<Throwable>() {
+                    @Override
+                    public boolean apply(@Nullable Throwable t) {
+                        return t instanceof RuntimeException && (retryThrottles || !ApiRateLimiter.isThrottling(t));
+                    }
+                })
+                .withStopStrategy(StopStrategies.stopAfterAttempt(10))
+                .withWaitStrategy(WaitStrategies.exponentialWait(1, 60, TimeUnit.SECONDS))
+                .withRetryListener(metrics.retryListener("rds", "ListTagsForResource"))
+                .build();
+    }
+
+    /**
+     * Releases the threads tags are read and written with, once this is no longer used.
+     */
+    @Override
+    public void close() {
+        tagExecutor.close();
+    }
 
     public Optional<DBInstance> instance(Predicate<DBInstance> predicate) {
         return Optional.fromNullable(Iterables.getFirst(instances(predicate), null));
@@ -78,10 +177,36 @@ public class RdsFind {
                     return Iterables.filter(result.getDBInstances(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchPages);
+    }
+
+    /**
+     * Describes just the given instances, up to {@value #INSTANCE_FILTER_VALUES_MAX} to a call. Those that do not
+     * exist are left out.
+     */
+    public List<DBInstance> instances(Collection<String> dbInstanceIdentifiers) {
+        return instances(rds, dbInstanceIdentifiers);
+    }
+
+    /**
+     * @see #instances(Collection)
+     */
+    static List<DBInstance> instances(AmazonRDS rds, Collection<String> dbInstanceIdentifiers) {
+        List<DBInstance> instances = Lists.newArrayList();
+        for (List<String> batch : Iterables.partition(dbInstanceIdentifiers, INSTANCE_FILTER_VALUES_MAX)) {
+            String marker = null;
+            do {
+                DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest()
+                        .withFilters(new Filter().withName("db-instance-id").withValues(batch))
+                        .withMarker(marker));
+                instances.addAll(result.getDBInstances());
+                marker = result.getMarker();
+            } while (marker != null);
+        }
+        return instances;
     }
 
     public Optional<Tag> instanceTag(String instanceArn, Predicate<Tag> predicate) {
@@ -94,7 +219,30 @@ public class RdsFind {
         return Iterables.filter(result.getTagList(), predicate);
     }
 
-    public Iterable<DBSnapshot> snapshots(final String dbInstanceIdentifier, final Predicate<DBSnapshot> predicate) {
+    public Iterable<DBSnapshot> snapshots(String dbInstanceIdentifier, Predicate<DBSnapshot> predicate) {
+        return snapshots(dbInstanceIdentifier, Optional.<String>absent(), predicate);
+    }
+
+    /**
+     * @param snapshotType if present, only snapshots of this type are listed, e.g. automated or manual
+     */
+    public Iterable<DBSnapshot> snapshots(String dbInstanceIdentifier, Optional<String> snapshotType,
+                                          Predicate<DBSnapshot> predicate) {
+        return snapshots(new DescribeDBSnapshotsRequest()
+                .withDBInstanceIdentifier(dbInstanceIdentifier)
+                .withSnapshotType(snapshotType.orNull()), predicate);
+    }
+
+    /**
+     * @return snapshots which other accounts share with this one
+     */
+    public Iterable<DBSnapshot> sharedSnapshots(Predicate<DBSnapshot> predicate) {
+        return snapshots(new DescribeDBSnapshotsRequest()
+                .withSnapshotType("shared")
+                .withIncludeShared(true), predicate);
+    }
+
+    Iterable<DBSnapshot> snapshots(final DescribeDBSnapshotsRequest template, final Predicate<DBSnapshot> predicate) {
         return new PagingIterable<DBSnapshot>(new Supplier<Iterable<DBSnapshot>>() {
 
             String marker = null;
@@ -103,8 +251,7 @@ public class RdsFind {
             @Override
             public Iterable<DBSnapshot> get() {
                 if (isTruncated) {
-                    DescribeDBSnapshotsRequest request = new DescribeDBSnapshotsRequest()
-                            .withDBInstanceIdentifier(dbInstanceIdentifier)
+                    DescribeDBSnapshotsRequest request = template.clone()
                             .withMarker(marker);
                     DescribeDBSnapshotsResult result = rds.describeDBSnapshots(request);
                     marker = result.getMarker();
@@ -112,40 +259,117 @@ public class RdsFind {
                     return Iterables.filter(result.getDBSnapshots(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchPages);
     }
 
-    public Predicate<DBInstance> instanceHasTag(final String region, final String accountNumber,
-                                                final String tagKey, final String tagValue) {
-        return new Predicate<DBInstance>() {
-            @Override
-            public boolean apply(DBInstance instance) {
-                try {
-                    final String rdsInstanceArn = instanceArn(region, accountNumber, instance.getDBInstanceIdentifier());
-                    ListTagsForResourceResult result = tagRetryer.call(new Callable<ListTagsForResourceResult>() {
+    public Optional<DBSnapshot> snapshot(String dbSnapshotIdentifier) {
+        try {
+            return Optional.fromNullable(Iterables.getFirst(rds.describeDBSnapshots(new DescribeDBSnapshotsRequest()
+                    .withDBSnapshotIdentifier(dbSnapshotIdentifier)).getDBSnapshots(), null));
+        } catch (DBSnapshotNotFoundException e) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * @return tags of the instance, read according to this finder's {@link TagDiscovery}
+     */
+    public List<Tag> instanceTags(String region, String accountNumber, DBInstance instance) {
+        switch (tagDiscovery) {
+            case DESCRIBE:
+                return instance.getTagList();
+            case AUTO:
+                if (!instance.getTagList().isEmpty()) {
+                    return instance.getTagList();
+                }
+                // Fall back to asking for them.
+                return listTags(instanceArn(region, accountNumber, instance.getDBInstanceIdentifier()));
+            default:
+                return listTags(instanceArn(region, accountNumber, instance.getDBInstanceIdentifier()));
+        }
+    }
+
+    /**
+     * Reads tags of a batch of instances. Those that need a ListTagsForResource call are read concurrently.
+     *
+     * @return tags of each instance, in the same order as the given instances
+     */
+    public List<List<Tag>> instanceTags(final String region, final String accountNumber, List<DBInstance> instances) {
+        List<Callable<List<Tag>>> calls = Lists.newArrayListWithCapacity(instances.size());
+        for (final DBInstance instance : instances) {
+            calls.add(new Callable<List<Tag>>() {
+                @Override
+                public List<Tag> call() throws Exception {
+                    return instanceTags(region, accountNumber, instance);
+                }
+            });
+        }
+        return tagExecutor.invokeAll(calls);
+    }
+
+    List<Tag> listTags(final String instanceArn) {
+        try {
+            return tagRetryer.call(new Callable<ListTagsForResourceResult>() {
+                @Override
+                public ListTagsForResourceResult call() throws Exception {
+                    return tagExecutor.gate(new Callable<ListTagsForResourceResult>() {
                         @Override
                         public ListTagsForResourceResult call() throws Exception {
                             return rds.listTagsForResource(new ListTagsForResourceRequest()
-                                    .withResourceName(rdsInstanceArn));
+                                    .withResourceName(instanceArn));
                         }
                     });
+                }
+            }).getTagList();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                    return Iterables.any(result.getTagList(), new Predicate<Tag>() {
-                        @Override
-                        public boolean apply(Tag tag) {
-                            return tagKey.equals(tag.getKey()) && tagValue.equals(tag.getValue());
-                        }
-                    });
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+    public Predicate<DBInstance> instanceHasTag(final String region, final String accountNumber,
+                                                final String tagKey, final String tagValue) {
+        return new Predicate<DBInstance>() {
+            @Override
+            public boolean apply(DBInstance instance) {
+                return Iterables.any(instanceTags(region, accountNumber, instance), tagEquals(tagKey, tagValue));
+            }
+        };
+    }
+
+    /**
+     * @return whether the instance is named as Echo names instances for one of these environments, i.e. the environment
+     * name followed by '-'. RDS lowercases identifiers, so case is ignored.
+     */
+    public static Predicate<DBInstance> instanceNamedAfter(Collection<String> names) {
+        final List<String> prefixes = Lists.newArrayList();
+        for (String name : names) {
+            prefixes.add(name.toLowerCase(Locale.ENGLISH) + '-');
+        }
+        return new Predicate<DBInstance>() {
+            @Override
+            public boolean apply(DBInstance instance) {
+                String id = instance.getDBInstanceIdentifier().toLowerCase(Locale.ENGLISH);
+                for (String prefix : prefixes) {
+                    if (id.startsWith(prefix)) {
+                        return true;
+                    }
                 }
+                return false;
             }
         };
     }
 
+    public static List<String> instanceIdentifiers(Iterable<DBInstance> instances) {
+        List<String> identifiers = Lists.newArrayList();
+        for (DBInstance instance : instances) {
+            identifiers.add(instance.getDBInstanceIdentifier());
+        }
+        return identifiers;
+    }
+
     public static String instanceArn(String region, String accountNumber, String dbInstanceIdentifier) {
         return String.format("arn:aws:rds:%s:%s:db:%s", region, accountNumber, dbInstanceIdentifier);
     }
@@ -159,6 +383,37 @@ public class RdsFind {
         };
     }
 
+    public static String snapshotArn(String region, String accountNumber, String dbSnapshotIdentifier) {
+        return String.format("arn:aws:rds:%s:%s:snapshot:%s", region, accountNumber, dbSnapshotIdentifier);
+    }
+
+    /**
+     * @return whether the snapshot is of the given instance and belongs to the given account, as told by its ARN
+     */
+    public static Predicate<DBSnapshot> snapshotOf(final String accountNumber, final String dbInstanceIdentifier) {
+        return new Predicate<DBSnapshot>() {
+            @Override
+            public boolean apply(DBSnapshot snapshot) {
+                return dbInstanceIdentifier.equals(snapshot.getDBInstanceIdentifier()) &&
+                        snapshot.getDBSnapshotArn() != null &&
+                        snapshot.getDBSnapshotArn().split(":")[4].equals(accountNumber);
+            }
+        };
+    }
+
+    /**
+     * @return whether the snapshot was created after the given time. Snapshots still being created have no create time
+     * yet and are not.
+     */
+    public static Predicate<DBSnapshot> snapshotCreatedAfter(final Date time) {
+        return new Predicate<DBSnapshot>() {
+            @Override
+            public boolean apply(DBSnapshot snapshot) {
+                return snapshot.getSnapshotCreateTime() != null && snapshot.getSnapshotCreateTime().after(time);
+            }
+        };
+    }
+
     public static Predicate<Tag> tagName(final String name) {
         return new Predicate<Tag>() {
             @Override
@@ -168,6 +423,15 @@ public class RdsFind {
         };
     }
 
+    public static Predicate<Tag> tagEquals(final String name, final String value) {
+        return new Predicate<Tag>() {
+            @Override
+            public boolean apply(Tag tag) {
+                return name.equals(tag.getKey()) && value.equals(tag.getValue());
+            }
+        };
+    }
+
     public static Optional<DBInstance> newestInstance(Iterable<DBInstance> instances) {
         DBInstance newest = null;
 
@@ -196,14 +460,17 @@ public class RdsFind {
                 ;
     }
 
+    /**
+     * Keeps only the newest snapshot seen so far, so any number of snapshots may be streamed through.
+     */
     public static Optional<DBSnapshot> newestSnapshot(Iterable<DBSnapshot> snapshots) {
         DBSnapshot newest = null;
 
-        // filter out instances without a create time
+        // filter out snapshots without a create time, i.e. those still being created
         Iterable<DBSnapshot> validSnapshots = Iterables.filter(snapshots, new Predicate<DBSnapshot>() {
             @Override
             public boolean apply(@Nullable DBSnapshot input) {
-                return input != null && input.getInstanceCreateTime() != null;
+                return input != null && input.getSnapshotCreateTime() != null;
             }
         });
 
@@ -24,27 +24,47 @@
 package com.github.blacklocus.rdsecho.utl;
 
 import com.amazonaws.services.route53.AmazonRoute53;
-import com.amazonaws.services.route53.AmazonRoute53Client;
+import com.amazonaws.services.route53.model.GetHostedZoneRequest;
 import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListHostedZonesByNameRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesByNameResult;
 import com.amazonaws.services.route53.model.ListHostedZonesRequest;
 import com.amazonaws.services.route53.model.ListHostedZonesResult;
 import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
 import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.NoSuchHostedZoneException;
+import com.amazonaws.services.route53.model.RRType;
 import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.EchoClients;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
-import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 
 public class Route53Find {
     final AmazonRoute53 route53;
+    final int prefetchPages;
+
+    public Route53Find() {
+        this(EchoClients.getInstance().route53());
+    }
 
     public Route53Find(AmazonRoute53 route53) {
+        this(route53, 0);
+    }
+
+    /**
+     * @param prefetchPages how many pages of list results to fetch ahead of the one being consumed
+     */
+    public Route53Find(AmazonRoute53 route53, int prefetchPages) {
         this.route53 = route53;
+        this.prefetchPages = prefetchPages;
     }
 
     public Optional<HostedZone> hostedZone() {
@@ -70,16 +90,97 @@ public class Route53Find {
                 if (isTruncated) {
                     ListHostedZonesRequest request = new ListHostedZonesRequest()
                             .withMarker(nextMarker);
-                    ListHostedZonesResult result = route53.listHostedZones();
+                    ListHostedZonesResult result = route53.listHostedZones(request);
                     nextMarker = result.getNextMarker();
                     isTruncated = result.isTruncated();
                     return Iterables.filter(result.getHostedZones(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
+                }
+            }
+        }, prefetchPages);
+    }
+
+    /**
+     * Lists hosted zones in order of their names, starting at the given name, e.g. "domain.com." is followed by
+     * "a.domain.com." and then "b.domain.com.".
+     */
+    public Iterable<HostedZone> hostedZonesByName(final String dnsName) {
+        return new PagingIterable<HostedZone>(new Supplier<Iterable<HostedZone>>() {
+
+            String nextDnsName = dnsName;
+            String nextHostedZoneId = null;
+            boolean isTruncated = true;
+
+            @Override
+            public Iterable<HostedZone> get() {
+                if (isTruncated) {
+                    ListHostedZonesByNameRequest request = new ListHostedZonesByNameRequest()
+                            .withDNSName(nextDnsName)
+                            .withHostedZoneId(nextHostedZoneId);
+                    ListHostedZonesByNameResult result = route53.listHostedZonesByName(request);
+                    nextDnsName = result.getNextDNSName();
+                    nextHostedZoneId = result.getNextHostedZoneId();
+                    isTruncated = result.isTruncated();
+                    return result.getHostedZones();
+
+                } else {
+                    return null;
+                }
+            }
+        }, prefetchPages);
+    }
+
+    /**
+     * Finds the hosted zone that holds a record, which is the zone with the longest name that the record name ends
+     * with. e.g. "db.dev.domain.com." belongs in zone "dev.domain.com." if there is one, else in "domain.com.". Where
+     * a public and a private zone share that name, as with split-horizon DNS, the public one is chosen. Costs about one
+     * call per candidate zone name tried.
+     */
+    public Optional<HostedZone> hostedZoneFor(String recordName) {
+        for (String zoneName : parentNames(recordName)) {
+            HostedZone found = null;
+            for (HostedZone hostedZone : hostedZonesByName(zoneName)) {
+                if (!normalize(hostedZone.getName()).equals(zoneName)) {
+                    // Listed in order of name, so no other zone of this name follows.
+                    break;
+                }
+                if (found == null || isPrivate(found) && !isPrivate(hostedZone)) {
+                    found = hostedZone;
+                }
+            }
+            if (found != null) {
+                return Optional.of(found);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Like {@link #hostedZoneFor(String)} but first tries the zone remembered for the record name, which costs one
+     * call. Whatever zone is found is remembered for next time.
+     */
+    public Optional<HostedZone> hostedZoneFor(String recordName, HostedZoneCache cache) {
+        Optional<String> cachedId = cache.get(recordName);
+        if (cachedId.isPresent()) {
+            try {
+                HostedZone cached = route53.getHostedZone(new GetHostedZoneRequest()
+                        .withId(cachedId.get())).getHostedZone();
+                if (parentNames(recordName).contains(normalize(cached.getName()))) {
+                    return Optional.of(cached);
                 }
+            } catch (NoSuchHostedZoneException e) {
+                // fall through to look it up again
             }
-        });
+            cache.remove(recordName);
+        }
+
+        Optional<HostedZone> hostedZone = hostedZoneFor(recordName);
+        if (hostedZone.isPresent()) {
+            cache.put(recordName, hostedZone.get().getId());
+        }
+        return hostedZone;
     }
 
     public Optional<ResourceRecordSet> resourceRecordSet(String hostedZoneId) {
@@ -98,6 +199,8 @@ public class Route53Find {
         return new PagingIterable<ResourceRecordSet>(new Supplier<Iterable<ResourceRecordSet>>() {
 
             String nextRecordName = null;
+            String nextRecordType = null;
+            String nextRecordIdentifier = null;
             boolean isTruncated = true;
 
             @Override
@@ -105,17 +208,100 @@ public class Route53Find {
                 if (isTruncated) {
                     ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest()
                             .withHostedZoneId(hostedZoneId)
-                            .withStartRecordName(nextRecordName);
+                            .withStartRecordName(nextRecordName)
+                            .withStartRecordType(nextRecordType)
+                            .withStartRecordIdentifier(nextRecordIdentifier);
                     ListResourceRecordSetsResult result = route53.listResourceRecordSets(request);
                     nextRecordName = result.getNextRecordName();
+                    nextRecordType = result.getNextRecordType();
+                    nextRecordIdentifier = result.getNextRecordIdentifier();
                     isTruncated = result.isTruncated();
                     return Iterables.filter(result.getResourceRecordSets(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
+                }
+            }
+        }, prefetchPages);
+    }
+
+    public Optional<ResourceRecordSet> resourceRecordSet(String hostedZoneId, String name, RRType type) {
+        return Optional.fromNullable(Iterables.getFirst(resourceRecordSets(hostedZoneId, name, type), null));
+    }
+
+    /**
+     * Lists the record sets with exactly this name and type, e.g. the one CNAME of that name, or every set of a
+     * weighted record. Listing starts at the name and type rather than at the top of the zone, and stops at the first
+     * record set that does not match, so this costs one call regardless of how many records the zone holds.
+     */
+    public Iterable<ResourceRecordSet> resourceRecordSets(final String hostedZoneId, final String name, final RRType type) {
+        final String normalizedName = normalize(name);
+        return new PagingIterable<ResourceRecordSet>(new Supplier<Iterable<ResourceRecordSet>>() {
+
+            String nextRecordName = normalizedName;
+            String nextRecordType = type.toString();
+            String nextRecordIdentifier = null;
+            boolean isTruncated = true;
+
+            @Override
+            public Iterable<ResourceRecordSet> get() {
+                if (isTruncated) {
+                    ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest()
+                            .withHostedZoneId(hostedZoneId)
+                            .withStartRecordName(nextRecordName)
+                            .withStartRecordType(nextRecordType)
+                            .withStartRecordIdentifier(nextRecordIdentifier);
+                    ListResourceRecordSetsResult result = route53.listResourceRecordSets(request);
+                    nextRecordName = result.getNextRecordName();
+                    nextRecordType = result.getNextRecordType();
+                    nextRecordIdentifier = result.getNextRecordIdentifier();
+                    isTruncated = result.isTruncated();
+
+                    List<ResourceRecordSet> matching = Lists.newArrayList();
+                    for (ResourceRecordSet resourceRecordSet : result.getResourceRecordSets()) {
+                        if (!normalize(resourceRecordSet.getName()).equals(normalizedName) ||
+                                !resourceRecordSet.getType().equals(type.toString())) {
+                            // Listed in order, so nothing further can match either.
+                            isTruncated = false;
+                            break;
+                        }
+                        matching.add(resourceRecordSet);
+                    }
+                    return matching;
+
+                } else {
+                    return null;
                 }
             }
-        });
+        }, 0);
+    }
+
+    static boolean isPrivate(HostedZone hostedZone) {
+        return hostedZone.getConfig() != null && Boolean.TRUE.equals(hostedZone.getConfig().getPrivateZone());
+    }
+
+    /**
+     * @return names that could be zones holding the given record name, longest first. e.g. "db.dev.domain.com." gives
+     * "dev.domain.com.", "domain.com.", "com."
+     */
+    static List<String> parentNames(String recordName) {
+        String name = normalize(recordName);
+        List<String> parents = Lists.newArrayList();
+        int dot = name.indexOf('.');
+        while (dot >= 0 && dot < name.length() - 1) {
+            name = name.substring(dot + 1);
+            parents.add(name);
+            dot = name.indexOf('.');
+        }
+        return parents;
+    }
+
+    /**
+     * @return the DNS name in the form Route53 hands back: lower case with a trailing '.'
+     */
+    static String normalize(String dnsName) {
+        String lower = dnsName.toLowerCase(Locale.ENGLISH);
+        return lower.endsWith(".") ? lower : lower + '.';
     }
 
     public static Predicate<HostedZone> nameEquals(final String name) {
@@ -0,0 +1,327 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.util.json.Jackson;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A timeline of what one run spent its time on, as spans: discovering instances, selecting a snapshot, reading and
+ * writing tags, the calls which change something in AWS, and waiting on instances. Each span is kept with the
+ * environment and the stage (see {@link ApiMetrics#stage()}) it was started in.
+ * <p>
+ * The {@link #criticalPath() critical path} is the chain of spans which the run could not have finished without,
+ * found by walking back from the span which ended last to whichever span ended last before it started. Time between
+ * spans on that path is counted as {@value #IDLE}. Spans which ran alongside others, or inside others, are left off.
+ */
+public class RunReport {
+
+    /**
+     * Scanning the region for Echo instances
+     */
+    public static final String DISCOVERY = "discovery";
+    /**
+     * Finding the snapshot to restore or copy
+     */
+    public static final String SNAPSHOT = "snapshot";
+    /**
+     * Reading an instance's Echo stage tag
+     */
+    public static final String TAG_READ = "tagRead";
+    /**
+     * A call which changes something in AWS, e.g. RestoreDBInstanceFromDBSnapshot or ChangeResourceRecordSets
+     */
+    public static final String MUTATE = "mutate";
+    /**
+     * Writing the tags which advance an instance's stage
+     */
+    public static final String TAG_WRITE = "tagWrite";
+    /**
+     * Waiting on instances to change status, or between steps of a weighted promote
+     */
+    public static final String WAIT = "wait";
+    /**
+     * Statements run against an instance, to warm it or gate its promotion
+     */
+    public static final String JDBC = "jdbc";
+
+    static final String IDLE = "idle";
+
+    final Queue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+    /**
+     * @param clock   which times the span
+     * @param subject what the span is about, e.g. an instance identifier, or null
+     * @return a span, recorded once {@link Span#end() ended}
+     */
+    public Span start(EchoClock clock, String environment, String phase, String subject) {
+        return new Span(clock, environment, ApiMetrics.stage(), phase, subject);
+    }
+
+    /**
+     * @return every span ended so far, in the order they started
+     */
+    public List<Span> spans() {
+        List<Span> sorted = Lists.newArrayList(spans);
+        Collections.sort(sorted, new Comparator<Span>() {
+            @Override
+            public int compare(Span a, Span b) {
+                return Long.compare(a.startMillis, b.startMillis);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return the spans on the critical path, in order
+     */
+    public List<Span> criticalPath() {
+        // By end, and of those ending together the one starting first last, so that it is taken over those it holds.
+        List<Span> byEnd = new Ordering<Span>() {
+            @Override
+            public int compare(Span a, Span b) {
+                int c = Long.compare(a.endMillis, b.endMillis);
+                return c != 0 ? c : Long.compare(b.startMillis, a.startMillis);
+            }
+        }.sortedCopy(spans);
+
+        List<Span> path = Lists.newArrayList();
+        int i = byEnd.size() - 1;
+        while (i >= 0) {
+            Span span = byEnd.get(i);
+            path.add(span);
+            while (i >= 0 && byEnd.get(i).endMillis > span.startMillis) {
+                i--;
+            }
+            // Skip past the spans ending at this one's start which it was itself chosen over.
+            while (i >= 0 && byEnd.get(i) == span) {
+                i--;
+            }
+        }
+        return Lists.reverse(path);
+    }
+
+    /**
+     * @return how long the critical path spent in each phase, including {@value #IDLE}, most first
+     */
+    public Map<String, Long> criticalPathMillis() {
+        final Map<String, Long> millis = Maps.newHashMap();
+        Span previous = null;
+        for (Span span : criticalPath()) {
+            add(millis, span.phase, span.millis());
+            if (previous != null) {
+                add(millis, IDLE, span.startMillis - previous.endMillis);
+            }
+            previous = span;
+        }
+        List<String> phases = Lists.newArrayList(millis.keySet());
+        Collections.sort(phases, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int c = Long.compare(millis.get(b), millis.get(a));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        Map<String, Long> sorted = Maps.newLinkedHashMap();
+        for (String phase : phases) {
+            sorted.put(phase, millis.get(phase));
+        }
+        return sorted;
+    }
+
+    /**
+     * @return one line summing up the critical path, e.g. "2h13m over 14 spans: wait 1h50m (83%), mutate 12m (9%)"
+     */
+    public String summary() {
+        List<Span> path = criticalPath();
+        if (path.isEmpty()) {
+            return "nothing recorded";
+        }
+        long total = path.get(path.size() - 1).endMillis - path.get(0).startMillis;
+        StringBuilder s = new StringBuilder()
+                .append(duration(total)).append(" over ").append(path.size()).append(" spans");
+        String separator = ": ";
+        for (Map.Entry<String, Long> phase : criticalPathMillis().entrySet()) {
+            s.append(separator).append(phase.getKey()).append(' ').append(duration(phase.getValue()));
+            if (total > 0) {
+                s.append(" (").append(Math.round(100.0 * phase.getValue() / total)).append("%)");
+            }
+            separator = ", ";
+        }
+        return s.toString();
+    }
+
+    /**
+     * @return the report of a run of the given command as JSON: the run, every span, and the critical path
+     */
+    public String toJson(String command, Boolean result) {
+        List<Span> all = spans();
+        List<Span> path = criticalPath();
+
+        Map<String, Object> json = Maps.newLinkedHashMap();
+        json.put("command", command);
+        json.put("result", result);
+        if (!all.isEmpty()) {
+            json.put("started", instant(all.get(0).startMillis));
+            json.put("finished", instant(path.get(path.size() - 1).endMillis));
+        }
+
+        Map<String, Object> critical = Maps.newLinkedHashMap();
+        critical.put("summary", summary());
+        critical.put("phaseMillis", criticalPathMillis());
+        List<Map<String, Object>> pathJson = Lists.newArrayList();
+        for (Span span : path) {
+            pathJson.add(span.toJson());
+        }
+        critical.put("spans", pathJson);
+        json.put("criticalPath", critical);
+
+        List<Map<String, Object>> spansJson = Lists.newArrayList();
+        for (Span span : all) {
+            spansJson.add(span.toJson());
+        }
+        json.put("spans", spansJson);
+        return Jackson.toJsonPrettyString(json);
+    }
+
+    /**
+     * Writes the report of a run into the given directory, named after the command and when the run ended, e.g.
+     * daemon-20150602T120000Z.json.
+     *
+     * @return the file written
+     */
+    public File write(File dir, String command, Boolean result) {
+        File file = new File(dir, command + "-" + DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss'Z'")
+                .withZoneUTC().print(System.currentTimeMillis()) + ".json");
+        MetricsExporter.write(file, toJson(command, result));
+        return file;
+    }
+
+    static void add(Map<String, Long> millis, String phase, long more) {
+        Long sum = millis.get(phase);
+        millis.put(phase, (sum == null ? 0 : sum) + more);
+    }
+
+    static String instant(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC).toString();
+    }
+
+    /**
+     * @return e.g. 850ms, 42s, 12m30s or 2h13m
+     */
+    static String duration(long millis) {
+        long seconds = millis / 1000;
+        if (seconds < 1) {
+            return millis + "ms";
+        } else if (seconds < 60) {
+            return seconds + "s";
+        } else if (seconds < 3600) {
+            return seconds / 60 + "m" + (seconds % 60 > 0 ? seconds % 60 + "s" : "");
+        } else {
+            return seconds / 3600 + "h" + (seconds % 3600 / 60 > 0 ? seconds % 3600 / 60 + "m" : "");
+        }
+    }
+
+    /**
+     * Some time spent on one phase of one stage.
+     */
+    public class Span {
+
+        final EchoClock clock;
+        final String environment;
+        final String stage;
+        final String phase;
+        final String subject;
+        final long startMillis;
+        long endMillis = -1;
+
+        Span(EchoClock clock, String environment, String stage, String phase, String subject) {
+            this.clock = clock;
+            this.environment = environment;
+            this.stage = stage;
+            this.phase = phase;
+            this.subject = subject;
+            this.startMillis = clock.currentTimeMillis();
+        }
+
+        /**
+         * Records the span as having taken until now. Only the first call counts.
+         */
+        public void end() {
+            synchronized (this) {
+                if (endMillis >= 0) {
+                    return;
+                }
+                endMillis = clock.currentTimeMillis();
+            }
+            spans.add(this);
+        }
+
+        public String environment() {
+            return environment;
+        }
+
+        public String stage() {
+            return stage;
+        }
+
+        public String phase() {
+            return phase;
+        }
+
+        public String subject() {
+            return subject;
+        }
+
+        public long millis() {
+            return endMillis - startMillis;
+        }
+
+        Map<String, Object> toJson() {
+            Map<String, Object> json = Maps.newLinkedHashMap();
+            json.put("environment", environment);
+            json.put("stage", stage);
+            json.put("phase", phase);
+            if (subject != null) {
+                json.put("subject", subject);
+            }
+            json.put("start", instant(startMillis));
+            json.put("millis", millis());
+            return json;
+        }
+    }
+}
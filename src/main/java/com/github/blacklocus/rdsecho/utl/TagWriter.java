@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.AddTagsToResourceResult;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategies;
+import com.github.rholder.retry.WaitStrategies;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the tags a command means to write and writes them all at once, in one AddTagsToResource call per instance.
+ * A tag added twice to the same instance is written once, with the value added last. The calls for several instances
+ * are made concurrently through the given executor, and retried with backoff when AWS throttles or fails them.
+ */
+public class TagWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TagWriter.class);
+
+    final AmazonRDS rds;
+    final String region;
+    final String accountNumber;
+    final ThrottleAwareExecutor executor;
+
+    /**
+     * Tag values by key, by instance identifier
+     */
+    final Map<String, Map<String, String>> pending = Maps.newLinkedHashMap();
+
+    final Retryer<AddTagsToResourceResult> retryer;
+
+    public TagWriter(AmazonRDS rds, String region, String accountNumber, ThrottleAwareExecutor executor) {
+        this(rds, region, accountNumber, executor, new ApiMetrics());
+    }
+
+    public TagWriter(AmazonRDS rds, String region, String accountNumber, ThrottleAwareExecutor executor,
+                     ApiMetrics metrics) {
+        this(rds, region, accountNumber, executor, metrics, true);
+    }
+
+    /**
+     * @param metrics        where retries of AddTagsToResource are counted
+     * @param retryThrottles whether to retry throttled AddTagsToResource calls, which an {@link ApiRateLimiter}
+     *                       pacing the client already does
+     */
+    public TagWriter(AmazonRDS rds, String region, String accountNumber, ThrottleAwareExecutor executor,
+                     ApiMetrics metrics, final boolean retryThrottles) {
+        this.rds = rds;
+        this.region = region;
+        this.accountNumber = accountNumber;
+        this.executor = executor;
+        // Retry 10 times with exponential backoff, starting with 1 second bounded to 60 seconds
+        this.retryer = RetryerBuilder.<AddTagsToResourceResult>newBuilder()
+                .retryIfException(new Predicate<Throwable>() {
+                    @Override
+                    public boolean apply(@Nullable Throwable t) {
+                        return t instanceof AmazonServiceException && (retryThrottles && ApiRateLimiter.isThrottling(t)
+                                || RetryUtils.isRetryableServiceException((AmazonServiceException) t));
+                    }
+                })
+                .withStopStrategy(StopStrategies.stopAfterAttempt(10))
+                .withWaitStrategy(WaitStrategies.exponentialWait(1, 60, TimeUnit.SECONDS))
+                .withRetryListener(metrics.retryListener("rds", "AddTagsToResource"))
+                .build();
+    }
+
+    public TagWriter add(String dbInstanceIdentifier, Tag... tags) {
+        return add(dbInstanceIdentifier, Arrays.asList(tags));
+    }
+
+    public synchronized TagWriter add(String dbInstanceIdentifier, Iterable<Tag> tags) {
+        Map<String, String> values = pending.get(dbInstanceIdentifier);
+        if (values == null) {
+            values = Maps.newLinkedHashMap();
+            pending.put(dbInstanceIdentifier, values);
+        }
+        for (Tag tag : tags) {
+            values.put(tag.getKey(), tag.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Writes everything added so far and forgets it.
+     *
+     * @return how many AddTagsToResource calls were needed, not counting retries
+     */
+    public int flush() {
+        Map<String, Map<String, String>> flushing;
+        synchronized (this) {
+            flushing = ImmutableMap.copyOf(pending);
+            pending.clear();
+        }
+
+        List<Callable<AddTagsToResourceResult>> calls = Lists.newArrayList();
+        for (Map.Entry<String, Map<String, String>> entry : flushing.entrySet()) {
+            final String dbInstanceIdentifier = entry.getKey();
+            final List<Tag> tags = Lists.newArrayList();
+            for (Map.Entry<String, String> value : entry.getValue().entrySet()) {
+                tags.add(new Tag().withKey(value.getKey()).withValue(value.getValue()));
+            }
+            calls.add(new Callable<AddTagsToResourceResult>() {
+                @Override
+                public AddTagsToResourceResult call() throws Exception {
+                    LOG.info("Tagging instance {} with {}", dbInstanceIdentifier, tags);
+                    return write(RdsFind.instanceArn(region, accountNumber, dbInstanceIdentifier), tags);
+                }
+            });
+        }
+        executor.invokeAll(calls);
+        return calls.size();
+    }
+
+    AddTagsToResourceResult write(final String instanceArn, final List<Tag> tags) throws Exception {
+        return retryer.call(new Callable<AddTagsToResourceResult>() {
+            @Override
+            public AddTagsToResourceResult call() throws Exception {
+                return executor.gate(new Callable<AddTagsToResourceResult>() {
+                    @Override
+                    public AddTagsToResourceResult call() throws Exception {
+                        return rds.addTagsToResource(new AddTagsToResourceRequest()
+                                .withResourceName(instanceArn)
+                                .withTags(tags));
+                    }
+                });
+            }
+        });
+    }
+}
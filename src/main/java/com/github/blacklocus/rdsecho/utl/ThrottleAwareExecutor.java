@@ -0,0 +1,210 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs batches of AWS calls on a bounded number of threads. Calls that pass through {@link #gate(Callable)} share a
+ * concurrency limit which is halved whenever AWS responds with a throttling error, at most once a second so that one
+ * burst of throttled calls counts once, and grows back by one after a run of successful calls, never beyond the
+ * configured maximum. The threads are released once closed.
+ */
+public class ThrottleAwareExecutor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThrottleAwareExecutor.class);
+
+    /**
+     * Throttles within this long of a reduction come from the same burst of calls, and do not reduce it again.
+     */
+    static final long REDUCE_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    final int maxConcurrency;
+    final ExecutorService executor;
+    final EchoClock clock;
+
+    final AtomicInteger limit;
+    final AtomicInteger successes = new AtomicInteger();
+    final AtomicLong reducedAt;
+    final AdjustableSemaphore permits;
+
+    public ThrottleAwareExecutor(String name, int maxConcurrency) {
+        this(name, maxConcurrency, EchoClock.SYSTEM);
+    }
+
+    ThrottleAwareExecutor(String name, int maxConcurrency, EchoClock clock) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.clock = clock;
+        this.reducedAt = new AtomicLong(clock.currentTimeMillis() - REDUCE_COOLDOWN_MILLIS);
+        this.executor = this.maxConcurrency > 1 ? Executors.newFixedThreadPool(this.maxConcurrency,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rdsecho-" + name + "-%d").build()) : null;
+        this.limit = new AtomicInteger(this.maxConcurrency);
+        this.permits = new AdjustableSemaphore(this.maxConcurrency);
+    }
+
+    /**
+     * Runs all calls on at most the maximum number of threads and returns their results in the same order as the calls
+     * were given. The first failure, in order, is rethrown.
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> calls) {
+        List<T> results = Lists.newArrayListWithCapacity(calls.size());
+        if (executor == null || calls.size() <= 1) {
+            for (Callable<T> call : calls) {
+                results.add(callUnchecked(call));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = Lists.newArrayListWithCapacity(calls.size());
+        for (Callable<T> call : calls) {
+            futures.add(executor.submit(ApiMetrics.carryStage(call)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Makes one attempt at the call once a permit is free. Throttling errors reduce the number of permits. Wrap only
+     * single attempts in this; retries and their backoff should happen outside of it so that waiting does not hold a
+     * permit.
+     */
+    public <T> T gate(Callable<T> call) throws Exception {
+        permits.acquire();
+        try {
+            T result = call.call();
+            onSuccess();
+            return result;
+        } catch (AmazonServiceException e) {
+            if (RetryUtils.isThrottlingException(e)) {
+                onThrottle();
+            }
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int currentLimit() {
+        return limit.get();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    void onThrottle() {
+        successes.set(0);
+        long now = clock.currentTimeMillis();
+        long last = reducedAt.get();
+        if (now - last < REDUCE_COOLDOWN_MILLIS || !reducedAt.compareAndSet(last, now)) {
+            // Already reduced for this burst, here or by another thread just now.
+            return;
+        }
+        while (true) {
+            int current = limit.get();
+            if (current <= 1) {
+                return;
+            }
+            int reduced = current / 2;
+            if (limit.compareAndSet(current, reduced)) {
+                permits.reduce(current - reduced);
+                LOG.info("Throttled by AWS. Reducing concurrency from {} to {}", current, reduced);
+                return;
+            }
+        }
+    }
+
+    void onSuccess() {
+        int current = limit.get();
+        if (current < maxConcurrency && successes.incrementAndGet() >= current * 4) {
+            successes.set(0);
+            if (limit.compareAndSet(current, current + 1)) {
+                permits.release();
+            }
+        }
+    }
+
+    static <T> T callUnchecked(Callable<T> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            return new RuntimeException(t);
+        }
+    }
+
+    static class AdjustableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+}
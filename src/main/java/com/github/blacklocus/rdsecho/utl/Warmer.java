@@ -0,0 +1,189 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms a freshly restored instance by reading through it over JDBC, several statements at once. An instance restored
+ * from a snapshot loads each block from S3 the first time it is read, so the first queries against it are very slow
+ * unless something has read those blocks already. Each statement's results are read through to the end and discarded.
+ */
+public class Warmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmer.class);
+
+    /**
+     * How many rows of one statement are read between progress reports and checks of the time budget.
+     */
+    static final long PROGRESS_ROWS = 1000000;
+
+    final JdbcTarget target;
+    final int fetchSize;
+    final int concurrency;
+    final EchoClock clock;
+
+    /**
+     * @param fetchSize rows fetched at a time, so that large results are streamed rather than held in memory
+     */
+    public Warmer(JdbcTarget target, int fetchSize, int concurrency, EchoClock clock) {
+        this.target = target;
+        this.fetchSize = fetchSize;
+        this.concurrency = concurrency;
+        this.clock = clock;
+    }
+
+    /**
+     * Runs every statement, giving up on any left unfinished once the time budget runs out.
+     */
+    public Result warm(List<String> statements, long budgetMillis) {
+        final long start = clock.currentTimeMillis();
+        final long deadline = start + budgetMillis < start ? Long.MAX_VALUE : start + budgetMillis;
+        final int total = statements.size();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicLong rows = new AtomicLong();
+        final List<String> unfinished = Collections.synchronizedList(Lists.<String>newArrayList());
+
+        List<Callable<Void>> calls = Lists.newArrayList();
+        for (final String sql : statements) {
+            calls.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long statementStart = clock.currentTimeMillis();
+                    try {
+                        Optional<Long> read = read(sql, deadline);
+                        if (read.isPresent()) {
+                            rows.addAndGet(read.get());
+                            LOG.info("Warmed {} of {}: {} ({} rows in {} seconds)", completed.incrementAndGet(), total,
+                                    sql, read.get(), (clock.currentTimeMillis() - statementStart) / 1000);
+                            return null;
+                        }
+                        LOG.warn("Ran out of time warming: {}", sql);
+                    } catch (SQLException e) {
+                        LOG.error("Failed warming: {}", sql, e);
+                    }
+                    unfinished.add(sql);
+                    return null;
+                }
+            });
+        }
+        try (ThrottleAwareExecutor executor = new ThrottleAwareExecutor("warm", concurrency)) {
+            executor.invokeAll(calls);
+        }
+
+        return new Result(total, completed.get(), rows.get(), ImmutableList.copyOf(unfinished),
+                clock.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return how many rows were read, or absent if time ran out first
+     */
+    Optional<Long> read(String sql, long deadline) throws SQLException {
+        long remainingMillis = deadline - clock.currentTimeMillis();
+        if (remainingMillis <= 0) {
+            return Optional.absent();
+        }
+        try (Connection connection = target.connect()) {
+            // Some drivers, e.g. PostgreSQL's, only stream results inside a transaction.
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(fetchSize);
+                statement.setQueryTimeout((int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                        TimeUnit.MILLISECONDS.toSeconds(remainingMillis))));
+                long read = 0;
+                if (statement.execute(sql)) {
+                    try (ResultSet results = statement.getResultSet()) {
+                        while (results.next()) {
+                            if (++read % PROGRESS_ROWS == 0) {
+                                LOG.info("Read {} rows so far of: {}", read, sql);
+                                if (clock.currentTimeMillis() >= deadline) {
+                                    return Optional.absent();
+                                }
+                            }
+                        }
+                    }
+                }
+                return Optional.of(read);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    /**
+     * @return a statement reading every row of each table
+     */
+    public static List<String> tableScans(List<String> tables) {
+        List<String> statements = Lists.newArrayList();
+        for (String table : tables) {
+            statements.add("SELECT * FROM " + table);
+        }
+        return statements;
+    }
+
+    /**
+     * @return the statements in a script, separated by ';'
+     */
+    public static List<String> statements(String script) {
+        return Lists.newArrayList(Splitter.on(';').trimResults().omitEmptyStrings().split(script));
+    }
+
+    public static class Result {
+
+        public final int statements;
+        public final int completed;
+        public final long rows;
+        public final List<String> unfinished;
+        public final long millis;
+
+        Result(int statements, int completed, long rows, List<String> unfinished, long millis) {
+            this.statements = statements;
+            this.completed = completed;
+            this.rows = rows;
+            this.unfinished = unfinished;
+            this.millis = millis;
+        }
+
+        public boolean isComplete() {
+            return completed == statements;
+        }
+    }
+}
@@ -28,12 +28,16 @@ import com.amazonaws.services.route53.model.ResourceRecordSet;
 import com.github.blacklocus.rdsecho.utl.Route53Find;
 import org.testng.annotations.Test;
 
+/**
+ * Runs against live AWS with whatever credentials and rdsecho.properties are at hand, so is excluded from the default
+ * test run.
+ */
+@Test(groups = "aws")
 public class AWSFindTest {
 
-    Route53Find find = new Route53Find();
-
     @Test
     public void testHostedZonesAndResourceRecordSets() throws Exception {
+        Route53Find find = new Route53Find();
         for (HostedZone hostedZone : find.hostedZones()) {
             System.out.println(hostedZone);
             for (ResourceRecordSet rrs : find.resourceRecordSets(hostedZone.getId())) {
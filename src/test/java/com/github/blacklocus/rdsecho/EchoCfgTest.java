@@ -24,6 +24,9 @@
 package com.github.blacklocus.rdsecho;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -51,4 +54,30 @@ public class EchoCfgTest {
         Assert.assertEquals("development=yes", allPromoteTags[0]);
         Assert.assertEquals("banana=no", allPromoteTags[1]);
     }
+
+    @Test
+    public void environmentOverridesItsOwnSettings() throws ConfigurationException {
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_ENVIRONMENTS, "development,staging");
+        properties.setProperty("rdsecho.env.staging.new.dbInstanceClass", "db.m3.medium");
+        EchoCfg cfg = new EchoCfg(properties);
+
+        Assert.assertEquals(cfg.environments(), ImmutableList.of("development", "staging"));
+
+        EchoCfg staging = cfg.environment("staging");
+        Assert.assertEquals(staging.name(), "staging");
+        Assert.assertEquals(staging.newDbInstanceClass().get(), "db.m3.medium");
+        Assert.assertEquals(staging.region(), cfg.region());
+
+        EchoCfg development = cfg.environment("development");
+        Assert.assertEquals(development.name(), "development");
+        Assert.assertEquals(development.newDbInstanceClass(), cfg.newDbInstanceClass());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void environmentSharesRegion() throws ConfigurationException {
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty("rdsecho.env.staging.region", "us-west-2");
+        new EchoCfg(properties).environment("staging");
+    }
 }
@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class EchoCopyTest {
+
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    SimulatedRds source;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        properties.setProperty(EchoCfg.PROP_SNAPSHOT_SOURCE_REGION, "us-west-2");
+        // Applies to the source snapshot, not to its copy, which is manual.
+        properties.setProperty(EchoCfg.PROP_SNAPSHOT_TYPE, "automated");
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        source = new SimulatedRds("us-west-2", "1234567890", clock, faults);
+        source.addSnapshot("production", "rds:production-2015-06-02", "automated",
+                new DateTime(2015, 6, 2, 0, 0).toDate());
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults).withSourceRegion(source);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void copiesTheSnapshotFromAnotherRegionFirst() throws Exception {
+        Assert.assertTrue(new EchoCopy(echo()).call());
+        List<DBSnapshot> snapshots = rds.snapshots();
+        Assert.assertEquals(snapshots.size(), 1);
+        Assert.assertEquals(snapshots.get(0).getDBSnapshotIdentifier(), "rdsecho-rds-production-2015-06-02");
+        Assert.assertEquals(snapshots.get(0).getStatus(), "copying");
+
+        // Nothing more to do while the copy is under way
+        Assert.assertFalse(new EchoCopy(echo()).call());
+
+        // Restored from once it is available
+        clock.advance(TimeUnit.MINUTES.toMillis(20));
+        Assert.assertTrue(new EchoNew(echo()).call());
+        Assert.assertEquals(rds.tag("development-2015-06-02", String.format(EchoConst.TAG_ECHO_SNAPSHOT_FMT,
+                "development")).get(), "rdsecho-rds-production-2015-06-02");
+    }
+
+    EchoUtil echo() {
+        EchoClients clients = new EchoClients(rds, new SimulatedRoute53(clock, faults)).withRds("us-west-2", source);
+        EchoUtil echo = new EchoUtil(new EchoCfg(properties), clients, clock);
+        echos.add(echo);
+        return echo;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class EchoDaemonTest {
+
+    static final String ZONE_ID = "/hostedzone/Z1";
+    static final String CNAME = "dev.domain.com.";
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    EchoCfg cfg;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    SimulatedRoute53 route53;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        cfg = new EchoCfg(properties);
+
+        // Calls take no time and none fail, so that only the statuses instances go through take any.
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds(cfg.region(), cfg.accountNumber(), clock, faults);
+        rds.addSnapshot(cfg.snapshotDbInstanceIdentifier(), "rds:production-2015-06-01", "automated",
+                new DateTime(2015, 6, 1, 0, 0).toDate());
+
+        route53 = new SimulatedRoute53(clock, faults).withPropagationMillis(0);
+        route53.addHostedZone(ZONE_ID, "domain.com.");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void runsARefreshToCompletion() throws Exception {
+        DBInstance old = rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        pointCnameAt(old);
+
+        Assert.assertTrue(new EchoDaemon(echo()).call());
+
+        String newId = cfg.name() + "-2015-06-02";
+        Assert.assertEquals(ids(), ImmutableList.of("development-2015-01-01", newId));
+        Assert.assertEquals(rds.instance("development-2015-01-01").get().getDBInstanceStatus(), "deleting");
+        Assert.assertEquals(rds.tag(newId, stageKey()).get(), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(rds.tag(newId, "development").get(), "yes");
+        Assert.assertEquals(rds.tag(newId, "pear").get(), "maybe");
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), rds.instance(newId).get().getEndpoint().getAddress());
+
+        // Every round after the first described the instances it remembered rather than scanning.
+        Assert.assertEquals(rds.scans(), 1);
+    }
+
+    @Test
+    public void picksUpARefreshUnderWay() throws Exception {
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        DBInstance modified = rds.addInstance("development-2015-01-02", new DateTime(2015, 1, 2, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_MODIFIED));
+
+        Assert.assertTrue(new EchoDaemon(echo()).call());
+
+        // Finished the refresh that was under way without starting another.
+        Assert.assertEquals(ids(), ImmutableList.of("development-2015-01-01", "development-2015-01-02"));
+        Assert.assertEquals(rds.instance("development-2015-01-01").get().getDBInstanceStatus(), "deleting");
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), modified.getEndpoint().getAddress());
+    }
+
+    @Test
+    public void leavesAYoungPromotedInstanceAlone() throws Exception {
+        rds.addInstance("development-2015-01-01", START.minusHours(1).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+
+        Assert.assertTrue(new EchoDaemon(echo()).call());
+
+        Assert.assertEquals(ids(), ImmutableList.of("development-2015-01-01"));
+        Assert.assertFalse(route53.cname(ZONE_ID, CNAME).isPresent());
+    }
+
+    EchoUtil echo() {
+        EchoUtil echo = new EchoUtil(cfg, new EchoClients(rds, route53), clock);
+        echos.add(echo);
+        return echo;
+    }
+
+    void pointCnameAt(DBInstance instance) {
+        route53.addRecordSets(ZONE_ID, ImmutableList.of(new ResourceRecordSet(CNAME, RRType.CNAME)
+                .withTTL(300L)
+                .withResourceRecords(new ResourceRecord(instance.getEndpoint().getAddress()))));
+    }
+
+    List<String> ids() {
+        return RdsFind.instanceIdentifiers(rds.instances());
+    }
+
+    Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, cfg.name())).withValue("true");
+    }
+
+    Tag stage(String stage) {
+        return new Tag().withKey(stageKey()).withValue(stage);
+    }
+
+    String stageKey() {
+        return String.format(EchoConst.TAG_ECHO_STAGE_FMT, cfg.name());
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class EchoDiscoveryTest {
+
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void passesOverInstancesNamedForSomethingElse() {
+        rds.addInstance("billing", new DateTime(2015, 1, 1, 0, 0).toDate());
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(), managed());
+        rds.addInstance("reporting-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate());
+
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "prefix");
+        Assert.assertEquals(echo().lastEchoInstance().get().getDBInstanceIdentifier(), "development-2015-01-01");
+        Assert.assertEquals(faults.calls("ListTagsForResource"), 0);
+    }
+
+    @Test
+    public void looksUpRecentDaysDirectly() {
+        String recent = EchoUtil.instanceIdentifier("development", START.minusDays(3));
+        rds.addInstance(recent, START.minusDays(3).toDate(), managed());
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "dates");
+
+        Assert.assertEquals(echo().lastEchoInstance().get().getDBInstanceIdentifier(), recent);
+        Assert.assertEquals(rds.scans(), 0);
+    }
+
+    @Test
+    public void stillFindsOlderInstancesToDemoteOrRetire() {
+        String recent = EchoUtil.instanceIdentifier("development", START.minusDays(3));
+        rds.addInstance(recent, START.minusDays(3).toDate(), managed());
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(), managed(),
+                new Tag().withKey(String.format(EchoConst.TAG_ECHO_STAGE_FMT, "development"))
+                        .withValue(EchoConst.STAGE_FORGOTTEN));
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "dates");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_CANDIDATE_DAYS, "7");
+
+        EchoUtil echo = echo();
+        Assert.assertEquals(echo.lastEchoInstance().get().getDBInstanceIdentifier(), recent);
+        Assert.assertEquals(rds.scans(), 0);
+
+        Assert.assertEquals(RdsFind.instanceIdentifiers(echo.echoInstances()).size(), 2);
+        Assert.assertEquals(echo.instanceStage("development-2015-01-01").get().getValue(), EchoConst.STAGE_FORGOTTEN);
+        Assert.assertEquals(rds.scans(), 1);
+    }
+
+    @Test
+    public void scansWhenRecentDaysMiss() {
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(), managed());
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "dates");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_CANDIDATE_DAYS, "7");
+
+        Assert.assertEquals(echo().lastEchoInstance().get().getDBInstanceIdentifier(), "development-2015-01-01");
+        Assert.assertEquals(rds.scans(), 1);
+    }
+
+    @Test
+    public void cachedScanStillFindsInstancesCreatedElsewhere() throws IOException {
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(), managed());
+        Assert.assertEquals(echo().lastEchoInstance().get().getDBInstanceIdentifier(), "development-2015-01-01");
+
+        // Created by another host since the scan
+        String recent = EchoUtil.instanceIdentifier("development", START);
+        rds.addInstance(recent, START.toDate(), managed());
+
+        EchoUtil echo = echo();
+        Assert.assertEquals(echo.lastEchoInstance().get().getDBInstanceIdentifier(), recent);
+        Assert.assertEquals(RdsFind.instanceIdentifiers(echo.echoInstances()).size(), 2);
+        Assert.assertEquals(rds.scans(), 1);
+    }
+
+    @Test
+    public void picksTheNewestSnapshotOfTheConfiguredType() {
+        rds.addSnapshot("production", "rds:production-2015-06-01", "automated",
+                new DateTime(2015, 6, 1, 0, 0).toDate());
+        rds.addSnapshot("production", "production-manual", "manual", new DateTime(2015, 6, 3, 0, 0).toDate());
+        rds.addSnapshot("production", "rds:production-2015-06-02", "automated",
+                new DateTime(2015, 6, 2, 0, 0).toDate());
+        rds.addSnapshot("staging", "rds:staging-2015-06-04", "automated", new DateTime(2015, 6, 4, 0, 0).toDate());
+
+        Assert.assertEquals(echo().latestSnapshot().get().getDBSnapshotIdentifier(), "production-manual");
+
+        properties.setProperty(EchoCfg.PROP_SNAPSHOT_TYPE, "automated");
+        Assert.assertEquals(echo().latestSnapshot().get().getDBSnapshotIdentifier(), "rds:production-2015-06-02");
+    }
+
+    @Test
+    public void skipsTheSnapshotAlreadyRestored() {
+        properties.setProperty(EchoCfg.PROP_SNAPSHOT_SKIP_RESTORED, "true");
+        rds.addSnapshot("production", "rds:production-2015-06-01", "automated",
+                new DateTime(2015, 6, 1, 0, 0).toDate());
+        rds.addSnapshot("production", "rds:production-2015-06-02", "automated",
+                new DateTime(2015, 6, 2, 0, 0).toDate());
+        rds.addInstance("development-2015-06-02", new DateTime(2015, 6, 2, 12, 0).toDate(), managed(),
+                new Tag().withKey(String.format(EchoConst.TAG_ECHO_SNAPSHOT_FMT, "development"))
+                        .withValue("rds:production-2015-06-02"));
+
+        Assert.assertFalse(echo().latestSnapshot().isPresent());
+
+        rds.addSnapshot("production", "rds:production-2015-06-03", "automated",
+                new DateTime(2015, 6, 3, 0, 0).toDate());
+        Assert.assertEquals(echo().latestSnapshot().get().getDBSnapshotIdentifier(), "rds:production-2015-06-03");
+
+        properties.clearProperty(EchoCfg.PROP_SNAPSHOT_SKIP_RESTORED);
+        rds.removeSnapshot("rds:production-2015-06-03");
+        Assert.assertEquals(echo().latestSnapshot().get().getDBSnapshotIdentifier(), "rds:production-2015-06-02");
+    }
+
+    EchoUtil echo() {
+        EchoUtil echo = new EchoUtil(new EchoCfg(properties),
+                new EchoClients(rds, new SimulatedRoute53(clock, faults)), clock);
+        echos.add(echo);
+        return echo;
+    }
+
+    static Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, "development")).withValue("true");
+    }
+}
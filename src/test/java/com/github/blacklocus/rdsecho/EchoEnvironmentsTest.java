@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class EchoEnvironmentsTest {
+
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+        rds.addSnapshot("production", "rds:production-2015-06-01", "automated",
+                new DateTime(2015, 6, 1, 0, 0).toDate());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void refreshesSeveralEnvironmentsFromOneScan() throws Exception {
+        properties.setProperty(EchoCfg.PROP_ENVIRONMENTS, "development,staging");
+        properties.setProperty("rdsecho.env.staging.promote.cname", "staging.domain.com.");
+
+        Assert.assertTrue(new EchoEnvironments(echo(), EchoConst.COMMAND_NEW,
+                new Function<EchoUtil, EchoNew>() {
+                    @Override
+                    public EchoNew apply(EchoUtil echo) {
+                        return new EchoNew(echo);
+                    }
+                }).call());
+
+        Assert.assertEquals(Sets.newHashSet(RdsFind.instanceIdentifiers(rds.instances())),
+                ImmutableSet.of("development-2015-06-02", "staging-2015-06-02"));
+        Assert.assertEquals(rds.scans(), 1);
+    }
+
+    EchoUtil echo() {
+        EchoUtil echo = new EchoUtil(new EchoCfg(properties),
+                new EchoClients(rds, new SimulatedRoute53(clock, faults)), clock);
+        echos.add(echo);
+        return echo;
+    }
+}
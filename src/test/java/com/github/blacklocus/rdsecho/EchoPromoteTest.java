@@ -0,0 +1,205 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class EchoPromoteTest {
+
+    static final String ZONE_ID = "/hostedzone/Z1";
+    static final String CNAME = "dev.domain.com.";
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    SimulatedRoute53 route53;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+        route53 = new SimulatedRoute53(clock, faults).withPropagationMillis(0);
+        route53.addHostedZone(ZONE_ID, "domain.com.");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void promoteWritesTagsOnceForEachInstance() throws Exception {
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_FORGOTTEN));
+        rds.addInstance("development-2015-01-02", new DateTime(2015, 1, 2, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        rds.addInstance("development-2015-01-03", new DateTime(2015, 1, 3, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_REBOOTED));
+
+        Assert.assertTrue(new EchoPromote(echo()).call());
+
+        // Promote tags and stage in one call for the promoted instance, one demotion for each of the others
+        Assert.assertEquals(faults.calls("AddTagsToResource"), 3);
+        Assert.assertEquals(rds.tag("development-2015-01-03", stageKey()).get(), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(rds.tag("development-2015-01-03", "development").get(), "yes");
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_FORGOTTEN);
+    }
+
+    @Test
+    public void weightedPromoteShiftsLookupsInSteps() throws Exception {
+        DBInstance old = rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        DBInstance rebooted = rds.addInstance("development-2015-01-02", new DateTime(2015, 1, 2, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_REBOOTED));
+        pointCnameAt(old);
+
+        properties.setProperty(EchoCfg.PROP_PROMOTE_MODE, "weighted");
+        properties.setProperty(EchoCfg.PROP_PROMOTE_WEIGHTS, "10,50");
+        properties.setProperty(EchoCfg.PROP_PROMOTE_WEIGHT_WINDOW_MINUTES, "30");
+
+        Assert.assertTrue(new EchoPromote(echo()).call());
+        // 15 minutes at each share, after the last of which the CNAME points wholly at the new instance.
+        Assert.assertEquals(clock.currentTimeMillis() - START.getMillis(), TimeUnit.MINUTES.toMillis(30));
+
+        List<Long> weights = Lists.newArrayList();
+        for (Change change : route53.appliedChanges()) {
+            ResourceRecordSet recordSet = change.getResourceRecordSet();
+            if (change.getAction().equals("UPSERT") && "development-2015-01-02".equals(recordSet.getSetIdentifier())) {
+                weights.add(recordSet.getWeight());
+            }
+        }
+        Assert.assertEquals(weights, ImmutableList.of(10L, 50L));
+
+        // Ends on a simple record wholly pointing at the new instance
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), rebooted.getEndpoint().getAddress());
+        Assert.assertEquals(route53.recordSets(ZONE_ID).size(), 1);
+    }
+
+    @Test
+    public void promoteGateRefusesASlowerInstance() throws Exception {
+        DBInstance old = rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        pointCnameAt(old);
+        DBInstance rebooted = rds.addInstance("development-2015-01-02", START.minusHours(1).toDate(),
+                managed(), stage(EchoConst.STAGE_REBOOTED));
+        // The candidate has far more to sum than the instance it would replace.
+        execute(old, "CREATE TABLE t AS SELECT x AS v FROM SYSTEM_RANGE(1, 10)");
+        execute(rebooted, "CREATE TABLE t AS SELECT x AS v FROM SYSTEM_RANGE(1, 20000)");
+
+        File probe = Files.createTempFile("probe", ".sql").toFile();
+        Files.write(probe.toPath(), "SELECT SUM(v * RAND()) FROM t;".getBytes(StandardCharsets.UTF_8));
+
+        properties.setProperty(EchoCfg.PROP_JDBC_URL, "jdbc:h2:mem:{host};DB_CLOSE_DELAY=-1");
+        properties.setProperty(EchoCfg.PROP_PROMOTE_GATE_QUERIES_FILE, probe.getPath());
+        properties.setProperty(EchoCfg.PROP_PROMOTE_GATE_ITERATIONS, "5");
+        properties.setProperty(EchoCfg.PROP_PROMOTE_GATE_CONCURRENCY, "2");
+
+        Assert.assertFalse(new EchoPromote(echo()).call());
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_REBOOTED);
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), old.getEndpoint().getAddress());
+
+        // Once it is the faster of the two, it is promoted.
+        execute(rebooted, "DELETE FROM t WHERE v > 10");
+        execute(old, "INSERT INTO t SELECT x AS v FROM SYSTEM_RANGE(11, 20000)");
+
+        Assert.assertTrue(new EchoPromote(echo()).call());
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), rebooted.getEndpoint().getAddress());
+    }
+
+    /**
+     * Runs a statement against the H2 database standing in for the instance's endpoint
+     */
+    static void execute(DBInstance instance, String sql) throws SQLException {
+        String url = "jdbc:h2:mem:" + instance.getEndpoint().getAddress() + ";DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    EchoUtil echo() {
+        EchoUtil echo = new EchoUtil(new EchoCfg(properties), new EchoClients(rds, route53), clock);
+        echos.add(echo);
+        return echo;
+    }
+
+    void pointCnameAt(DBInstance instance) {
+        route53.addRecordSets(ZONE_ID, ImmutableList.of(new ResourceRecordSet(CNAME, RRType.CNAME)
+                .withTTL(300L)
+                .withResourceRecords(new ResourceRecord(instance.getEndpoint().getAddress()))));
+    }
+
+    Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, "development")).withValue("true");
+    }
+
+    Tag stage(String stage) {
+        return new Tag().withKey(stageKey()).withValue(stage);
+    }
+
+    String stageKey() {
+        return String.format(EchoConst.TAG_ECHO_STAGE_FMT, "development");
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.AddTagsToResourceResult;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class EchoRetireTest {
+
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void retiresEveryForgottenInstanceAndWaitsForThemToGo() throws Exception {
+        properties.setProperty(EchoCfg.PROP_RETIRE_AWAIT_DELETED, "true");
+        for (int day = 1; day <= 5; day++) {
+            rds.addInstance("development-2015-01-0" + day, new DateTime(2015, 1, day, 0, 0).toDate(),
+                    managed(), stage(EchoConst.STAGE_FORGOTTEN));
+        }
+        rds.addInstance("development-2015-01-06", new DateTime(2015, 1, 6, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+
+        Assert.assertTrue(new EchoRetire(echo()).call());
+
+        Assert.assertEquals(RdsFind.instanceIdentifiers(rds.instances()), ImmutableList.of("development-2015-01-06"));
+        Assert.assertEquals(faults.calls("AddTagsToResource"), 5);
+    }
+
+    @Test
+    public void reportsFailuresWithoutStoppingTheOthers() throws Exception {
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_FORGOTTEN));
+        rds.addInstance("development-2015-01-02", new DateTime(2015, 1, 2, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_FORGOTTEN));
+        rds.modifyDBInstance(new ModifyDBInstanceRequest()
+                .withDBInstanceIdentifier("development-2015-01-01")
+                .withDeletionProtection(true));
+        clock.advance(TimeUnit.MINUTES.toMillis(3));
+
+        Assert.assertFalse(new EchoRetire(echo()).call());
+
+        Assert.assertEquals(rds.tag("development-2015-01-01", stageKey()).get(), EchoConst.STAGE_FORGOTTEN);
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_RETIRED);
+        Assert.assertEquals(rds.instance("development-2015-01-02").get().getDBInstanceStatus(), "deleting");
+    }
+
+    @Test
+    public void stillAwaitsWhatWasRetiredWhenTaggingFails() throws Exception {
+        properties.setProperty(EchoCfg.PROP_RETIRE_AWAIT_DELETED, "true");
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults) {
+            @Override
+            public AddTagsToResourceResult addTagsToResource(AddTagsToResourceRequest request) {
+                AmazonServiceException e = new AmazonServiceException("Not authorized");
+                e.setErrorCode("AccessDenied");
+                e.setStatusCode(403);
+                throw e;
+            }
+        };
+        rds.addInstance("development-2015-01-01", new DateTime(2015, 1, 1, 0, 0).toDate(),
+                managed(), stage(EchoConst.STAGE_FORGOTTEN));
+
+        Assert.assertFalse(new EchoRetire(echo()).call());
+
+        Assert.assertTrue(rds.instances().isEmpty());
+    }
+
+    EchoUtil echo() {
+        EchoCfg cfg = new EchoCfg(properties);
+        EchoUtil echo = new EchoUtil(cfg, new EchoClients(rds, new SimulatedRoute53(clock, faults)), clock);
+        echos.add(echo);
+        return echo;
+    }
+
+    Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, "development")).withValue("true");
+    }
+
+    Tag stage(String stage) {
+        return new Tag().withKey(stageKey()).withValue(stage);
+    }
+
+    String stageKey() {
+        return String.format(EchoConst.TAG_ECHO_STAGE_FMT, "development");
+    }
+}
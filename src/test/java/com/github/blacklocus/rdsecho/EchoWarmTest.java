@@ -0,0 +1,125 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+
+public class EchoWarmTest {
+
+    static final String ZONE_ID = "/hostedzone/Z1";
+    static final String CNAME = "dev.domain.com.";
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    PropertiesConfiguration properties;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    SimulatedRoute53 route53;
+    final List<EchoUtil> echos = Lists.newArrayList();
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults();
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+        route53 = new SimulatedRoute53(clock, faults).withPropagationMillis(0);
+        route53.addHostedZone(ZONE_ID, "domain.com.");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (EchoUtil echo : echos) {
+            echo.close();
+        }
+        echos.clear();
+    }
+
+    @Test
+    public void warmsBeforePromoting() throws Exception {
+        DBInstance rebooted = rds.addInstance("development-2015-01-02", START.minusHours(1).toDate(),
+                managed(), stage(EchoConst.STAGE_REBOOTED));
+        // Stands in for the database behind the instance's endpoint
+        String url = "jdbc:h2:mem:" + rebooted.getEndpoint().getAddress() + ";DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE orders AS SELECT x AS id FROM SYSTEM_RANGE(1, 100)");
+        }
+
+        properties.setProperty(EchoCfg.PROP_JDBC_URL, "jdbc:h2:mem:{host};DB_CLOSE_DELAY=-1");
+        properties.setProperty(EchoCfg.PROP_WARM_TABLES, "orders");
+
+        // Not yet warmed, so not promoted
+        Assert.assertFalse(new EchoPromote(echo()).call());
+
+        Assert.assertTrue(new EchoWarm(echo()).call());
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_WARMED);
+
+        Assert.assertTrue(new EchoPromote(echo()).call());
+        Assert.assertEquals(rds.tag("development-2015-01-02", stageKey()).get(), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), rebooted.getEndpoint().getAddress());
+    }
+
+    EchoUtil echo() {
+        EchoUtil echo = new EchoUtil(new EchoCfg(properties), new EchoClients(rds, route53), clock);
+        echos.add(echo);
+        return echo;
+    }
+
+    Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, "development")).withValue("true");
+    }
+
+    Tag stage(String stage) {
+        return new Tag().withKey(stageKey()).withValue(stage);
+    }
+
+    String stageKey() {
+        return String.format(EchoConst.TAG_ECHO_STAGE_FMT, "development");
+    }
+}
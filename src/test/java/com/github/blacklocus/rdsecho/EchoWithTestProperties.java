@@ -55,4 +55,10 @@ public class EchoWithTestProperties {
         }
     }
 
+    public static class Daemon {
+        public static void main(String[] args) throws Exception {
+            EchoDaemon.main(args);
+        }
+    }
+
 }
@@ -0,0 +1,231 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRds;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.github.blacklocus.rdsecho.utl.ApiRateLimiter;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole refreshes run by the daemon against simulated RDS and Route53 holding as much as a busy account does, with
+ * every call taking a while and some throttled, all on a virtual clock.
+ */
+public class SimulatedRefreshTest {
+
+    static final String ZONE_ID = "/hostedzone/Z1";
+    static final String CNAME = "dev.domain.com.";
+    static final DateTime START = new DateTime(2015, 6, 2, 12, 0, DateTimeZone.UTC);
+
+    EchoCfg cfg;
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+    SimulatedRoute53 route53;
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, IOException {
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, Files.createTempDirectory("rdsecho").toString());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        cfg = new EchoCfg(properties);
+
+        clock = new VirtualClock(START.getMillis());
+        faults = new Faults(42).withLatencyMillis(50);
+        rds = new SimulatedRds(cfg.region(), cfg.accountNumber(), clock, faults);
+        rds.addSnapshot(cfg.snapshotDbInstanceIdentifier(), "rds:production-2015-06-02", "automated",
+                START.minusHours(6).toDate());
+        for (int i = 0; i < 3000; i++) {
+            rds.addInstance(String.format("app-%04d", i), START.minusDays(30).toDate(),
+                    new Tag().withKey("team").withValue("team-" + i % 7));
+        }
+
+        route53 = new SimulatedRoute53(clock, faults);
+        route53.addHostedZone(ZONE_ID, "domain.com.");
+        List<ResourceRecordSet> hosts = Lists.newArrayList();
+        for (int i = 0; i < 5000; i++) {
+            hosts.add(new ResourceRecordSet(String.format("host-%04d.domain.com.", i), RRType.A)
+                    .withTTL(300L)
+                    .withResourceRecords(new ResourceRecord("10.0." + i / 256 + "." + i % 256)));
+        }
+        route53.addRecordSets(ZONE_ID, hosts);
+    }
+
+    @Test(timeOut = 60000)
+    public void runsARefreshAmongThousandsOfInstances() throws Exception {
+        DBInstance old = rds.addInstance("development-2015-05-01", START.minusDays(32).toDate(),
+                managed(), stage(EchoConst.STAGE_PROMOTED));
+        route53.addRecordSets(ZONE_ID, ImmutableList.of(new ResourceRecordSet(CNAME, RRType.CNAME)
+                .withTTL(300L)
+                .withResourceRecords(new ResourceRecord(old.getEndpoint().getAddress()))));
+        faults.withThrottleRate("ListTagsForResource", 0.05).withThrottleRate("AddTagsToResource", 0.05);
+
+        // The costliest discovery: tags listed for every instance in the region, a few of those calls throttled.
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, cfg.cacheDir().getPath());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "any");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_TAGS, "list");
+        EchoCfg cfg = new EchoCfg(properties);
+
+        EchoClients clients = new EchoClients(rds, route53);
+        try (EchoUtil echo = new EchoUtil(cfg, clients, clock)) {
+            Assert.assertTrue(new EchoDaemon(echo).call());
+        }
+
+        String newId = "development-2015-06-02";
+        Optional<DBInstance> promoted = rds.instance(newId);
+        Assert.assertTrue(promoted.isPresent());
+        Assert.assertEquals(tag(promoted.get(), stageKey()), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(tag(promoted.get(), "development"), "yes");
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(), promoted.get().getEndpoint().getAddress());
+
+        // The old instance is on its way out once the new one is promoted, and the rest of the account was left alone.
+        Assert.assertEquals(rds.instance("development-2015-05-01").get().getDBInstanceStatus(), "deleting");
+        Assert.assertEquals(rds.instances().size(), 3002);
+        Assert.assertTrue(faults.calls("ListTagsForResource") > 3000);
+        Assert.assertTrue(faults.throttles("ListTagsForResource") > 0);
+        Assert.assertEquals(faults.calls("ModifyDBInstance"), 1);
+        Assert.assertEquals(faults.calls("RebootDBInstance"), 1);
+
+        // Every call was counted against the command that made it, and throttled tag reads were retried.
+        long listTagsCalls = 0;
+        long listTagsRetries = 0;
+        for (ApiMetrics.Series series : clients.metrics().series()) {
+            if (series.operation().equals("ListTagsForResource")) {
+                listTagsCalls += series.calls();
+                listTagsRetries += series.retries();
+            } else if (series.operation().equals("RebootDBInstance")) {
+                Assert.assertEquals(series.stage(), EchoConst.COMMAND_REBOOT);
+                Assert.assertEquals(series.calls(), 1);
+            }
+        }
+        Assert.assertEquals(listTagsCalls, faults.calls("ListTagsForResource"));
+        Assert.assertTrue(listTagsRetries > 0);
+
+        // Restoring alone takes a quarter of an hour, which the run spends waiting.
+        Assert.assertTrue(clock.currentTimeMillis() - START.getMillis() > TimeUnit.MINUTES.toMillis(15));
+        Map<String, Long> criticalPath = clients.report().criticalPathMillis();
+        Assert.assertEquals(criticalPath.keySet().iterator().next(), RunReport.WAIT);
+        Assert.assertTrue(criticalPath.containsKey(RunReport.DISCOVERY));
+        Assert.assertTrue(criticalPath.containsKey(RunReport.MUTATE));
+    }
+
+    @Test(timeOut = 60000)
+    public void pacesTagReadsToTheAccountLimit() throws Exception {
+        // The account allows far fewer tag reads than the budget, having others to share them with.
+        faults.withAccountLimit("ListTagsForResource", 4, 8);
+        PropertiesConfiguration properties = new PropertiesConfiguration("rdsecho.properties.sample");
+        properties.setProperty(EchoCfg.PROP_INTERACTIVE, "false");
+        properties.setProperty(EchoCfg.PROP_CACHE_DIR, cfg.cacheDir().getPath());
+        properties.setProperty(EchoCfg.PROP_CACHE_INSTANCES_TTL_MINUTES, "60");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_NAMES, "any");
+        properties.setProperty(EchoCfg.PROP_DISCOVERY_TAGS, "list");
+        EchoCfg cfg = new EchoCfg(properties);
+
+        ApiRateLimiter limiter = new ApiRateLimiter(cfg::rateLimitPerSecond, cfg.rateLimitMaxAttempts(), clock);
+        EchoClients clients = new EchoClients(rds, route53, limiter, cfg.region());
+        try (EchoUtil echo = new EchoUtil(cfg, clients, clock)) {
+            Assert.assertTrue(new EchoDaemon(echo).call());
+        }
+        Assert.assertTrue(rds.instance("development-2015-06-02").isPresent());
+
+        // Slowed down to about what the account allows, after which few reads were throttled.
+        Assert.assertTrue(limiter.perSecond("rds", cfg.region(), "ListTagsForResource") < 8);
+        Assert.assertTrue(faults.calls("ListTagsForResource") > 3000);
+        Assert.assertTrue(faults.throttles("ListTagsForResource") < faults.calls("ListTagsForResource") / 10);
+    }
+
+    @Test(timeOut = 60000)
+    public void refreshesDailyForAWeek() throws Exception {
+        for (int day = 0; day < 7; day++) {
+            try (EchoUtil echo = new EchoUtil(cfg, new EchoClients(rds, route53), clock)) {
+                Assert.assertTrue(new EchoDaemon(echo).call());
+            }
+            clock.advance(TimeUnit.DAYS.toMillis(1));
+            rds.addSnapshot(cfg.snapshotDbInstanceIdentifier(), "rds:production-" + day, "automated",
+                    new Date(clock.currentTimeMillis()));
+        }
+
+        List<String> echoIds = Lists.newArrayList();
+        for (DBInstance instance : rds.instances()) {
+            if (instance.getDBInstanceIdentifier().startsWith(cfg.name())) {
+                echoIds.add(instance.getDBInstanceIdentifier());
+            }
+        }
+        // Only the instance promoted last is left.
+        Assert.assertEquals(echoIds.size(), 1);
+        Assert.assertEquals(route53.cname(ZONE_ID, CNAME).get(),
+                rds.instance(echoIds.get(0)).get().getEndpoint().getAddress());
+    }
+
+    String tag(DBInstance instance, String key) {
+        for (Tag tag : instance.getTagList()) {
+            if (tag.getKey().equals(key)) {
+                return tag.getValue();
+            }
+        }
+        return null;
+    }
+
+    Tag managed() {
+        return new Tag().withKey(String.format(EchoConst.TAG_ECHO_MANAGED_FMT, cfg.name())).withValue("true");
+    }
+
+    Tag stage(String stage) {
+        return new Tag().withKey(stageKey()).withValue(stage);
+    }
+
+    String stageKey() {
+        return String.format(EchoConst.TAG_ECHO_STAGE_FMT, cfg.name());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.AmazonRDSException;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.InvalidDBInstanceStateException;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+public class SimulatedRdsTest {
+
+    VirtualClock clock;
+    Faults faults;
+    SimulatedRds rds;
+
+    @BeforeMethod
+    public void setUp() {
+        clock = new VirtualClock(0);
+        faults = new Faults(7);
+        rds = new SimulatedRds("us-east-1", "1234567890", clock, faults);
+        rds.addSnapshot("production", "rds:production-1", "automated", new Date(0));
+    }
+
+    @Test
+    public void restoredInstanceIsCreatingUntilItIsAvailable() {
+        DBInstance creating = rds.restoreDBInstanceFromDBSnapshot(new RestoreDBInstanceFromDBSnapshotRequest()
+                .withDBSnapshotIdentifier("rds:production-1")
+                .withDBInstanceIdentifier("development-1")
+                .withTags(new Tag().withKey("stage").withValue("new")));
+        Assert.assertEquals(creating.getDBInstanceStatus(), "creating");
+        Assert.assertNull(creating.getEndpoint());
+        Assert.assertNull(creating.getInstanceCreateTime());
+
+        // A tag written while creating is still there once available.
+        rds.addTagsToResource(new AddTagsToResourceRequest()
+                .withResourceName(RdsFind.instanceArn("us-east-1", "1234567890", "development-1"))
+                .withTags(new Tag().withKey("stage").withValue("modified")));
+
+        clock.advance(TimeUnit.MINUTES.toMillis(15));
+        DBInstance available = rds.instance("development-1").get();
+        Assert.assertEquals(available.getDBInstanceStatus(), "available");
+        Assert.assertEquals(available.getEndpoint().getPort(), Integer.valueOf(3306));
+        Assert.assertEquals(available.getInstanceCreateTime(), new Date(clock.currentTimeMillis()));
+        Assert.assertEquals(available.getTagList().get(0).getValue(), "modified");
+    }
+
+    @Test(expectedExceptions = InvalidDBInstanceStateException.class)
+    public void refusesToModifyAnInstanceThatIsNotAvailable() {
+        rds.addInstance("development-1", new Date(0));
+        rds.modifyDBInstance(new ModifyDBInstanceRequest().withDBInstanceIdentifier("development-1")
+                .withBackupRetentionPeriod(0));
+        rds.modifyDBInstance(new ModifyDBInstanceRequest().withDBInstanceIdentifier("development-1")
+                .withBackupRetentionPeriod(1));
+    }
+
+    @Test
+    public void pagesDescribedInstances() {
+        for (int i = 0; i < 250; i++) {
+            rds.addInstance("app-" + i, new Date(0));
+        }
+        int pages = 0;
+        int instances = 0;
+        String marker = null;
+        do {
+            DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest()
+                    .withMarker(marker));
+            pages++;
+            instances += result.getDBInstances().size();
+            marker = result.getMarker();
+        } while (marker != null);
+        Assert.assertEquals(pages, 3);
+        Assert.assertEquals(instances, 250);
+    }
+
+    @Test
+    public void staleReadsSeeTagsAsTheyWere() {
+        rds.addInstance("development-1", new Date(0), new Tag().withKey("stage").withValue("new"));
+        clock.advance(TimeUnit.MINUTES.toMillis(5));
+        rds.addTagsToResource(new AddTagsToResourceRequest()
+                .withResourceName(RdsFind.instanceArn("us-east-1", "1234567890", "development-1"))
+                .withTags(new Tag().withKey("stage").withValue("modified")));
+
+        faults.withStaleReads(1, TimeUnit.MINUTES.toMillis(1));
+        Assert.assertEquals(rds.listTagsForResource(new ListTagsForResourceRequest()
+                .withResourceName(RdsFind.instanceArn("us-east-1", "1234567890", "development-1")))
+                .getTagList().get(0).getValue(), "new");
+
+        clock.advance(TimeUnit.MINUTES.toMillis(1));
+        Assert.assertEquals(rds.listTagsForResource(new ListTagsForResourceRequest()
+                .withResourceName(RdsFind.instanceArn("us-east-1", "1234567890", "development-1")))
+                .getTagList().get(0).getValue(), "modified");
+    }
+
+    @Test
+    public void throttlesAndTakesTimeAsTold() {
+        faults.withLatencyMillis(100).withThrottleRate("DescribeDBInstances", 1);
+        try {
+            rds.describeDBInstances(new DescribeDBInstancesRequest());
+            Assert.fail("Expected the call to be throttled");
+        } catch (AmazonRDSException e) {
+            Assert.assertEquals(e.getErrorCode(), "Throttling");
+        }
+        Assert.assertEquals(clock.currentTimeMillis(), 100);
+        Assert.assertEquals(faults.throttles("DescribeDBInstances"), 1);
+    }
+}
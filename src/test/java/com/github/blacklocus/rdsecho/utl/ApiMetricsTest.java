@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.rds.AbstractAmazonRDS;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ApiMetricsTest {
+
+    @Test
+    public void countsCallsErrorsAndThrottlesPerStage() throws Exception {
+        ApiMetrics metrics = new ApiMetrics();
+        final AmazonRDS rds = metrics.instrument(new ThrottlingRds(1));
+
+        rds.describeDBInstances(new DescribeDBInstancesRequest());
+        ApiMetrics.inStage("promote", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    rds.listTagsForResource(new ListTagsForResourceRequest());
+                    Assert.fail();
+                } catch (AmazonServiceException e) {
+                    Assert.assertEquals(e.getErrorCode(), "Throttling");
+                }
+                return rds.listTagsForResource(new ListTagsForResourceRequest());
+            }
+        });
+        Assert.assertEquals(ApiMetrics.stage(), ApiMetrics.NO_STAGE);
+
+        List<ApiMetrics.Series> series = metrics.series();
+        Assert.assertEquals(series.size(), 2);
+        Assert.assertEquals(series.get(0).operation(), "DescribeDBInstances");
+        Assert.assertEquals(series.get(0).stage(), ApiMetrics.NO_STAGE);
+        Assert.assertEquals(series.get(0).calls(), 1);
+        Assert.assertEquals(series.get(0).errors(), 0);
+        Assert.assertEquals(series.get(1).operation(), "ListTagsForResource");
+        Assert.assertEquals(series.get(1).stage(), "promote");
+        Assert.assertEquals(series.get(1).calls(), 2);
+        Assert.assertEquals(series.get(1).errors(), 1);
+        Assert.assertEquals(series.get(1).throttles(), 1);
+    }
+
+    @Test
+    public void stageIsCarriedToOtherThreads() throws Exception {
+        ApiMetrics metrics = new ApiMetrics();
+        final AmazonRDS rds = metrics.instrument(new ThrottlingRds(0));
+        final ThrottleAwareExecutor executor = new ThrottleAwareExecutor("test", 4);
+
+        ApiMetrics.inStage("retire", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                List<Callable<Object>> calls = Lists.newArrayList();
+                for (int i = 0; i < 8; i++) {
+                    calls.add(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return rds.listTagsForResource(new ListTagsForResourceRequest());
+                        }
+                    });
+                }
+                return executor.invokeAll(calls);
+            }
+        });
+
+        List<ApiMetrics.Series> series = metrics.series();
+        Assert.assertEquals(series.size(), 1);
+        Assert.assertEquals(series.get(0).stage(), "retire");
+        Assert.assertEquals(series.get(0).calls(), 8);
+    }
+
+    @Test
+    public void writesPrometheusText() {
+        ApiMetrics metrics = new ApiMetrics();
+        metrics.instrument(new ThrottlingRds(0)).describeDBInstances(new DescribeDBInstancesRequest());
+
+        String text = metrics.toPrometheus();
+        String labels = "{service=\"rds\",operation=\"DescribeDBInstances\",stage=\"none\"";
+        Assert.assertTrue(text.contains("# TYPE rdsecho_api_calls_total counter\n"));
+        Assert.assertTrue(text.contains("rdsecho_api_calls_total" + labels + "} 1\n"));
+        Assert.assertTrue(text.contains("rdsecho_api_throttles_total" + labels + "} 0\n"));
+        Assert.assertTrue(text.contains("# TYPE rdsecho_api_call_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains("rdsecho_api_call_duration_seconds_bucket" + labels + ",le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(text.contains("rdsecho_api_call_duration_seconds_count" + labels + "} 1\n"));
+    }
+
+    /**
+     * Throttles the first so many calls to ListTagsForResource.
+     */
+    static class ThrottlingRds extends AbstractAmazonRDS {
+
+        final AtomicInteger throttles;
+
+        ThrottlingRds(int throttles) {
+            this.throttles = new AtomicInteger(throttles);
+        }
+
+        @Override
+        public DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+            return new DescribeDBInstancesResult();
+        }
+
+        @Override
+        public ListTagsForResourceResult listTagsForResource(ListTagsForResourceRequest request) {
+            if (throttles.getAndDecrement() > 0) {
+                AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                e.setErrorCode("Throttling");
+                throw e;
+            }
+            return new ListTagsForResourceResult();
+        }
+    }
+}
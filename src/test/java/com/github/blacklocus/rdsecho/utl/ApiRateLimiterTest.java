@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.google.common.base.Throwables;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ApiRateLimiterTest {
+
+    static final String REGION = "us-east-1";
+
+    @Test
+    public void pacesEachOperationToItsBudget() {
+        VirtualClock clock = new VirtualClock(0);
+        ApiRateLimiter limiter = new ApiRateLimiter(new ApiRateLimiter.Budgets() {
+            @Override
+            public double perSecond(String service, String operation) {
+                return operation.equals("ListTagsForResource") ? 10 : 100;
+            }
+        }, 3, clock);
+        AmazonRDS rds = limiter.limit(REGION, new ApiMetricsTest.ThrottlingRds(0), new ApiMetrics());
+
+        // A second's worth of calls goes at once, and the rest at the budgeted rate.
+        for (int i = 0; i < 30; i++) {
+            rds.listTagsForResource(new ListTagsForResourceRequest());
+        }
+        Assert.assertEquals(clock.currentTimeMillis(), 2000);
+
+        // Other operations have buckets of their own.
+        for (int i = 0; i < 100; i++) {
+            rds.describeDBInstances(new DescribeDBInstancesRequest());
+        }
+        Assert.assertEquals(clock.currentTimeMillis(), 2000);
+    }
+
+    @Test
+    public void slowsDownWhenThrottledAndRecovers() {
+        VirtualClock clock = new VirtualClock(0);
+        ApiMetrics metrics = new ApiMetrics();
+        ApiRateLimiter limiter = new ApiRateLimiter(budget(16), 5, clock);
+        AmazonRDS rds = limiter.limit(REGION, metrics.instrument(new ApiMetricsTest.ThrottlingRds(2)), metrics);
+
+        // Throttled twice in quick succession, which halves the rate only once, then retried until it goes through.
+        rds.listTagsForResource(new ListTagsForResourceRequest());
+        Assert.assertEquals(limiter.perSecond("rds", REGION, "ListTagsForResource"), 8 + 1.0 / 8, 0.001);
+        ApiMetrics.Series series = metrics.series().get(0);
+        Assert.assertEquals(series.calls(), 3);
+        Assert.assertEquals(series.throttles(), 2);
+        Assert.assertEquals(series.retries(), 2);
+
+        for (int i = 0; i < 200; i++) {
+            rds.listTagsForResource(new ListTagsForResourceRequest());
+        }
+        Assert.assertEquals(limiter.perSecond("rds", REGION, "ListTagsForResource"), 16, 0.001);
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        VirtualClock clock = new VirtualClock(0);
+        ApiRateLimiter limiter = new ApiRateLimiter(budget(16), 3, clock);
+        AmazonRDS rds = limiter.limit(REGION, new ApiMetricsTest.ThrottlingRds(10), new ApiMetrics());
+
+        try {
+            rds.listTagsForResource(new ListTagsForResourceRequest());
+            Assert.fail();
+        } catch (AmazonServiceException e) {
+            Assert.assertEquals(e.getErrorCode(), "Throttling");
+        }
+        // Slowed once, the throttles all coming within a second of the first.
+        Assert.assertEquals(limiter.perSecond("rds", REGION, "ListTagsForResource"), 8, 0.001);
+    }
+
+    @Test
+    public void tagReadsLeaveThrottlingToTheLimiter() {
+        VirtualClock clock = new VirtualClock(0);
+        ApiMetrics metrics = new ApiMetrics();
+        ApiRateLimiter limiter = new ApiRateLimiter(budget(16), 3, clock);
+        AmazonRDS rds = limiter.limit(REGION, metrics.instrument(new ApiMetricsTest.ThrottlingRds(10)), metrics);
+        try (RdsFind rdsFind = new RdsFind(rds, RdsFind.TagDiscovery.LIST, 1, 0, metrics, false)) {
+            rdsFind.listTags(RdsFind.instanceArn(REGION, "123456789012", "development-2015-01-01"));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(ApiRateLimiter.isThrottling(Throwables.getRootCause(e)));
+        }
+        // Only the limiter's attempts, rather than each of them made again by the retryer.
+        Assert.assertEquals(metrics.series().get(0).calls(), 3);
+    }
+
+    static ApiRateLimiter.Budgets budget(final double perSecond) {
+        return new ApiRateLimiter.Budgets() {
+            @Override
+            public double perSecond(String service, String operation) {
+                return perSecond;
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class EchoInventoryTest {
+
+    @Test
+    public void indexesByIdentifierAndTag() {
+        DBInstance one = new DBInstance().withDBInstanceIdentifier("development-2015-01-01").withTagList(
+                new Tag().withKey("rdsecho:development:managed").withValue("true"),
+                new Tag().withKey("rdsecho:development:stage").withValue("promoted"));
+        DBInstance two = new DBInstance().withDBInstanceIdentifier("development-2015-01-02").withTagList(
+                new Tag().withKey("rdsecho:development:managed").withValue("true"),
+                new Tag().withKey("rdsecho:development:stage").withValue("new"));
+        DBInstance production = new DBInstance().withDBInstanceIdentifier("production");
+
+        EchoInventory inventory = new EchoInventory(ImmutableList.of(one, two, production), new Function<DBInstance, List<Tag>>() {
+            @Override
+            public List<Tag> apply(DBInstance instance) {
+                return instance.getTagList();
+            }
+        });
+
+        Assert.assertSame(inventory.instance("production").get(), production);
+        Assert.assertFalse(inventory.instance("staging").isPresent());
+
+        Assert.assertEquals(inventory.instancesTagged("rdsecho:development:managed", "true"), ImmutableList.of(one, two));
+        Assert.assertTrue(inventory.instancesTagged("rdsecho:development:managed", "false").isEmpty());
+
+        Assert.assertEquals(inventory.tag("development-2015-01-02", "rdsecho:development:stage").get().getValue(), "new");
+        Assert.assertFalse(inventory.tag("production", "rdsecho:development:stage").isPresent());
+        Assert.assertTrue(inventory.tags("production").isEmpty());
+    }
+}
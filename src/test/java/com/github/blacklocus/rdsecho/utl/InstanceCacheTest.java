@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+public class InstanceCacheTest {
+
+    static final String SCOPE = "us-east-1/123456789012/development,staging";
+
+    @Test
+    public void remembersUntilTheTimeToLive() throws IOException {
+        File file = new File(Files.createTempDirectory("rdsecho").toFile(), "instances.properties");
+        InstanceWaiterTest.FakeClock clock = new InstanceWaiterTest.FakeClock();
+        long ttl = TimeUnit.MINUTES.toMillis(60);
+
+        InstanceCache cache = new InstanceCache(file, SCOPE, clock, ttl);
+        cache.remember("development-2015-01-01");
+        Assert.assertFalse(cache.get().isPresent());
+
+        cache.scanned(ImmutableList.of("development-2015-01-01", "staging-2015-01-01"));
+        clock.sleep(TimeUnit.MINUTES.toMillis(30));
+        cache.remember("development-2015-01-02");
+        cache.retain(ImmutableList.of("development-2015-01-02", "staging-2015-01-01"));
+
+        // Read back by a later run.
+        InstanceCache later = new InstanceCache(file, SCOPE, clock, ttl);
+        Assert.assertEquals(later.get().get(), ImmutableSet.of("staging-2015-01-01", "development-2015-01-02"));
+
+        // Remembering an instance does not extend the time to live of the scan.
+        clock.sleep(TimeUnit.MINUTES.toMillis(30));
+        Assert.assertFalse(later.get().isPresent());
+    }
+
+    @Test
+    public void onlyTrustedWithinItsScope() throws IOException {
+        File file = new File(Files.createTempDirectory("rdsecho").toFile(), "instances.properties");
+        InstanceWaiterTest.FakeClock clock = new InstanceWaiterTest.FakeClock();
+        long ttl = TimeUnit.MINUTES.toMillis(60);
+        new InstanceCache(file, SCOPE, clock, ttl).scanned(ImmutableList.of("development-2015-01-01"));
+
+        // Another region, or another set of environments, scans for itself.
+        InstanceCache other = new InstanceCache(file, "us-west-2/123456789012/development,staging", clock, ttl);
+        Assert.assertFalse(other.get().isPresent());
+        other.remember("development-2015-01-02");
+        Assert.assertFalse(new InstanceCache(file, "us-east-1/123456789012/development", clock, ttl).get().isPresent());
+        Assert.assertEquals(new InstanceCache(file, SCOPE, clock, ttl).get().get(),
+                ImmutableSet.of("development-2015-01-01"));
+
+        other.scanned(ImmutableList.of("development-2015-01-02"));
+        Assert.assertFalse(new InstanceCache(file, SCOPE, clock, ttl).get().isPresent());
+    }
+
+    @Test
+    public void disabledWithoutATimeToLive() throws IOException {
+        File file = new File(Files.createTempDirectory("rdsecho").toFile(), "instances.properties");
+        InstanceCache cache = new InstanceCache(file, SCOPE, new InstanceWaiterTest.FakeClock(), 0);
+        cache.scanned(ImmutableList.of("development-2015-01-01"));
+
+        Assert.assertFalse(cache.get().isPresent());
+        Assert.assertFalse(file.exists());
+    }
+}
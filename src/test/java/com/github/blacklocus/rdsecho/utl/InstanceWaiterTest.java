@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AbstractAmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+public class InstanceWaiterTest {
+
+    @Test
+    public void backsOffUntilStatusChanges() throws InterruptedException {
+        ScriptedRds rds = new ScriptedRds();
+        rds.script("one", "creating", "creating", "creating", "creating", "modifying", "available");
+        FakeClock clock = new FakeClock();
+
+        InstanceWaiter waiter = new InstanceWaiter(rds, clock, 1000, 3000, 0);
+        Assert.assertTrue(waiter.awaitAvailable("one", 60000).isPresent());
+
+        // Back to the minimum after each change of status, growing by half otherwise.
+        Assert.assertEquals(clock.sleeps, ImmutableList.of(1000L, 1500L, 2250L, 3000L, 1000L));
+        Assert.assertEquals(rds.calls, 6);
+    }
+
+    @Test
+    public void readsSeveralInstancesInOneCall() throws InterruptedException {
+        ScriptedRds rds = new ScriptedRds();
+        rds.script("one", "rebooting", "available");
+        rds.script("two", "modifying", "modifying", "available");
+        rds.script("three", "failed");
+        FakeClock clock = new FakeClock();
+
+        Map<String, DBInstance> available = new InstanceWaiter(rds, clock, 1000, 3000, 0)
+                .awaitAvailable(ImmutableList.of("one", "two", "three", "four"), 60000);
+
+        Assert.assertEquals(Lists.newArrayList(available.keySet()), ImmutableList.of("one", "two"));
+        Assert.assertEquals(rds.calls, 3);
+    }
+
+    @Test
+    public void givesUpAtTheTimeout() throws InterruptedException {
+        ScriptedRds rds = new ScriptedRds();
+        rds.script("one", "creating");
+        FakeClock clock = new FakeClock();
+
+        Assert.assertFalse(new InstanceWaiter(rds, clock, 1000, 3000, 0.2).awaitAvailable("one", 10000).isPresent());
+        Assert.assertEquals(clock.now, 10000);
+    }
+
+    static class FakeClock implements EchoClock {
+
+        long now = 0;
+        final List<Long> sleeps = Lists.newArrayList();
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void sleep(long millis) {
+            sleeps.add(millis);
+            now += millis;
+        }
+    }
+
+    /**
+     * Answers each describe with the next status scripted for each instance asked about, repeating the last one.
+     */
+    static class ScriptedRds extends AbstractAmazonRDS {
+
+        final Map<String, Deque<String>> statuses = Maps.newLinkedHashMap();
+        int calls = 0;
+
+        void script(String dbInstanceIdentifier, String... statuses) {
+            this.statuses.put(dbInstanceIdentifier, Lists.newLinkedList(ImmutableList.copyOf(statuses)));
+        }
+
+        @Override
+        public DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+            calls++;
+            List<DBInstance> instances = Lists.newArrayList();
+            for (String id : request.getFilters().get(0).getValues()) {
+                Deque<String> script = statuses.get(id);
+                if (script != null) {
+                    String status = script.size() > 1 ? script.removeFirst() : script.getFirst();
+                    instances.add(new DBInstance().withDBInstanceIdentifier(id).withDBInstanceStatus(status));
+                }
+            }
+            return new DescribeDBInstancesResult().withDBInstances(instances);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyProbeTest {
+
+    @Test
+    public void percentilesAreNearestRank() {
+        LatencyProbe.Result result = result(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20,
+                100);
+        Assert.assertEquals(result.p50Millis(), 10.0);
+        Assert.assertEquals(result.p99Millis(), 100.0);
+        Assert.assertEquals(result.count(), 22);
+    }
+
+    @Test
+    public void refusesACandidateSlowerThanTheBaseline() {
+        Optional<LatencyProbe.Result> baseline = Optional.of(result(10, 10, 10, 20));
+        Optional<Long> noLimit = Optional.absent();
+
+        Assert.assertFalse(LatencyProbe.verdict(result(11, 11, 11, 22), baseline, 20, noLimit).isPresent());
+        Assert.assertTrue(LatencyProbe.verdict(result(13, 13, 13, 22), baseline, 20, noLimit).isPresent());
+        Assert.assertTrue(LatencyProbe.verdict(result(10, 10, 10, 30), baseline, 20, noLimit).isPresent());
+    }
+
+    @Test
+    public void holdsACandidateWithoutBaselineToTheAbsoluteLimit() {
+        Optional<LatencyProbe.Result> none = Optional.absent();
+
+        Assert.assertFalse(LatencyProbe.verdict(result(5, 50), none, 20, Optional.<Long>absent()).isPresent());
+        Assert.assertFalse(LatencyProbe.verdict(result(5, 50), none, 20, Optional.of(50L)).isPresent());
+        Assert.assertTrue(LatencyProbe.verdict(result(5, 51), none, 20, Optional.of(50L)).isPresent());
+    }
+
+    @Test
+    public void refusesACandidateWithErrors() {
+        LatencyProbe.Result failing = new LatencyProbe.Result(millis(1, 1), 1, TimeUnit.SECONDS.toNanos(1));
+
+        Assert.assertEquals(LatencyProbe.verdict(failing, Optional.<LatencyProbe.Result>absent(), 20,
+                Optional.<Long>absent()).get(), "candidate failed 1 of 3 probe statements");
+    }
+
+    static LatencyProbe.Result result(long... millis) {
+        return new LatencyProbe.Result(millis(millis), 0, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    static long[] millis(long... millis) {
+        long[] nanos = new long[millis.length];
+        for (int i = 0; i < millis.length; i++) {
+            nanos[i] = TimeUnit.MILLISECONDS.toNanos(millis[i]);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PagingIterableTest {
+
+    @Test
+    public void lazyUntilIterated() {
+        CountingPages pages = new CountingPages(ImmutableList.of(1, 2), ImmutableList.of(3));
+        PagingIterable<Integer> iterable = new PagingIterable<Integer>(pages, 2);
+        Assert.assertEquals(pages.calls.get(), 0);
+
+        Assert.assertEquals(drain(iterable), ImmutableList.of(1, 2, 3));
+    }
+
+    @Test
+    public void readsAheadOnlyPastTheFirstPage() {
+        CountingPages pages = new CountingPages(ImmutableList.of(1, 2), ImmutableList.of(3), ImmutableList.of(4),
+                ImmutableList.of(5));
+        Iterator<Integer> iterator = new PagingIterable<Integer>(pages, 2).iterator();
+
+        // A lookup which stops at the first match.
+        Assert.assertEquals(iterator.next().intValue(), 1);
+        Assert.assertEquals(iterator.next().intValue(), 2);
+        Assert.assertEquals(pages.calls.get(), 1);
+
+        // Moving on to the second page asks for the two after it too.
+        Assert.assertEquals(iterator.next().intValue(), 3);
+        Assert.assertEquals(ImmutableList.copyOf(iterator), ImmutableList.of(4, 5));
+    }
+
+    @Test
+    public void emptyPagesDoNotEndIteration() {
+        for (int prefetch = 0; prefetch < 3; prefetch++) {
+            CountingPages pages = new CountingPages(Collections.<Integer>emptyList(), ImmutableList.of(1),
+                    Collections.<Integer>emptyList(), Collections.<Integer>emptyList(), ImmutableList.of(2, 3));
+            Assert.assertEquals(drain(new PagingIterable<Integer>(pages, prefetch)), ImmutableList.of(1, 2, 3));
+        }
+    }
+
+    @Test
+    public void prefetchKeepsOrder() {
+        List<List<Integer>> raw = Lists.newArrayList();
+        List<Integer> expected = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            raw.add(ImmutableList.of(i * 2, i * 2 + 1));
+            expected.add(i * 2);
+            expected.add(i * 2 + 1);
+        }
+        CountingPages pages = new CountingPages(raw);
+        Assert.assertEquals(drain(new PagingIterable<Integer>(pages, 3)), expected);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void prefetchPropagatesFailure() {
+        Supplier<Iterable<Integer>> failing = new Supplier<Iterable<Integer>>() {
+            int page = 0;
+
+            @Override
+            public Iterable<Integer> get() {
+                if (page++ == 0) {
+                    return ImmutableList.of(1);
+                }
+                throw new IllegalStateException();
+            }
+        };
+        drain(new PagingIterable<Integer>(failing, 2));
+    }
+
+    static <T> List<T> drain(Iterable<T> iterable) {
+        List<T> drained = Lists.newArrayList();
+        Iterables.addAll(drained, iterable);
+        return drained;
+    }
+
+    static class CountingPages implements Supplier<Iterable<Integer>> {
+        final List<List<Integer>> pages;
+        final AtomicInteger calls = new AtomicInteger();
+
+        @SafeVarargs
+        CountingPages(List<Integer>... pages) {
+            this(Lists.<List<Integer>>newArrayList());
+            for (List<Integer> page : pages) {
+                this.pages.add(page);
+            }
+        }
+
+        CountingPages(List<List<Integer>> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public Iterable<Integer> get() {
+            int call = calls.getAndIncrement();
+            return call < pages.size() ? pages.get(call) : null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.HostedZoneConfig;
+import com.github.blacklocus.rdsecho.sim.Faults;
+import com.github.blacklocus.rdsecho.sim.SimulatedRoute53;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class Route53FindTest {
+
+    @Test
+    public void parentNames() {
+        Assert.assertEquals(Route53Find.parentNames("db.dev.Domain.com."),
+                ImmutableList.of("dev.domain.com.", "domain.com.", "com."));
+        Assert.assertEquals(Route53Find.parentNames("dev.domain.com"),
+                ImmutableList.of("domain.com.", "com."));
+        Assert.assertTrue(Route53Find.parentNames("localhost.").isEmpty());
+    }
+
+    @Test
+    public void prefersThePublicZoneOfSplitHorizonZones() {
+        SimulatedRoute53 route53 = new SimulatedRoute53(new VirtualClock(0), new Faults());
+        route53.addHostedZone("ZINTERNAL", "domain.com.")
+                .withConfig(new HostedZoneConfig().withPrivateZone(true));
+        route53.addHostedZone("ZPUBLIC", "domain.com.")
+                .withConfig(new HostedZoneConfig().withPrivateZone(false));
+        route53.addHostedZone("ZOTHER", "a.domain.com.");
+
+        Assert.assertEquals(new Route53Find(route53).hostedZoneFor("db.domain.com.").get().getId(), "ZPUBLIC");
+        Assert.assertEquals(new Route53Find(route53).hostedZoneFor("db.a.domain.com.").get().getId(), "ZOTHER");
+        Assert.assertFalse(new Route53Find(route53).hostedZoneFor("db.elsewhere.org.").isPresent());
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RunReportTest {
+
+    @Test
+    public void criticalPathSkipsSpansRunAlongsideOrInsideOthers() {
+        VirtualClock clock = new VirtualClock(0);
+        RunReport report = new RunReport();
+
+        RunReport.Span discovery = report.start(clock, "development", RunReport.DISCOVERY, null);
+        RunReport.Span tagRead = report.start(clock, "development", RunReport.TAG_READ, "development-1");
+        clock.advance(1000);
+        tagRead.end();
+        // Held up by another environment meanwhile, which ends sooner.
+        RunReport.Span other = report.start(clock, "staging", RunReport.MUTATE, "staging-1");
+        clock.advance(1000);
+        other.end();
+        clock.advance(1000);
+        discovery.end();
+
+        clock.advance(500);
+        RunReport.Span waiting = report.start(clock, "development", RunReport.WAIT, "development-1");
+        clock.advance(TimeUnit.MINUTES.toMillis(10));
+        waiting.end();
+        RunReport.Span modify = report.start(clock, "development", RunReport.MUTATE, "development-1");
+        clock.advance(2000);
+        modify.end();
+
+        List<RunReport.Span> path = report.criticalPath();
+        Assert.assertEquals(path.size(), 3);
+        Assert.assertEquals(path.get(0).phase(), RunReport.DISCOVERY);
+        Assert.assertEquals(path.get(1).phase(), RunReport.WAIT);
+        Assert.assertEquals(path.get(2).phase(), RunReport.MUTATE);
+        Assert.assertEquals(path.get(2).environment(), "development");
+
+        Map<String, Long> millis = report.criticalPathMillis();
+        Assert.assertEquals(millis.keySet().iterator().next(), RunReport.WAIT);
+        Assert.assertEquals(millis.get(RunReport.DISCOVERY), Long.valueOf(3000));
+        Assert.assertEquals(millis.get(RunReport.MUTATE), Long.valueOf(2000));
+        Assert.assertEquals(millis.get(RunReport.IDLE), Long.valueOf(500));
+        Assert.assertEquals(report.summary(), "10m5s over 3 spans: wait 10m (99%), discovery 3s (0%), " +
+                "mutate 2s (0%), idle 500ms (0%)");
+        Assert.assertEquals(report.spans().size(), 5);
+    }
+
+    @Test
+    public void spansAreTakenInTheStageTheyStartIn() throws Exception {
+        final VirtualClock clock = new VirtualClock(0);
+        final RunReport report = new RunReport();
+
+        ApiMetrics.inStage("promote", () -> {
+            report.start(clock, "development", RunReport.TAG_WRITE, "development-1").end();
+            return null;
+        });
+
+        Assert.assertEquals(report.spans().get(0).stage(), "promote");
+        Assert.assertTrue(report.toJson("promote", true).contains("\"phase\" : \"tagWrite\""));
+    }
+
+    @Test
+    public void emptyReport() {
+        RunReport report = new RunReport();
+        Assert.assertTrue(report.criticalPath().isEmpty());
+        Assert.assertEquals(report.summary(), "nothing recorded");
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.github.blacklocus.rdsecho.sim.VirtualClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Callables;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class ThrottleAwareExecutorTest {
+
+    @Test
+    public void keepsOrder() {
+        ThrottleAwareExecutor executor = new ThrottleAwareExecutor("test", 4);
+        List<Callable<Integer>> calls = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            calls.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep((20 - value) % 5);
+                    return value;
+                }
+            });
+        }
+        List<Integer> results = executor.invokeAll(calls);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(results.get(i).intValue(), i);
+        }
+    }
+
+    @Test
+    public void releasesItsThreadsOnceClosed() throws Exception {
+        ThrottleAwareExecutor executor;
+        try (ThrottleAwareExecutor closing = new ThrottleAwareExecutor("test", 4)) {
+            executor = closing;
+            executor.invokeAll(ImmutableList.of(Callables.returning(1), Callables.returning(2)));
+        }
+        Assert.assertTrue(executor.executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void propagatesFailure() {
+        new ThrottleAwareExecutor("test", 2).invokeAll(ImmutableList.of(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return "fine";
+                    }
+                },
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        throw new IllegalStateException();
+                    }
+                }));
+    }
+
+    @Test
+    public void throttlingHalvesConcurrency() throws Exception {
+        VirtualClock clock = new VirtualClock(0);
+        ThrottleAwareExecutor executor = new ThrottleAwareExecutor("test", 8, clock);
+
+        // A burst of throttles at once counts as one.
+        for (int i = 0; i < 3; i++) {
+            throttle(executor);
+            Assert.assertEquals(executor.currentLimit(), 4);
+        }
+
+        for (int expected : new int[]{2, 1, 1}) {
+            clock.advance(ThrottleAwareExecutor.REDUCE_COOLDOWN_MILLIS);
+            throttle(executor);
+            Assert.assertEquals(executor.currentLimit(), expected);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            executor.gate(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return null;
+                }
+            });
+        }
+        Assert.assertEquals(executor.currentLimit(), 2);
+    }
+
+    static void throttle(ThrottleAwareExecutor executor) throws Exception {
+        final AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("Throttling");
+        try {
+            executor.gate(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw throttled;
+                }
+            });
+            Assert.fail();
+        } catch (AmazonServiceException e) {
+            Assert.assertSame(e, throttled);
+        }
+    }
+}
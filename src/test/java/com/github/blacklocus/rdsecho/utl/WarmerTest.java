@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+public class WarmerTest {
+
+    static final String URL = "jdbc:h2:mem:warmer;DB_CLOSE_DELAY=-1";
+
+    @BeforeMethod
+    public void setUp() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            statement.execute("CREATE TABLE orders (id INT PRIMARY KEY, total DECIMAL(10, 2))");
+            statement.execute("INSERT INTO orders SELECT x, x * 1.5 FROM SYSTEM_RANGE(1, 2500)");
+            statement.execute("CREATE TABLE customers (id INT PRIMARY KEY, name VARCHAR(32))");
+            statement.execute("INSERT INTO customers SELECT x, 'customer ' || x FROM SYSTEM_RANGE(1, 40)");
+        }
+    }
+
+    @Test
+    public void readsEveryStatementThrough() throws SQLException {
+        List<String> statements = ImmutableList.<String>builder()
+                .addAll(Warmer.tableScans(ImmutableList.of("orders", "customers")))
+                .addAll(Warmer.statements("SELECT id FROM orders WHERE total > 3000;\n\nSELECT COUNT(*) FROM customers;"))
+                .build();
+
+        Warmer.Result result = warmer().warm(statements, 60000);
+
+        Assert.assertTrue(result.isComplete());
+        Assert.assertEquals(result.completed, 4);
+        Assert.assertEquals(result.rows, 2500 + 40 + 500 + 1);
+    }
+
+    @Test
+    public void reportsWhatDidNotFinish() throws SQLException {
+        Warmer.Result result = warmer().warm(Warmer.tableScans(ImmutableList.of("orders", "invoices")), 60000);
+
+        Assert.assertFalse(result.isComplete());
+        Assert.assertEquals(result.completed, 1);
+        Assert.assertEquals(result.unfinished, ImmutableList.of("SELECT * FROM invoices"));
+    }
+
+    @Test
+    public void startsNothingOnceTimeRunsOut() throws SQLException {
+        Warmer.Result result = warmer().warm(Warmer.tableScans(ImmutableList.of("orders")), 0);
+
+        Assert.assertFalse(result.isComplete());
+        Assert.assertEquals(result.rows, 0);
+    }
+
+    Warmer warmer() throws SQLException {
+        return new Warmer(new JdbcTarget(JdbcTarget.driver(URL, Optional.<File>absent()), URL, new Properties()), 100,
+                2, EchoClock.SYSTEM);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.amazonaws.AbortedException;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * What goes wrong with calls to a simulated service, and how often: how long each call takes, how often one is
+ * throttled, and how often a read sees what was true a while ago rather than now. Rates may be set for all operations
+ * or for one, by its API name, e.g. "ListTagsForResource". Draws come from a seeded {@link Random}, so a run can be
+ * repeated. Counts every call and every throttle, by operation.
+ */
+public class Faults {
+
+    final Random random;
+
+    long latencyMillis = 0;
+    double throttleRate = 0;
+    final Map<String, Double> operationThrottleRates = Maps.newConcurrentMap();
+    final Map<String, AccountLimit> accountLimits = Maps.newConcurrentMap();
+    double staleReadRate = 0;
+    long staleMillis = 0;
+
+    final Multiset<String> calls = ConcurrentHashMultiset.create();
+    final Multiset<String> throttles = ConcurrentHashMultiset.create();
+
+    public Faults() {
+        this(0);
+    }
+
+    public Faults(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param latencyMillis how long each call takes, on the simulation's clock
+     */
+    public Faults withLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param throttleRate the share of calls, 0 to 1, refused as throttled, unless set for the operation
+     */
+    public Faults withThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    public Faults withThrottleRate(String operation, double throttleRate) {
+        operationThrottleRates.put(operation, throttleRate);
+        return this;
+    }
+
+    /**
+     * Throttles calls to the operation beyond what the account is allowed, as AWS does: a bucket of burst calls, refilled
+     * at the given rate on the simulation's clock.
+     */
+    public Faults withAccountLimit(String operation, double perSecond, int burst) {
+        accountLimits.put(operation, new AccountLimit(perSecond, burst));
+        return this;
+    }
+
+    /**
+     * @param staleReadRate the share of reads, 0 to 1, which see things as they were
+     * @param staleMillis   how long ago
+     */
+    public Faults withStaleReads(double staleReadRate, long staleMillis) {
+        this.staleReadRate = staleReadRate;
+        this.staleMillis = staleMillis;
+        return this;
+    }
+
+    public int calls(String operation) {
+        return calls.count(operation);
+    }
+
+    public int throttles(String operation) {
+        return throttles.count(operation);
+    }
+
+    public int throttles() {
+        return throttles.size();
+    }
+
+    /**
+     * Takes the latency of a call and decides whether it is throttled.
+     *
+     * @return whether to refuse the call as throttled
+     */
+    boolean call(String operation, VirtualClock clock) {
+        calls.add(operation);
+        try {
+            clock.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        }
+        Double rate = operationThrottleRates.get(operation);
+        AccountLimit limit = accountLimits.get(operation);
+        if ((limit != null && !limit.take(clock.currentTimeMillis())) || draw(rate == null ? throttleRate : rate)) {
+            throttles.add(operation);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return when a read made now sees things as of
+     */
+    long readTime(VirtualClock clock) {
+        long now = clock.currentTimeMillis();
+        return draw(staleReadRate) ? now - staleMillis : now;
+    }
+
+    boolean draw(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        return random.nextDouble() < rate;
+    }
+
+    static class AccountLimit {
+
+        final double perSecond;
+        final int burst;
+
+        double tokens;
+        long refilledAt = Long.MIN_VALUE;
+
+        AccountLimit(double perSecond, int burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        synchronized boolean take(long now) {
+            if (refilledAt != Long.MIN_VALUE && now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * perSecond / 1000);
+            }
+            refilledAt = Math.max(refilledAt, now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.amazonaws.services.rds.AbstractAmazonRDS;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.AddTagsToResourceResult;
+import com.amazonaws.services.rds.model.AmazonRDSException;
+import com.amazonaws.services.rds.model.CopyDBSnapshotRequest;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBInstanceAlreadyExistsException;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.amazonaws.services.rds.model.DBParameterGroupStatus;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DBSnapshotAlreadyExistsException;
+import com.amazonaws.services.rds.model.DBSnapshotNotFoundException;
+import com.amazonaws.services.rds.model.DeleteDBInstanceRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsResult;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amazonaws.services.rds.model.Filter;
+import com.amazonaws.services.rds.model.InvalidDBInstanceStateException;
+import com.amazonaws.services.rds.model.InvalidDBSnapshotStateException;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.rds.model.VpcSecurityGroupMembership;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RDS simulated in memory, closely enough to run Echo through whole refreshes at scale without AWS. Instances go
+ * through the statuses RDS gives them: restored instances are 'creating' and then 'available', modified ones
+ * 'modifying', rebooted ones 'rebooting', and deleted ones 'deleting' and then gone, each for as long as
+ * {@link #withStatusMillis(String, long)} says on the given {@link VirtualClock}. Like RDS, an instance has no endpoint
+ * or create time until it has been created, and only available instances may be modified or rebooted. Snapshot copies
+ * are 'copying' until they are available. Tags are carried on described instances as well as listed by ARN.
+ * <p>
+ * Every call first goes through the given {@link Faults}, so it may take a while, be throttled, or, for reads, see
+ * instances and tags as they were a while ago.
+ */
+public class SimulatedRds extends AbstractAmazonRDS {
+
+    /**
+     * Records returned per describe call unless MaxRecords says otherwise, as with RDS
+     */
+    static final int DEFAULT_MAX_RECORDS = 100;
+
+    final String region;
+    final String accountNumber;
+    final VirtualClock clock;
+    final Faults faults;
+
+    final Map<String, Long> statusMillis = Maps.newHashMap(ImmutableMap.<String, Long>builder()
+            .put("creating", TimeUnit.MINUTES.toMillis(15))
+            .put("modifying", TimeUnit.MINUTES.toMillis(3))
+            .put("rebooting", TimeUnit.MINUTES.toMillis(2))
+            .put("deleting", TimeUnit.MINUTES.toMillis(8))
+            .put("copying", TimeUnit.MINUTES.toMillis(20))
+            .build());
+
+    /**
+     * By identifier, in the order created, as RDS describes them
+     */
+    final Map<String, Timeline<DBInstance>> instances = Maps.newLinkedHashMap();
+    final Map<String, Timeline<DBSnapshot>> snapshots = Maps.newLinkedHashMap();
+    /**
+     * Where snapshots are copied from, by region
+     */
+    final Map<String, SimulatedRds> sourceRegions = Maps.newHashMap();
+    /**
+     * DescribeDBInstances calls which started listing every instance in the region
+     */
+    int scans = 0;
+
+    public SimulatedRds(String region, String accountNumber, VirtualClock clock, Faults faults) {
+        this.region = region;
+        this.accountNumber = accountNumber;
+        this.clock = clock;
+        this.faults = faults;
+    }
+
+    /**
+     * @param status a transitional status: creating, modifying, rebooting, deleting or copying
+     */
+    public synchronized SimulatedRds withStatusMillis(String status, long millis) {
+        statusMillis.put(status, millis);
+        return this;
+    }
+
+    public synchronized SimulatedRds withSourceRegion(SimulatedRds source) {
+        sourceRegions.put(source.region, source);
+        return this;
+    }
+
+    /**
+     * Adds an instance which has been available since it was created at the given time.
+     */
+    public synchronized DBInstance addInstance(String dbInstanceIdentifier, Date createTime, Tag... tags) {
+        DBInstance instance = available(newInstance(dbInstanceIdentifier, tags)).withInstanceCreateTime(createTime);
+        instances.put(dbInstanceIdentifier, new Timeline<DBInstance>().set(now(), instance));
+        return instance.clone();
+    }
+
+    public synchronized DBSnapshot addSnapshot(String dbInstanceIdentifier, String dbSnapshotIdentifier,
+                                               String snapshotType, Date createTime) {
+        DBSnapshot snapshot = new DBSnapshot()
+                .withDBInstanceIdentifier(dbInstanceIdentifier)
+                .withDBSnapshotIdentifier(dbSnapshotIdentifier)
+                .withDBSnapshotArn(RdsFind.snapshotArn(region, accountNumber, dbSnapshotIdentifier))
+                .withSnapshotType(snapshotType)
+                .withEngine("mysql")
+                .withStatus("available")
+                .withInstanceCreateTime(createTime)
+                .withSnapshotCreateTime(createTime);
+        snapshots.put(dbSnapshotIdentifier, new Timeline<DBSnapshot>().set(now(), snapshot));
+        return snapshot.clone();
+    }
+
+    /**
+     * Removes a snapshot straight away, e.g. one that has aged out of its retention period.
+     */
+    public synchronized void removeSnapshot(String dbSnapshotIdentifier) {
+        snapshots.remove(dbSnapshotIdentifier);
+    }
+
+    /**
+     * @return the instance as it is now, regardless of faults
+     */
+    public synchronized Optional<DBInstance> instance(String dbInstanceIdentifier) {
+        Timeline<DBInstance> timeline = instances.get(dbInstanceIdentifier);
+        DBInstance instance = timeline == null ? null : timeline.at(now());
+        return instance == null ? Optional.<DBInstance>absent() : Optional.of(instance.clone());
+    }
+
+    /**
+     * @return every instance that exists now, regardless of faults
+     */
+    public synchronized List<DBInstance> instances() {
+        List<DBInstance> existing = Lists.newArrayList();
+        for (Timeline<DBInstance> timeline : instances.values()) {
+            DBInstance instance = timeline.at(now());
+            if (instance != null) {
+                existing.add(instance.clone());
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return the value of the instance's tag as it is now, regardless of faults
+     */
+    public synchronized Optional<String> tag(String dbInstanceIdentifier, String key) {
+        for (Tag tag : existing(dbInstanceIdentifier, now()).getTagList()) {
+            if (tag.getKey().equals(key)) {
+                return Optional.of(tag.getValue());
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return every snapshot that exists now, regardless of faults
+     */
+    public synchronized List<DBSnapshot> snapshots() {
+        List<DBSnapshot> existing = Lists.newArrayList();
+        for (String dbSnapshotIdentifier : snapshots.keySet()) {
+            DBSnapshot snapshot = snapshotNow(dbSnapshotIdentifier);
+            if (snapshot != null) {
+                existing.add(snapshot);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return how many times every instance in the region was listed, however many pages each took
+     */
+    public synchronized int scans() {
+        return scans;
+    }
+
+    @Override
+    public DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+        enter("DescribeDBInstances");
+        synchronized (this) {
+            long readTime = faults.readTime(clock);
+            if (request.getDBInstanceIdentifier() != null) {
+                return new DescribeDBInstancesResult().withDBInstances(
+                        existing(request.getDBInstanceIdentifier(), readTime).clone());
+            }
+            if (request.getFilters().isEmpty() && request.getMarker() == null) {
+                scans++;
+            }
+            List<DBInstance> described = Lists.newArrayList();
+            for (Timeline<DBInstance> timeline : instances.values()) {
+                DBInstance instance = timeline.at(readTime);
+                if (instance != null && matches(request.getFilters(), instance)) {
+                    described.add(instance);
+                }
+            }
+            int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+            int to = Math.min(described.size(), from + maxRecords(request.getMaxRecords()));
+            List<DBInstance> page = Lists.newArrayList();
+            for (DBInstance instance : described.subList(Math.min(from, to), to)) {
+                page.add(instance.clone());
+            }
+            return new DescribeDBInstancesResult()
+                    .withDBInstances(page)
+                    .withMarker(to < described.size() ? String.valueOf(to) : null);
+        }
+    }
+
+    @Override
+    public ListTagsForResourceResult listTagsForResource(ListTagsForResourceRequest request) {
+        enter("ListTagsForResource");
+        synchronized (this) {
+            DBInstance instance = existing(identifier(request.getResourceName()), faults.readTime(clock));
+            return new ListTagsForResourceResult().withTagList(Lists.newArrayList(instance.getTagList()));
+        }
+    }
+
+    @Override
+    public AddTagsToResourceResult addTagsToResource(final AddTagsToResourceRequest request) {
+        enter("AddTagsToResource");
+        synchronized (this) {
+            String dbInstanceIdentifier = identifier(request.getResourceName());
+            existing(dbInstanceIdentifier, now());
+            instances.get(dbInstanceIdentifier).update(now(), new Function<DBInstance, DBInstance>() {
+                @Override
+                public DBInstance apply(DBInstance instance) {
+                    Map<String, Tag> tags = Maps.newLinkedHashMap();
+                    for (Tag tag : instance.getTagList()) {
+                        tags.put(tag.getKey(), tag);
+                    }
+                    for (Tag tag : request.getTags()) {
+                        tags.put(tag.getKey(), tag.clone());
+                    }
+                    DBInstance tagged = instance.clone();
+                    tagged.setTagList(tags.values());
+                    return tagged;
+                }
+            });
+            return new AddTagsToResourceResult();
+        }
+    }
+
+    @Override
+    public DescribeDBSnapshotsResult describeDBSnapshots(DescribeDBSnapshotsRequest request) {
+        enter("DescribeDBSnapshots");
+        synchronized (this) {
+            long readTime = faults.readTime(clock);
+            List<DBSnapshot> described = Lists.newArrayList();
+            for (Timeline<DBSnapshot> timeline : snapshots.values()) {
+                DBSnapshot snapshot = timeline.at(readTime);
+                if (snapshot != null &&
+                        (request.getDBInstanceIdentifier() == null ||
+                                request.getDBInstanceIdentifier().equals(snapshot.getDBInstanceIdentifier())) &&
+                        (request.getDBSnapshotIdentifier() == null ||
+                                request.getDBSnapshotIdentifier().equals(snapshot.getDBSnapshotIdentifier())) &&
+                        (request.getSnapshotType() == null ||
+                                request.getSnapshotType().equals(snapshot.getSnapshotType()))) {
+                    described.add(snapshot);
+                }
+            }
+            if (request.getDBSnapshotIdentifier() != null && described.isEmpty()) {
+                throw new DBSnapshotNotFoundException("DBSnapshot " + request.getDBSnapshotIdentifier() + " not found.");
+            }
+            int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+            int to = Math.min(described.size(), from + maxRecords(request.getMaxRecords()));
+            List<DBSnapshot> page = Lists.newArrayList();
+            for (DBSnapshot snapshot : described.subList(Math.min(from, to), to)) {
+                page.add(snapshot.clone());
+            }
+            return new DescribeDBSnapshotsResult()
+                    .withDBSnapshots(page)
+                    .withMarker(to < described.size() ? String.valueOf(to) : null);
+        }
+    }
+
+    @Override
+    public DBSnapshot copyDBSnapshot(CopyDBSnapshotRequest request) {
+        enter("CopyDBSnapshot");
+        synchronized (this) {
+            // Automated snapshots' identifiers have a colon of their own, so split no further than the ARN's fields.
+            String[] arn = request.getSourceDBSnapshotIdentifier().split(":", 7);
+            SimulatedRds source = arn.length > 3 && !arn[3].equals(region) ? sourceRegions.get(arn[3]) : this;
+            DBSnapshot copied = source == null ? null : source.snapshotNow(arn[arn.length - 1]);
+            if (copied == null) {
+                throw new DBSnapshotNotFoundException("DBSnapshot " + request.getSourceDBSnapshotIdentifier() +
+                        " not found.");
+            }
+            String target = request.getTargetDBSnapshotIdentifier();
+            if (snapshotNow(target) != null) {
+                throw new DBSnapshotAlreadyExistsException("DBSnapshot " + target + " already exists.");
+            }
+            Date sourceCreateTime = copied.getSnapshotCreateTime();
+            copied.withDBSnapshotIdentifier(target)
+                    .withDBSnapshotArn(RdsFind.snapshotArn(region, accountNumber, target))
+                    .withSnapshotType("manual")
+                    .withStatus("copying")
+                    .withSnapshotCreateTime(null);
+            snapshots.put(target, new Timeline<DBSnapshot>()
+                    .set(now(), copied)
+                    .then(now() + statusMillis.get("copying"),
+                            copied.clone().withStatus("available").withSnapshotCreateTime(sourceCreateTime)));
+            return copied.clone();
+        }
+    }
+
+    @Override
+    public DBInstance restoreDBInstanceFromDBSnapshot(RestoreDBInstanceFromDBSnapshotRequest request) {
+        enter("RestoreDBInstanceFromDBSnapshot");
+        synchronized (this) {
+            DBSnapshot snapshot = snapshotNow(request.getDBSnapshotIdentifier());
+            if (snapshot == null) {
+                throw new DBSnapshotNotFoundException("DBSnapshot " + request.getDBSnapshotIdentifier() + " not found.");
+            }
+            if (!"available".equals(snapshot.getStatus())) {
+                throw new InvalidDBSnapshotStateException("DBSnapshot " + request.getDBSnapshotIdentifier() +
+                        " is not available.");
+            }
+            String dbInstanceIdentifier = request.getDBInstanceIdentifier().toLowerCase(Locale.ENGLISH);
+            Timeline<DBInstance> timeline = instances.get(dbInstanceIdentifier);
+            if (timeline != null && timeline.at(now()) != null) {
+                throw new DBInstanceAlreadyExistsException("DB Instance already exists");
+            }
+
+            DBInstance creating = newInstance(dbInstanceIdentifier,
+                    request.getTags().toArray(new Tag[request.getTags().size()]))
+                    .withEngine(request.getEngine() != null ? request.getEngine() : snapshot.getEngine())
+                    .withDBInstanceClass(request.getDBInstanceClass())
+                    .withMultiAZ(request.getMultiAZ())
+                    .withStorageType(request.getStorageType())
+                    .withIops(request.getIops())
+                    .withAutoMinorVersionUpgrade(request.getAutoMinorVersionUpgrade())
+                    .withDeletionProtection(request.getDeletionProtection())
+                    .withDBParameterGroups(new DBParameterGroupStatus()
+                            .withDBParameterGroupName(request.getDBParameterGroupName() != null ?
+                                    request.getDBParameterGroupName() : "default.mysql")
+                            .withParameterApplyStatus("in-sync"));
+            for (String id : request.getVpcSecurityGroupIds()) {
+                creating.withVpcSecurityGroups(new VpcSecurityGroupMembership().withVpcSecurityGroupId(id)
+                        .withStatus("active"));
+            }
+            DBInstance available = available(creating.clone())
+                    .withInstanceCreateTime(new Date(now() + statusMillis.get("creating")));
+            if (request.getPort() != null) {
+                available.getEndpoint().withPort(request.getPort());
+            }
+
+            timeline = new Timeline<DBInstance>()
+                    .set(now(), creating)
+                    .then(now() + statusMillis.get("creating"), available);
+            // Recreated under the same identifier, it goes to the back of the list as a new instance would.
+            instances.remove(dbInstanceIdentifier);
+            instances.put(dbInstanceIdentifier, timeline);
+            return creating.clone();
+        }
+    }
+
+    @Override
+    public DBInstance modifyDBInstance(ModifyDBInstanceRequest request) {
+        enter("ModifyDBInstance");
+        synchronized (this) {
+            DBInstance instance = availableNow(request.getDBInstanceIdentifier());
+            DBInstance modified = instance.clone();
+            if (request.getDBParameterGroupName() != null) {
+                modified.setDBParameterGroups(Lists.newArrayList(new DBParameterGroupStatus()
+                        .withDBParameterGroupName(request.getDBParameterGroupName())
+                        .withParameterApplyStatus("pending-reboot")));
+            }
+            if (!request.getVpcSecurityGroupIds().isEmpty()) {
+                List<VpcSecurityGroupMembership> groups = Lists.newArrayList();
+                for (String id : request.getVpcSecurityGroupIds()) {
+                    groups.add(new VpcSecurityGroupMembership().withVpcSecurityGroupId(id).withStatus("active"));
+                }
+                modified.setVpcSecurityGroups(groups);
+            }
+            if (request.getBackupRetentionPeriod() != null) {
+                modified.setBackupRetentionPeriod(request.getBackupRetentionPeriod());
+            }
+            if (request.getDBInstanceClass() != null) {
+                modified.setDBInstanceClass(request.getDBInstanceClass());
+            }
+            if (request.getDeletionProtection() != null) {
+                modified.setDeletionProtection(request.getDeletionProtection());
+            }
+            transition(request.getDBInstanceIdentifier(), instance, "modifying", modified);
+            return instance.clone().withDBInstanceStatus("modifying");
+        }
+    }
+
+    @Override
+    public DBInstance rebootDBInstance(RebootDBInstanceRequest request) {
+        enter("RebootDBInstance");
+        synchronized (this) {
+            DBInstance instance = availableNow(request.getDBInstanceIdentifier());
+            DBInstance rebooted = instance.clone();
+            List<DBParameterGroupStatus> groups = Lists.newArrayList();
+            for (DBParameterGroupStatus group : instance.getDBParameterGroups()) {
+                groups.add(group.clone().withParameterApplyStatus("in-sync"));
+            }
+            rebooted.setDBParameterGroups(groups);
+            transition(request.getDBInstanceIdentifier(), instance, "rebooting", rebooted);
+            return instance.clone().withDBInstanceStatus("rebooting");
+        }
+    }
+
+    @Override
+    public DBInstance deleteDBInstance(DeleteDBInstanceRequest request) {
+        enter("DeleteDBInstance");
+        synchronized (this) {
+            String dbInstanceIdentifier = request.getDBInstanceIdentifier();
+            DBInstance instance = existing(dbInstanceIdentifier, now());
+            if ("deleting".equals(instance.getDBInstanceStatus())) {
+                throw new InvalidDBInstanceStateException("Instance " + dbInstanceIdentifier +
+                        " is already being deleted.");
+            }
+            if (Boolean.TRUE.equals(instance.getDeletionProtection())) {
+                throw invalidParameterCombination("Cannot delete protected DB Instance, please disable deletion " +
+                        "protection and try again.");
+            }
+            boolean skipFinalSnapshot = Boolean.TRUE.equals(request.getSkipFinalSnapshot());
+            String finalSnapshot = Strings.emptyToNull(request.getFinalDBSnapshotIdentifier());
+            if (skipFinalSnapshot == (finalSnapshot != null)) {
+                throw invalidParameterCombination("FinalDBSnapshotIdentifier is required unless SkipFinalSnapshot " +
+                        "is specified, and may not be given with it.");
+            }
+            if (finalSnapshot != null && snapshotNow(finalSnapshot) != null) {
+                throw new DBSnapshotAlreadyExistsException("Cannot create the snapshot because a snapshot with the " +
+                        "identifier " + finalSnapshot + " already exists.");
+            }
+
+            long deleted = now() + statusMillis.get("deleting");
+            instances.get(dbInstanceIdentifier)
+                    .set(now(), instance.clone().withDBInstanceStatus("deleting"))
+                    .then(deleted, null);
+            if (finalSnapshot != null) {
+                DBSnapshot snapshot = new DBSnapshot()
+                        .withDBInstanceIdentifier(dbInstanceIdentifier)
+                        .withDBSnapshotIdentifier(finalSnapshot)
+                        .withDBSnapshotArn(RdsFind.snapshotArn(region, accountNumber, finalSnapshot))
+                        .withSnapshotType("manual")
+                        .withEngine(instance.getEngine())
+                        .withStatus("creating")
+                        .withInstanceCreateTime(instance.getInstanceCreateTime());
+                snapshots.put(finalSnapshot, new Timeline<DBSnapshot>()
+                        .set(now(), snapshot)
+                        .then(deleted, snapshot.clone().withStatus("available").withSnapshotCreateTime(new Date(deleted))));
+            }
+            return instance.clone().withDBInstanceStatus("deleting");
+        }
+    }
+
+    /**
+     * Takes the latency of a call, and throws if it is throttled.
+     */
+    void enter(String operation) {
+        if (faults.call(operation, clock)) {
+            AmazonRDSException e = new AmazonRDSException("Rate exceeded");
+            e.setErrorCode("Throttling");
+            e.setStatusCode(400);
+            e.setServiceName("AmazonRDS");
+            throw e;
+        }
+    }
+
+    void transition(String dbInstanceIdentifier, DBInstance instance, String status, DBInstance after) {
+        instances.get(dbInstanceIdentifier)
+                .set(now(), instance.clone().withDBInstanceStatus(status))
+                .then(now() + statusMillis.get(status), after.withDBInstanceStatus("available"));
+    }
+
+    DBInstance newInstance(String dbInstanceIdentifier, Tag... tags) {
+        DBInstance instance = new DBInstance()
+                .withDBInstanceIdentifier(dbInstanceIdentifier)
+                .withDBInstanceArn(RdsFind.instanceArn(region, accountNumber, dbInstanceIdentifier))
+                .withDBInstanceStatus("creating")
+                .withEngine("mysql");
+        instance.setTagList(Lists.newArrayList(tags));
+        return instance;
+    }
+
+    DBInstance available(DBInstance instance) {
+        return instance
+                .withDBInstanceStatus("available")
+                .withEndpoint(new Endpoint()
+                        .withAddress(instance.getDBInstanceIdentifier() + ".abcdefghijkl." + region + ".rds.amazonaws.com")
+                        .withPort(3306));
+    }
+
+    DBInstance availableNow(String dbInstanceIdentifier) {
+        DBInstance instance = existing(dbInstanceIdentifier, now());
+        if (!"available".equals(instance.getDBInstanceStatus())) {
+            throw new InvalidDBInstanceStateException("Instance " + dbInstanceIdentifier + " is not available, it is " +
+                    instance.getDBInstanceStatus() + ".");
+        }
+        return instance;
+    }
+
+    DBInstance existing(String dbInstanceIdentifier, long time) {
+        Timeline<DBInstance> timeline = instances.get(dbInstanceIdentifier);
+        DBInstance instance = timeline == null ? null : timeline.at(time);
+        if (instance == null) {
+            throw new DBInstanceNotFoundException("DBInstance " + dbInstanceIdentifier + " not found.");
+        }
+        return instance;
+    }
+
+    DBSnapshot snapshotNow(String dbSnapshotIdentifier) {
+        Timeline<DBSnapshot> timeline = snapshots.get(dbSnapshotIdentifier);
+        DBSnapshot snapshot = timeline == null ? null : timeline.at(now());
+        return snapshot == null ? null : snapshot.clone();
+    }
+
+    long now() {
+        return clock.currentTimeMillis();
+    }
+
+    static String identifier(String arn) {
+        return arn.substring(arn.lastIndexOf(':') + 1);
+    }
+
+    static int maxRecords(Integer maxRecords) {
+        return maxRecords == null ? DEFAULT_MAX_RECORDS : maxRecords;
+    }
+
+    static boolean matches(List<Filter> filters, DBInstance instance) {
+        for (Filter filter : filters) {
+            if (filter.getName().equals("db-instance-id") &&
+                    !filter.getValues().contains(instance.getDBInstanceIdentifier()) &&
+                    !filter.getValues().contains(instance.getDBInstanceArn())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static AmazonRDSException invalidParameterCombination(String message) {
+        AmazonRDSException e = new AmazonRDSException(message);
+        e.setErrorCode("InvalidParameterCombination");
+        e.setStatusCode(400);
+        e.setServiceName("AmazonRDS");
+        return e;
+    }
+}
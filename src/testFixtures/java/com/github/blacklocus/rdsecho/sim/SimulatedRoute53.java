@@ -0,0 +1,395 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.amazonaws.services.route53.AbstractAmazonRoute53;
+import com.amazonaws.services.route53.model.AmazonRoute53Exception;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.GetChangeRequest;
+import com.amazonaws.services.route53.model.GetChangeResult;
+import com.amazonaws.services.route53.model.GetHostedZoneRequest;
+import com.amazonaws.services.route53.model.GetHostedZoneResult;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.InvalidChangeBatchException;
+import com.amazonaws.services.route53.model.ListHostedZonesByNameRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesByNameResult;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.NoSuchChangeException;
+import com.amazonaws.services.route53.model.NoSuchHostedZoneException;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route53 simulated in memory, to go with {@link SimulatedRds}. Zones and record sets are listed in Route53's order and
+ * a page at a time, and change batches are refused as Route53 refuses them. A change is PENDING until
+ * {@link #withPropagationMillis(long) propagated}, then INSYNC. Every call first goes through the given
+ * {@link Faults}, so it may take a while, be throttled, or, for reads, see record sets as they were a while ago.
+ */
+public class SimulatedRoute53 extends AbstractAmazonRoute53 {
+
+    /**
+     * Items returned per list call unless MaxItems says otherwise, as with Route53
+     */
+    static final int DEFAULT_MAX_ZONES = 100;
+    static final int DEFAULT_MAX_RECORD_SETS = 300;
+
+    final VirtualClock clock;
+    final Faults faults;
+
+    long propagationMillis = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * By name with its labels reversed, Route53's order for listing zones by name
+     */
+    final TreeMap<String, HostedZone> zones = Maps.newTreeMap();
+    /**
+     * Each zone's record sets, in the order listed, by zone id
+     */
+    final Map<String, Timeline<List<ResourceRecordSet>>> recordSets = Maps.newHashMap();
+    /**
+     * When each change is in sync, by change id
+     */
+    final Map<String, Long> changes = Maps.newHashMap();
+    /**
+     * Every change in every batch applied, in order
+     */
+    final List<Change> applied = Lists.newArrayList();
+
+    public SimulatedRoute53(VirtualClock clock, Faults faults) {
+        this.clock = clock;
+        this.faults = faults;
+    }
+
+    public synchronized SimulatedRoute53 withPropagationMillis(long propagationMillis) {
+        this.propagationMillis = propagationMillis;
+        return this;
+    }
+
+    public synchronized HostedZone addHostedZone(String id, String name) {
+        HostedZone zone = new HostedZone().withId(id).withName(normalize(name));
+        zones.put(reversedLabels(name) + ' ' + id, zone);
+        recordSets.put(id, new Timeline<List<ResourceRecordSet>>()
+                .set(now(), ImmutableList.<ResourceRecordSet>of()));
+        return zone;
+    }
+
+    /**
+     * Adds record sets to a zone straight away, e.g. the many unrelated records a busy zone holds.
+     */
+    public synchronized void addRecordSets(String hostedZoneId, Iterable<ResourceRecordSet> added) {
+        List<ResourceRecordSet> sets = Lists.newArrayList(existing(hostedZoneId, now()));
+        for (ResourceRecordSet recordSet : added) {
+            sets.add(recordSet.clone().withName(normalize(recordSet.getName())));
+        }
+        recordSets.get(hostedZoneId).set(now(), sorted(sets));
+    }
+
+    /**
+     * @return the value of the simple CNAME of that name as it is now, regardless of faults
+     */
+    public synchronized Optional<String> cname(String hostedZoneId, String name) {
+        for (ResourceRecordSet recordSet : existing(hostedZoneId, now())) {
+            if (recordSet.getName().equals(normalize(name)) && recordSet.getType().equals(RRType.CNAME.toString()) &&
+                    recordSet.getSetIdentifier() == null) {
+                return Optional.of(recordSet.getResourceRecords().get(0).getValue());
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return the zone's record sets as they are now, in the order listed, regardless of faults
+     */
+    public synchronized List<ResourceRecordSet> recordSets(String hostedZoneId) {
+        List<ResourceRecordSet> sets = Lists.newArrayList();
+        for (ResourceRecordSet recordSet : existing(hostedZoneId, now())) {
+            sets.add(recordSet.clone());
+        }
+        return sets;
+    }
+
+    /**
+     * @return every change applied by ChangeResourceRecordSets, in order, not including those of batches refused
+     */
+    public synchronized List<Change> appliedChanges() {
+        List<Change> changes = Lists.newArrayList();
+        for (Change change : applied) {
+            changes.add(change.clone());
+        }
+        return changes;
+    }
+
+    @Override
+    public ListHostedZonesResult listHostedZones(ListHostedZonesRequest request) {
+        enter("ListHostedZones");
+        synchronized (this) {
+            List<HostedZone> all = Lists.newArrayList(zones.values());
+            int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+            int to = Math.min(all.size(), from + maxItems(request.getMaxItems(), DEFAULT_MAX_ZONES));
+            return new ListHostedZonesResult()
+                    .withHostedZones(clones(all.subList(Math.min(from, to), to)))
+                    .withIsTruncated(to < all.size())
+                    .withNextMarker(to < all.size() ? String.valueOf(to) : null);
+        }
+    }
+
+    @Override
+    public ListHostedZonesByNameResult listHostedZonesByName(ListHostedZonesByNameRequest request) {
+        enter("ListHostedZonesByName");
+        synchronized (this) {
+            String from = request.getDNSName() == null ? "" : reversedLabels(request.getDNSName()) + ' ' +
+                    MoreObjects.firstNonNull(request.getHostedZoneId(), "");
+            List<HostedZone> after = Lists.newArrayList(zones.tailMap(from, true).values());
+            int to = Math.min(after.size(), maxItems(request.getMaxItems(), DEFAULT_MAX_ZONES));
+            ListHostedZonesByNameResult result = new ListHostedZonesByNameResult()
+                    .withHostedZones(clones(after.subList(0, to)))
+                    .withIsTruncated(to < after.size());
+            if (to < after.size()) {
+                result.withNextDNSName(after.get(to).getName()).withNextHostedZoneId(after.get(to).getId());
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public GetHostedZoneResult getHostedZone(GetHostedZoneRequest request) {
+        enter("GetHostedZone");
+        synchronized (this) {
+            for (HostedZone zone : zones.values()) {
+                if (zone.getId().equals(request.getId())) {
+                    return new GetHostedZoneResult().withHostedZone(zone.clone());
+                }
+            }
+            throw new NoSuchHostedZoneException("No hosted zone found with ID: " + request.getId());
+        }
+    }
+
+    @Override
+    public ListResourceRecordSetsResult listResourceRecordSets(ListResourceRecordSetsRequest request) {
+        enter("ListResourceRecordSets");
+        synchronized (this) {
+            List<ResourceRecordSet> sets = existing(request.getHostedZoneId(), faults.readTime(clock));
+            int from = 0;
+            if (request.getStartRecordName() != null) {
+                String start = key(request.getStartRecordName(), request.getStartRecordType(),
+                        request.getStartRecordIdentifier());
+                while (from < sets.size() && key(sets.get(from)).compareTo(start) < 0) {
+                    from++;
+                }
+            }
+            int to = Math.min(sets.size(), from + maxItems(request.getMaxItems(), DEFAULT_MAX_RECORD_SETS));
+            List<ResourceRecordSet> page = Lists.newArrayList();
+            for (ResourceRecordSet recordSet : sets.subList(from, to)) {
+                page.add(recordSet.clone());
+            }
+            ListResourceRecordSetsResult result = new ListResourceRecordSetsResult()
+                    .withResourceRecordSets(page)
+                    .withIsTruncated(to < sets.size());
+            if (to < sets.size()) {
+                result.withNextRecordName(sets.get(to).getName())
+                        .withNextRecordType(sets.get(to).getType())
+                        .withNextRecordIdentifier(sets.get(to).getSetIdentifier());
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public ChangeResourceRecordSetsResult changeResourceRecordSets(ChangeResourceRecordSetsRequest request) {
+        enter("ChangeResourceRecordSets");
+        synchronized (this) {
+            List<ResourceRecordSet> sets = Lists.newArrayList(existing(request.getHostedZoneId(), now()));
+            for (Change change : request.getChangeBatch().getChanges()) {
+                change(sets, change);
+            }
+
+            // Refuse a batch that leaves a simple record alongside weighted ones of the same name and type.
+            Set<String> simple = Sets.newHashSet();
+            Set<String> weighted = Sets.newHashSet();
+            for (ResourceRecordSet recordSet : sets) {
+                (recordSet.getSetIdentifier() == null ? simple : weighted)
+                        .add(key(recordSet.getName(), recordSet.getType(), null));
+            }
+            if (!Sets.intersection(simple, weighted).isEmpty()) {
+                throw new InvalidChangeBatchException("RRSet with DNS name " + Sets.intersection(simple, weighted) +
+                        " is not permitted because a conflicting RRSet exists.");
+            }
+
+            recordSets.get(request.getHostedZoneId()).set(now(), sorted(sets));
+            applied.addAll(request.getChangeBatch().getChanges());
+            String id = "/change/C" + (changes.size() + 1);
+            changes.put(id, now() + propagationMillis);
+            return new ChangeResourceRecordSetsResult().withChangeInfo(new ChangeInfo()
+                    .withId(id)
+                    .withStatus(propagationMillis > 0 ? ChangeStatus.PENDING : ChangeStatus.INSYNC)
+                    .withSubmittedAt(new Date(now())));
+        }
+    }
+
+    @Override
+    public GetChangeResult getChange(GetChangeRequest request) {
+        enter("GetChange");
+        synchronized (this) {
+            Long inSync = changes.get(request.getId());
+            if (inSync == null) {
+                throw new NoSuchChangeException("A change with the specified change ID does not exist.");
+            }
+            return new GetChangeResult().withChangeInfo(new ChangeInfo()
+                    .withId(request.getId())
+                    .withStatus(now() < inSync ? ChangeStatus.PENDING : ChangeStatus.INSYNC)
+                    .withSubmittedAt(new Date(inSync - propagationMillis)));
+        }
+    }
+
+    /**
+     * Takes the latency of a call, and throws if it is throttled.
+     */
+    void enter(String operation) {
+        if (faults.call(operation, clock)) {
+            AmazonRoute53Exception e = new AmazonRoute53Exception("Rate exceeded");
+            e.setErrorCode("Throttling");
+            e.setStatusCode(400);
+            e.setServiceName("AmazonRoute53");
+            throw e;
+        }
+    }
+
+    static void change(List<ResourceRecordSet> sets, Change change) {
+        ResourceRecordSet changed = change.getResourceRecordSet();
+        String key = key(changed);
+        ResourceRecordSet existing = null;
+        for (ResourceRecordSet recordSet : sets) {
+            if (key(recordSet).equals(key)) {
+                existing = recordSet;
+            }
+        }
+        ChangeAction action = ChangeAction.fromValue(change.getAction());
+        if (action == ChangeAction.CREATE && existing != null) {
+            throw new InvalidChangeBatchException("Tried to create resource record set " + changed.getName() +
+                    " type " + changed.getType() + " but it already exists");
+        }
+        if (action == ChangeAction.DELETE && (existing == null || !sameRecords(existing, changed))) {
+            throw new InvalidChangeBatchException("Tried to delete resource record set " + changed.getName() +
+                    " type " + changed.getType() + " but it was not found");
+        }
+        sets.remove(existing);
+        if (action != ChangeAction.DELETE) {
+            sets.add(changed.clone().withName(normalize(changed.getName())));
+        }
+    }
+
+    List<ResourceRecordSet> existing(String hostedZoneId, long time) {
+        Timeline<List<ResourceRecordSet>> timeline = recordSets.get(hostedZoneId);
+        List<ResourceRecordSet> sets = timeline == null ? null : timeline.at(time);
+        if (sets == null) {
+            throw new NoSuchHostedZoneException("No hosted zone found with ID: " + hostedZoneId);
+        }
+        return sets;
+    }
+
+    long now() {
+        return clock.currentTimeMillis();
+    }
+
+    static boolean sameRecords(ResourceRecordSet a, ResourceRecordSet b) {
+        List<String> aValues = Lists.newArrayList();
+        for (ResourceRecord record : a.getResourceRecords()) {
+            aValues.add(record.getValue());
+        }
+        List<String> bValues = Lists.newArrayList();
+        for (ResourceRecord record : b.getResourceRecords()) {
+            bValues.add(record.getValue());
+        }
+        return aValues.equals(bValues);
+    }
+
+    static List<ResourceRecordSet> sorted(List<ResourceRecordSet> sets) {
+        List<ResourceRecordSet> sorted = Lists.newArrayList(sets);
+        Collections.sort(sorted, new Comparator<ResourceRecordSet>() {
+            @Override
+            public int compare(ResourceRecordSet a, ResourceRecordSet b) {
+                return key(a).compareTo(key(b));
+            }
+        });
+        return ImmutableList.copyOf(sorted);
+    }
+
+    static List<HostedZone> clones(List<HostedZone> zones) {
+        List<HostedZone> clones = Lists.newArrayList();
+        for (HostedZone zone : zones) {
+            clones.add(zone.clone());
+        }
+        return clones;
+    }
+
+    static int maxItems(String maxItems, int defaultMaxItems) {
+        return maxItems == null ? defaultMaxItems : Integer.parseInt(maxItems);
+    }
+
+    static String key(ResourceRecordSet recordSet) {
+        return key(recordSet.getName(), recordSet.getType(), recordSet.getSetIdentifier());
+    }
+
+    static String key(String name, String type, String setIdentifier) {
+        return reversedLabels(name) + ' ' + MoreObjects.firstNonNull(type, "") + ' ' +
+                MoreObjects.firstNonNull(setIdentifier, "");
+    }
+
+    static String reversedLabels(String name) {
+        List<String> labels = Lists.newArrayList(normalize(name).split("\\."));
+        Collections.reverse(labels);
+        return Joiner.on('.').join(labels);
+    }
+
+    static String normalize(String name) {
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        return lower.endsWith(".") ? lower : lower + '.';
+    }
+}
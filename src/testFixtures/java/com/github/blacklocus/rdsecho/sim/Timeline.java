@@ -0,0 +1,78 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.google.common.base.Function;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The versions of one simulated resource over time, including those already scheduled, e.g. an instance being created
+ * now which becomes available in ten minutes. A version of {@code null} means the resource does not exist. Reading at
+ * any time, past or future, gives the version current then, which is how stale reads and the passing of time are both
+ * simulated without anything running in the background. Not thread safe; the services lock around it.
+ */
+class Timeline<T> {
+
+    final NavigableMap<Long, T> versions = new TreeMap<Long, T>();
+
+    /**
+     * @return the version current at the given time, or null if the resource did not exist then
+     */
+    T at(long time) {
+        Map.Entry<Long, T> entry = versions.floorEntry(time);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Replaces the resource from the given time on, dropping any versions scheduled after it.
+     */
+    Timeline<T> set(long time, T version) {
+        versions.tailMap(time, true).clear();
+        versions.put(time, version);
+        return this;
+    }
+
+    /**
+     * Schedules a version to follow those already set.
+     */
+    Timeline<T> then(long time, T version) {
+        versions.put(time, version);
+        return this;
+    }
+
+    /**
+     * Changes the resource from the given time on, keeping versions scheduled after it but changing them the same way,
+     * e.g. a tag written while an instance is being created is still there once it is available.
+     */
+    void update(long time, Function<T, T> change) {
+        T current = at(time);
+        versions.tailMap(time, true).replaceAll((t, version) -> version == null ? null : change.apply(version));
+        if (!versions.containsKey(time)) {
+            versions.put(time, current == null ? null : change.apply(current));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.sim;
+
+import com.github.blacklocus.rdsecho.utl.EchoClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock on which sleeping takes no time at all: it just moves the clock on. Shared by Echo and the simulated AWS
+ * services, so that waiting out a 10 minute restore costs nothing. Every thread moves the same clock, so several
+ * threads sleeping at once move it by the sum of their sleeps rather than the longest, which only makes a simulated run
+ * look slower than a real one.
+ */
+public class VirtualClock implements EchoClock {
+
+    final AtomicLong now;
+
+    public VirtualClock(long startMillis) {
+        this.now = new AtomicLong(startMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now.get();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        advance(millis);
+    }
+
+    public void advance(long millis) {
+        now.addAndGet(Math.max(0, millis));
+    }
+}